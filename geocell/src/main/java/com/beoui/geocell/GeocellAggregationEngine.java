@@ -0,0 +1,23 @@
+package com.beoui.geocell;
+
+import java.util.List;
+
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellQuery;
+
+/**
+ * Engine able to count entities per geocell without fetching them, e.g. with a GROUP BY on the geocells column.
+ *
+ * @see GeocellManager#aggregate(com.beoui.geocell.model.BoundingBox, int, Class, GeocellQuery, GeocellAggregationEngine)
+ */
+public interface GeocellAggregationEngine {
+
+	/**
+	 * @param baseQuery query filtering the entities to count. see GeocellQuery class for more information.
+	 * @param cells geocells to group by, all of the same resolution
+	 * @param entityClass class of the entities to count
+	 * @return one aggregate per non-empty cell, in no particular order
+	 */
+	public abstract <T> List<GeocellAggregate> aggregate(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass);
+
+}
@@ -0,0 +1,149 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Counts of entities per geocell, for all resolutions, maintained incrementally.
+ *
+ * Adding a location updates the 13 counters of its geocells (see GeocellManager.generateGeoCell).
+ * Aggregating a bounding box then only walks the non-empty cells, whatever the number of entities.
+ *
+ * Counters of empty cells are removed, so the tree only holds the cells of the current locations.
+ * Counters can be updated concurrently. A read running concurrently with updates may see a count and a centroid
+ * that are not exactly in sync, which is fine for display.
+ *
+ */
+public class GeocellCountTree {
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    public void add(Point location) {
+        update(location, 1);
+    }
+
+    public void remove(Point location) {
+        update(location, -1);
+    }
+
+    public void move(Point oldLocation, Point newLocation) {
+        remove(oldLocation);
+        add(newLocation);
+    }
+
+    private void update(Point location, int sign) {
+        String cell = GeocellUtils.compute(location, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        for(int i = 1; i <= cell.length(); i++) {
+            // Updates of a cell are serialized, so that a counter dropping to 0 is removed before anything is added to it.
+            counters.compute(cell.substring(0, i), (prefix, counter) -> {
+                Counter updated = counter == null ? new Counter() : counter;
+                updated.add(sign, location);
+                return updated.count.sum() > 0 ? updated : null;
+            });
+        }
+    }
+
+    /**
+     * @return the number of non-empty cells, of all resolutions
+     */
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * @param cell
+     * @return the number of locations in the cell
+     */
+    public long count(String cell) {
+        Counter counter = counters.get(cell);
+        return counter == null ? 0 : counter.count.sum();
+    }
+
+    /**
+     * @param cell
+     * @return the aggregate of the cell, or null if the cell is empty
+     */
+    public GeocellAggregate get(String cell) {
+        Counter counter = counters.get(cell);
+        return counter == null ? null : counter.toAggregate(cell);
+    }
+
+    /**
+     * Returns the non-empty cells of the given resolution intersecting the bounding box, with their counts and centroids.
+     *
+     * @param bbox the bounding box, crossing the antimeridian if east < west.
+     * @param resolution resolution of the returned cells, between 1 and 13
+     * @return one aggregate per non-empty cell
+     */
+    public List<GeocellAggregate> aggregate(BoundingBox bbox, int resolution) {
+        Validate.isTrue(resolution > 0 && resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION,
+                "Invalid resolution. Must be between 1 and ", GeocellManager.MAX_GEOCELL_RESOLUTION);
+        List<GeocellAggregate> result = new ArrayList<GeocellAggregate>();
+        for(String cell : GeocellUtils.children("")) {
+            visit(cell, bbox, resolution, result);
+        }
+        return result;
+    }
+
+    private void visit(String cell, BoundingBox bbox, int resolution, List<GeocellAggregate> result) {
+        Counter counter = counters.get(cell);
+        if(counter == null || counter.count.sum() <= 0 || !intersects(GeocellUtils.computeBox(cell), bbox)) {
+            return;
+        }
+        if(cell.length() == resolution) {
+            GeocellAggregate aggregate = counter.toAggregate(cell);
+            if(aggregate != null) {
+                result.add(aggregate);
+            }
+            return;
+        }
+        for(String child : GeocellUtils.children(cell)) {
+            visit(child, bbox, resolution, result);
+        }
+    }
+
+    private static boolean intersects(BoundingBox cellBox, BoundingBox bbox) {
+        if(cellBox.getSouth() > bbox.getNorth() || cellBox.getNorth() < bbox.getSouth()) {
+            return false;
+        }
+        if(bbox.getEast() < bbox.getWest()) {
+            return cellBox.getEast() >= bbox.getWest() || cellBox.getWest() <= bbox.getEast();
+        }
+        return cellBox.getEast() >= bbox.getWest() && cellBox.getWest() <= bbox.getEast();
+    }
+
+    private static final class Counter {
+
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sumLat = new DoubleAdder();
+        private final DoubleAdder sumLon = new DoubleAdder();
+
+        private void add(int sign, Point location) {
+            count.add(sign);
+            sumLat.add(sign * location.getLat());
+            sumLon.add(sign * location.getLon());
+        }
+
+        private GeocellAggregate toAggregate(String cell) {
+            long n = count.sum();
+            if(n <= 0) {
+                return null;
+            }
+            double lat = Math.max(GeocellUtils.MIN_LATITUDE, Math.min(GeocellUtils.MAX_LATITUDE, sumLat.sum() / n));
+            double lon = Math.max(GeocellUtils.MIN_LONGITUDE, Math.min(GeocellUtils.MAX_LONGITUDE, sumLon.sum() / n));
+            return new GeocellAggregate(cell, n, new Point(lat, lon));
+        }
+
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.beoui.geocell;
+
+/**
+ * Thrown by a query which could not complete before the deadline of its search.
+ *
+ * @see GeocellQueryExecutor
+ */
+public class GeocellDeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public GeocellDeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public GeocellDeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.beoui.geocell;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellDelta;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Approximate count of entities per geocell, for the 13 resolutions, in a fixed amount of memory.
+ *
+ * The resolutions with at most width cells (up to resolution 3 with the default width) are counted exactly.
+ * The others use a count-min sketch: depth rows of width counters, the estimate of a cell being the smallest
+ * of its counters. An estimate is never below the actual count, and exceeds it by at most e * total / width
+ * with probability 1 - exp(-depth).
+ *
+ * Update it on write, e.g. with GeocellManager.generateGeoCell(Point, GeocellDensitySketch), and on moves with apply.
+ * Sketches of the same width and depth, built on several nodes, can be merged, or serialized with toBytes.
+ * Updates are thread safe.
+ */
+public class GeocellDensitySketch {
+
+    public static final int DEFAULT_WIDTH = 4096;
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int MAX_WIDTH = 1 << 24;
+
+    // Format version of toBytes.
+    private static final int VERSION = 1;
+
+    // Hash seeds of the rows, fixed so that sketches built apart can be merged.
+    private static final long[] SEEDS = {
+        0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+        0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x85EBCA77C2B2AE63L, 0x27D4EB2F165667C5L
+    };
+
+    private final int width;
+    private final int depth;
+    private final AtomicLong total = new AtomicLong();
+    // Counters of each resolution, index 0 for resolution 1: exact counts indexed by packed cell, or depth rows of width counters.
+    private final AtomicLongArray[] levels = new AtomicLongArray[GeocellManager.MAX_GEOCELL_RESOLUTION];
+
+    public GeocellDensitySketch() {
+        this(DEFAULT_WIDTH, DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param width number of counters per row, a power of 2 up to MAX_WIDTH. Larger is more accurate.
+     * @param depth number of rows, between 1 and 8. Larger is less likely to be inaccurate.
+     */
+    public GeocellDensitySketch(int width, int depth) {
+        Validate.isTrue(width > 0 && width <= MAX_WIDTH && Integer.bitCount(width) == 1, "Width must be a power of 2, at most ", MAX_WIDTH);
+        Validate.isTrue(depth > 0 && depth <= SEEDS.length, "Depth must be between 1 and ", SEEDS.length);
+        this.width = width;
+        this.depth = depth;
+        for(int resolution = 1; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+            long cells = 1L << 4 * resolution;
+            levels[resolution - 1] = new AtomicLongArray(isExact(resolution) ? (int) cells : width * depth);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return whether the cells of the resolution are counted exactly
+     */
+    public boolean isExact(int resolution) {
+        return resolution * 4 < 31 && 1 << 4 * resolution <= width;
+    }
+
+    /**
+     * @return the number of entities added minus the number removed
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Counts an entity in the geocells of its location.
+     */
+    public void add(Point point) {
+        add(GeocellManager.generateGeoCell(point));
+    }
+
+    /**
+     * Counts an entity in each of the given geocells.
+     *
+     * @param geocells geocells of an entity, one per resolution, as generated by GeocellManager.generateGeoCell
+     */
+    public void add(List<String> geocells) {
+        update(geocells, 1);
+        total.incrementAndGet();
+    }
+
+    /**
+     * Uncounts an entity from each of the given geocells.
+     */
+    public void remove(List<String> geocells) {
+        update(geocells, -1);
+        total.decrementAndGet();
+    }
+
+    /**
+     * Moves an entity from the removed to the added cells of the delta.
+     */
+    public void apply(GeocellDelta delta) {
+        update(delta.getRemovedCells(), -1);
+        update(delta.getAddedCells(), 1);
+    }
+
+    private void update(List<String> geocells, long increment) {
+        for(String cell : geocells) {
+            if(cell.length() == 0 || cell.length() > GeocellManager.MAX_GEOCELL_RESOLUTION) {
+                continue;
+            }
+            AtomicLongArray level = levels[cell.length() - 1];
+            long packed = GeocellUtils.pack(cell);
+            if(isExact(cell.length())) {
+                level.addAndGet((int) packed, increment);
+            } else {
+                for(int row = 0; row < depth; row++) {
+                    level.addAndGet(index(row, packed), increment);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param cell a geocell, "" for the whole world
+     * @return the estimated number of entities in the geocell, never below the actual number
+     */
+    public long estimate(String cell) {
+        Validate.isTrue(cell.length() <= GeocellManager.MAX_GEOCELL_RESOLUTION, "Invalid geocell resolution: " + cell);
+        if(cell.length() == 0) {
+            return total.get();
+        }
+        AtomicLongArray level = levels[cell.length() - 1];
+        long packed = GeocellUtils.pack(cell);
+        if(isExact(cell.length())) {
+            return level.get((int) packed);
+        }
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, level.get(index(row, packed)));
+        }
+        return estimate;
+    }
+
+    /**
+     * @return the sum of the estimates of the geocells
+     */
+    public long estimate(List<String> cells) {
+        long estimate = 0;
+        for(String cell : cells) {
+            estimate += estimate(cell);
+        }
+        return estimate;
+    }
+
+    /**
+     * Helps choosing the max resolution of a proximity search: the search starts in the cell of this resolution
+     * containing the point, it should hold about the number of searched entities.
+     *
+     * @return the highest resolution whose geocell containing the point is estimated to hold at least count entities,
+     * or 1 if none.
+     */
+    public int resolutionFor(Point point, long count) {
+        String cell = GeocellUtils.compute(point, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        for(int resolution = GeocellManager.MAX_GEOCELL_RESOLUTION; resolution > 1; resolution--) {
+            if(estimate(cell.substring(0, resolution)) >= count) {
+                return resolution;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Adds the counts of the other sketch to this one.
+     *
+     * @param other sketch of the same width and depth
+     */
+    public void merge(GeocellDensitySketch other) {
+        Validate.isTrue(width == other.width && depth == other.depth, "Sketches must have the same width and depth");
+        for(int i = 0; i < levels.length; i++) {
+            for(int j = 0; j < levels[i].length(); j++) {
+                long count = other.levels[i].get(j);
+                if(count != 0) {
+                    levels[i].addAndGet(j, count);
+                }
+            }
+        }
+        total.addAndGet(other.total.get());
+    }
+
+    /**
+     * Serializes the sketch. Concurrent updates may or may not be included.
+     */
+    public byte[] toBytes() {
+        int counters = 0;
+        for(AtomicLongArray level : levels) {
+            counters += level.length();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 * 3 + 8 * (1 + counters));
+        buffer.putInt(VERSION);
+        buffer.putInt(width);
+        buffer.putInt(depth);
+        buffer.putLong(total.get());
+        for(AtomicLongArray level : levels) {
+            for(int i = 0; i < level.length(); i++) {
+                buffer.putLong(level.get(i));
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @param bytes output of toBytes
+     * @return the deserialized sketch
+     */
+    public static GeocellDensitySketch fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Validate.isTrue(buffer.getInt() == VERSION, "Unknown sketch format");
+        GeocellDensitySketch sketch = new GeocellDensitySketch(buffer.getInt(), buffer.getInt());
+        sketch.total.set(buffer.getLong());
+        for(AtomicLongArray level : sketch.levels) {
+            for(int i = 0; i < level.length(); i++) {
+                level.set(i, buffer.getLong());
+            }
+        }
+        Validate.isTrue(!buffer.hasRemaining(), "Invalid sketch length");
+        return sketch;
+    }
+
+    /**
+     * @return the index of the counter of the packed cell in the row
+     */
+    private int index(int row, long packed) {
+        // Murmur3 finalizer of the seeded packed cell.
+        long hash = packed ^ SEEDS[row];
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return row * width + (int) (hash & (width - 1));
+    }
+
+}
@@ -0,0 +1,210 @@
+package com.beoui.geocell;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellFilter;
+
+/**
+ * Compiles filters into predicates on entities, for the in-memory query engines.
+ *
+ * Fields are resolved once, when the filter is compiled, so that evaluating the predicate on an entity
+ * only reads its fields and compares values. Numbers of different types are compared by value,
+ * other values must be Comparable for the ordering operators.
+ *
+ */
+public final class GeocellFilters {
+
+    // Entity class -> (field name -> accessible field).
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, Field>> FIELDS = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Field>>();
+
+    private GeocellFilters() {
+        // no instantiation allowed
+    }
+
+    /**
+     * @param filter the filter, null matches all entities
+     * @param entityClass class declaring (or inheriting) the filtered fields
+     * @return a predicate accepting the entities of entityClass matching the filter
+     * @throws IllegalArgumentException if a filtered field does not exist
+     */
+    public static Predicate<Object> compile(GeocellFilter filter, Class<?> entityClass) {
+        if(filter == null) {
+            return entity -> true;
+        }
+        return filter.accept(new Compiler(entityClass));
+    }
+
+    private static Field getField(Class<?> entityClass, String name) {
+        ConcurrentMap<String, Field> fields = FIELDS.get(entityClass);
+        if(fields == null) {
+            fields = new ConcurrentHashMap<String, Field>();
+            ConcurrentMap<String, Field> previous = FIELDS.putIfAbsent(entityClass, fields);
+            if(previous != null) {
+                fields = previous;
+            }
+        }
+        Field field = fields.get(name);
+        if(field == null) {
+            for(Class<?> type = entityClass; type != null && field == null; type = type.getSuperclass()) {
+                try {
+                    field = type.getDeclaredField(name);
+                } catch (NoSuchFieldException e) {
+                    // look in the superclass
+                }
+            }
+            Validate.notNull(field, "No field " + name + " in " + entityClass.getName());
+            field.setAccessible(true);
+            fields.put(name, field);
+        }
+        return field;
+    }
+
+    private static Object read(Field field, Object entity) {
+        try {
+            return field.get(entity);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot read field " + field.getName(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object value, Object other) {
+        if(value instanceof Number && other instanceof Number) {
+            if(isIntegral(value) && isIntegral(other)) {
+                return Long.compare(((Number) value).longValue(), ((Number) other).longValue());
+            }
+            return Double.compare(((Number) value).doubleValue(), ((Number) other).doubleValue());
+        }
+        return ((Comparable<Object>) value).compareTo(other);
+    }
+
+    private static boolean isIntegral(Object number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    private static boolean equal(Object value, Object other) {
+        if(value instanceof Number && other instanceof Number) {
+            return compare(value, other) == 0;
+        }
+        return value.equals(other);
+    }
+
+    private static final class Compiler implements GeocellFilter.Visitor<Predicate<Object>> {
+
+        private final Class<?> entityClass;
+
+        private Compiler(Class<?> entityClass) {
+            this.entityClass = entityClass;
+        }
+
+        @Override
+        public Predicate<Object> visit(GeocellFilter.Comparison comparison) {
+            final Field field = getField(entityClass, comparison.getField());
+            final Object expected = comparison.getValue();
+            switch(comparison.getOperator()) {
+            case EQ:
+                return entity -> {
+                    Object value = read(field, entity);
+                    return value != null && equal(value, expected);
+                };
+            case NE:
+                return entity -> {
+                    Object value = read(field, entity);
+                    return value != null && !equal(value, expected);
+                };
+            case LT:
+                return entity -> {
+                    Object value = read(field, entity);
+                    return value != null && compare(value, expected) < 0;
+                };
+            case LE:
+                return entity -> {
+                    Object value = read(field, entity);
+                    return value != null && compare(value, expected) <= 0;
+                };
+            case GT:
+                return entity -> {
+                    Object value = read(field, entity);
+                    return value != null && compare(value, expected) > 0;
+                };
+            case GE:
+                return entity -> {
+                    Object value = read(field, entity);
+                    return value != null && compare(value, expected) >= 0;
+                };
+            default:
+                throw new IllegalArgumentException("Unknown operator " + comparison.getOperator());
+            }
+        }
+
+        @Override
+        public Predicate<Object> visit(GeocellFilter.In in) {
+            final Field field = getField(entityClass, in.getField());
+            boolean numbers = false;
+            for(Object value : in.getValues()) {
+                numbers |= value instanceof Number;
+            }
+            if(numbers) {
+                // Numbers of different types are not equal: compare them one by one.
+                final List<Object> values = in.getValues();
+                return entity -> {
+                    Object value = read(field, entity);
+                    if(value == null) {
+                        return false;
+                    }
+                    for(Object expected : values) {
+                        if(equal(value, expected)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                };
+            }
+            final Set<Object> values = new HashSet<Object>(in.getValues());
+            return entity -> {
+                Object value = read(field, entity);
+                return value != null && values.contains(value);
+            };
+        }
+
+        @Override
+        public Predicate<Object> visit(GeocellFilter.Range range) {
+            final Field field = getField(entityClass, range.getField());
+            final Object lower = range.getLower();
+            final Object upper = range.getUpper();
+            return entity -> {
+                Object value = read(field, entity);
+                return value != null
+                        && (lower == null || compare(value, lower) >= 0)
+                        && (upper == null || compare(value, upper) <= 0);
+            };
+        }
+
+        @Override
+        public Predicate<Object> visit(GeocellFilter.And and) {
+            final List<Predicate<Object>> predicates = new ArrayList<Predicate<Object>>();
+            for(GeocellFilter filter : and.getFilters()) {
+                predicates.add(filter.accept(this));
+            }
+            return entity -> {
+                for(Predicate<Object> predicate : predicates) {
+                    if(!predicate.test(entity)) {
+                        return false;
+                    }
+                }
+                return true;
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.beoui.geocell;
+
+/**
+ * Reactive streams interfaces, with the same methods and rules as java.util.concurrent.Flow (and org.reactivestreams),
+ * which are not available to the Java 8 clients of this library: adapting a publisher to Flow or Reactor is a
+ * one line delegation of each method.
+ *
+ * @see GeocellPublishers
+ */
+public final class GeocellFlow {
+
+    private GeocellFlow() {
+        // no instantiation allowed
+    }
+
+    /**
+     * Producer of items, sent to each subscriber as it requests them.
+     *
+     * @param <T> type of the items
+     */
+    public interface Publisher<T> {
+
+        void subscribe(Subscriber<? super T> subscriber);
+
+    }
+
+    /**
+     * Receiver of items. Methods are called serially: onSubscribe first, then onNext at most as many times as requested,
+     * then onComplete or onError unless the subscription is cancelled.
+     *
+     * @param <T> type of the items
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+
+    }
+
+    /**
+     * Link between a publisher and a subscriber.
+     */
+    public interface Subscription {
+
+        /**
+         * Allows n more items to be sent. A non positive n fails the subscription with an IllegalArgumentException.
+         */
+        void request(long n);
+
+        /**
+         * Stops the items, eventually. The publisher stops its work and releases its resources.
+         */
+        void cancel();
+
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.beoui.geocell;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Batch versions of GeocellUtils.containsPoint and GeocellUtils.pointDistance, for filtering many candidates against a cell.
+ *
+ * Points are given as two arrays of latitudes and longitudes. The cell box is decoded once, then each point is handled
+ * by a loop over primitive arrays without allocation nor string comparison, which the JIT can unroll and partly vectorize.
+ *
+ */
+public final class GeocellKernels {
+
+    private GeocellKernels() {
+        // no instantiation allowed
+    }
+
+    /**
+     * Tests which points are in the cell. Like GeocellUtils.compute, a cell contains its south and west edges,
+     * and its north or east edge only when it lies on the pole or on the antimeridian.
+     *
+     * @param cell the geocell
+     * @param lats latitudes of the points
+     * @param lons longitudes of the points, same length as lats
+     * @param mask receives true for the points in the cell, at least as long as lats
+     * @return the number of points in the cell
+     */
+    public static int containsPoints(String cell, double[] lats, double[] lons, boolean[] mask) {
+        validate(lats, lons, mask.length);
+        double[] box = new double[4];
+        GeocellUtils.computeBox(cell, box);
+        int[] xy = GeocellTopology.toXY(cell);
+        int last = GeocellTopology.gridSize(cell.length()) - 1;
+        double south = box[2];
+        double west = box[3];
+        // Past the last row or column there is no other cell to own the edge: make it inclusive.
+        double north = xy[1] == last ? Double.POSITIVE_INFINITY : box[0];
+        double east = xy[0] == last ? Double.POSITIVE_INFINITY : box[1];
+
+        int count = 0;
+        for(int i = 0; i < lats.length; i++) {
+            boolean inside = lats[i] >= south & lats[i] < north & lons[i] >= west & lons[i] < east;
+            mask[i] = inside;
+            count += inside ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * @see #containsPoints(String, double[], double[], boolean[])
+     */
+    public static boolean[] containsPoints(String cell, double[] lats, double[] lons) {
+        boolean[] mask = new boolean[lats.length];
+        containsPoints(cell, lats, lons, mask);
+        return mask;
+    }
+
+    /**
+     * Computes the shortest distance between each point and the cell's rectangle, as GeocellUtils.pointDistance does:
+     * for a point inside the cell, this is the distance to the closest edge.
+     *
+     * @param cell the geocell
+     * @param lats latitudes of the points
+     * @param lons longitudes of the points, same length as lats
+     * @param distances receives the distances in meters, at least as long as lats
+     */
+    public static void pointDistances(String cell, double[] lats, double[] lons, double[] distances) {
+        validate(lats, lons, distances.length);
+        double[] box = new double[4];
+        GeocellUtils.computeBox(cell, box);
+        double north = box[0];
+        double east = box[1];
+        double south = box[2];
+        double west = box[3];
+        double southRad = Math.toRadians(south);
+        double northRad = Math.toRadians(north);
+        double westRad = Math.toRadians(west);
+        double eastRad = Math.toRadians(east);
+        double sinSouth = Math.sin(southRad);
+        double cosSouth = Math.cos(southRad);
+        double sinNorth = Math.sin(northRad);
+        double cosNorth = Math.cos(northRad);
+
+        for(int i = 0; i < lats.length; i++) {
+            double lat = Math.toRadians(lats[i]);
+            double sinLat = Math.sin(lat);
+            double cosLat = Math.cos(lat);
+            double lon = Math.toRadians(lons[i]);
+            double cosDeltaWest = Math.cos(lon - westRad);
+            double cosDeltaEast = Math.cos(lon - eastRad);
+
+            boolean betweenWE = west <= lons[i] & lons[i] <= east;
+            boolean betweenNS = south <= lats[i] & lats[i] <= north;
+
+            // Along the point's meridian, to the south and north edges.
+            double toParallels = Math.min(Math.abs(lat - southRad), Math.abs(lat - northRad));
+            // Along the point's parallel, to the west and east edges.
+            double toMeridians = Math.min(
+                    angle(sinLat * sinLat + cosLat * cosLat * cosDeltaWest),
+                    angle(sinLat * sinLat + cosLat * cosLat * cosDeltaEast));
+
+            double result;
+            if(betweenWE) {
+                result = betweenNS ? Math.min(toParallels, toMeridians) : toParallels;
+            } else if(betweenNS) {
+                result = toMeridians;
+            } else {
+                result = Math.min(
+                        Math.min(angle(sinLat * sinSouth + cosLat * cosSouth * cosDeltaWest),
+                                angle(sinLat * sinNorth + cosLat * cosNorth * cosDeltaWest)),
+                        Math.min(angle(sinLat * sinSouth + cosLat * cosSouth * cosDeltaEast),
+                                angle(sinLat * sinNorth + cosLat * cosNorth * cosDeltaEast)));
+            }
+            distances[i] = GeocellUtils.RADIUS * result;
+        }
+    }
+
+    /**
+     * @see #pointDistances(String, double[], double[], double[])
+     */
+    public static double[] pointDistances(String cell, double[] lats, double[] lons) {
+        double[] distances = new double[lats.length];
+        pointDistances(cell, lats, lons, distances);
+        return distances;
+    }
+
+    /**
+     * Central angle from its cosine, as in GeocellUtils.distance.
+     */
+    private static double angle(double cos) {
+        return Math.acos(GeocellUtils.makeDoubleInRange(cos));
+    }
+
+    private static void validate(double[] lats, double[] lons, int outputLength) {
+        Validate.isTrue(lats.length == lons.length, "Latitudes and longitudes must have the same length");
+        Validate.isTrue(outputLength >= lats.length, "Output array is too short");
+    }
+
+}
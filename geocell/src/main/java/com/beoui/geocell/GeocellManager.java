@@ -1,13 +1,14 @@
 package com.beoui.geocell;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import javax.jdo.PersistenceManager;
 import javax.persistence.EntityManager;
@@ -16,12 +17,21 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 
 import com.beoui.geocell.comparator.EntityLocationComparableTuple;
+import com.beoui.geocell.model.ApproximationPolicy;
 import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Circle;
 import com.beoui.geocell.model.CostFunction;
 import com.beoui.geocell.model.DefaultCostFunction;
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellCovering;
+import com.beoui.geocell.model.GeocellDelta;
 import com.beoui.geocell.model.GeocellQuery;
 import com.beoui.geocell.model.LocationCapable;
+import com.beoui.geocell.model.MultiPolygon;
 import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.Polygon;
+import com.beoui.geocell.model.ProximitySearchResult;
+import com.beoui.geocell.model.Region;
 import com.beoui.geocell.model.Tuple;
 
 /**
@@ -109,6 +119,9 @@ public class GeocellManager {
     // The maximum number of geocells to consider for a bounding box search.
     private static final int MAX_FEASIBLE_BBOX_SEARCH_CELLS = 300;
 
+    // Default maximum number of geocells in a region covering (IN filter limit of the app engine datastore).
+    public static final int DEFAULT_MAX_REGION_COVERING_CELLS = 30;
+
     // Function used if no custom function is used in bestBboxSearchCells method
     private static final CostFunction DEFAULT_COST_FUNCTION = new DefaultCostFunction();
 
@@ -130,11 +143,38 @@ public class GeocellManager {
         return geocells;
     }
 
+    /**
+     * Same as generateGeoCell, also counting the point in the density sketch.
+     *
+     * @param point
+     * @param sketch sketch of the entities
+     * @return Returns the list of geocells (all resolutions) that are containing the point
+     */
+    public static List<String> generateGeoCell(Point point, GeocellDensitySketch sketch) {
+        List<String> geocells = generateGeoCell(point);
+        sketch.add(geocells);
+        return geocells;
+    }
+
+    /**
+     * Returns the geocells to remove and to add when an entity moves from one location to another,
+     * instead of regenerating its whole geocells list with generateGeoCell.
+     *
+     * @param oldLocation previous location of the entity
+     * @param newLocation new location of the entity
+     * @return the difference between the geocells of both locations
+     */
+    public static GeocellDelta diff(Point oldLocation, Point newLocation) {
+        return new GeocellDelta(GeocellUtils.compute(oldLocation, MAX_GEOCELL_RESOLUTION),
+                GeocellUtils.compute(newLocation, MAX_GEOCELL_RESOLUTION));
+    }
+
     /**
      * Returns an efficient set of geocells to search in a bounding box query.
 
       This method is guaranteed to return a set of geocells having the same
-      resolution (except in the case of antimeridian search i.e when east < west).
+      resolution. When east < west, the box crosses the antimeridian: both sides are
+      planned together, their cells counting against the same cost.
 
      * @param bbox: A geotypes.Box indicating the bounding box being searched.
      * @param costFunction: A function that accepts two arguments:
@@ -145,65 +185,217 @@ public class GeocellManager {
      * @return A list of geocell strings that contain the given box.
      */
     public static List<String> bestBboxSearchCells(BoundingBox bbox, CostFunction costFunction) {
-    	if(bbox.getEast() < bbox.getWest()) {
-    		BoundingBox bboxAntimeridian1 = new BoundingBox(bbox.getNorth(), bbox.getEast(), bbox.getSouth(), GeocellUtils.MIN_LONGITUDE);
-    		BoundingBox bboxAntimeridian2 = new BoundingBox(bbox.getNorth(), GeocellUtils.MAX_LONGITUDE, bbox.getSouth(), bbox.getWest());
-    		List<String> antimeridianList = bestBboxSearchCells(bboxAntimeridian1, costFunction);
-    		antimeridianList.addAll(bestBboxSearchCells(bboxAntimeridian2, costFunction));
-    		return antimeridianList;
-    	}
-    	
+        List<String> minCostCellSet = bestBboxSearchCellsUnlogged(bbox, costFunction);
+        logger.log(Level.INFO, "Calculate cells "+StringUtils.join(minCostCellSet, ", ")+" in box ("+bbox.getSouth()+","+bbox.getWest()+") ("+bbox.getNorth()+","+bbox.getEast()+")");
+        return minCostCellSet;
+    }
+
+    /**
+     * Same as bestBboxSearchCells for many boxes, e.g. to plan the queries of tile rendering jobs.
+     *
+     * The boxes are planned in parallel, split by the spliterator of the list, in the common fork join pool.
+     * Cells are only computed for the chosen resolution of each box.
+     *
+     * @param bboxes the bounding boxes being searched
+     * @param costFunction see bestBboxSearchCells. Can be null. Called concurrently: it must be thread safe.
+     * @return the cells of each box, in the order of the boxes
+     */
+    public static List<List<String>> bestBboxSearchCellsBatch(List<BoundingBox> bboxes, final CostFunction costFunction) {
+        Validate.notNull(bboxes, "Bounding boxes must not be null");
+        List<List<String>> cellSets = StreamSupport.stream(bboxes.spliterator(), true)
+                .map(bbox -> bestBboxSearchCellsUnlogged(bbox, costFunction))
+                .collect(Collectors.toList());
+        logger.log(Level.FINE, "Calculated cells of {0} boxes", bboxes.size());
+        return cellSets;
+    }
+
+    private static List<String> bestBboxSearchCellsUnlogged(BoundingBox bbox, CostFunction costFunction) {
+        int resolution = bestBboxSearchResolution(bbox, costFunction);
+        if(resolution < 0) {
+            return new ArrayList<String>();
+        }
+        List<String> cellSet = GeocellTopology.bboxCells(bbox, resolution);
+        Collections.sort(cellSet);
+        return cellSet;
+    }
+
+    /**
+     * Chooses the resolution of bestBboxSearchCells from the number of cells of each resolution, counted in closed form.
+     *
+     * @return the resolution of the lowest cost, or -1 if no resolution has a feasible number of cells
+     */
+    private static int bestBboxSearchResolution(BoundingBox bbox, CostFunction costFunction) {
         String cellNE = GeocellUtils.compute(bbox.getNorthEast(), GeocellManager.MAX_GEOCELL_RESOLUTION);
         String cellSW = GeocellUtils.compute(bbox.getSouthWest(), GeocellManager.MAX_GEOCELL_RESOLUTION);
 
         // The current lowest BBOX-search cost found; start with practical infinity.
         double minCost = Double.MAX_VALUE;
 
-        // The set of cells having the lowest calculated BBOX-search cost.
-        List<String> minCostCellSet = new ArrayList<String>();
+        // The resolution having the lowest calculated BBOX-search cost.
+        int minCostResolution = -1;
 
         // First find the common prefix, if there is one.. this will be the base
         // resolution.. i.e. we don't have to look at any higher resolution cells.
+        // A box crossing the antimeridian spans every column of the world, only the whole world contains it.
         int minResolution = 0;
-        int maxResoltuion = Math.min(cellNE.length(), cellSW.length());
-        while(minResolution < maxResoltuion  && cellNE.substring(0, minResolution+1).startsWith(cellSW.substring(0, minResolution+1))) {
-            minResolution++;
+        if(bbox.getEast() < bbox.getWest()) {
+            minResolution = 1;
+        } else {
+            int maxResoltuion = Math.min(cellNE.length(), cellSW.length());
+            while(minResolution < maxResoltuion  && cellNE.charAt(minResolution) == cellSW.charAt(minResolution)) {
+                minResolution++;
+            }
         }
 
-        // Iteravely calculate all possible sets of cells that wholely contain
+        // Iteravely calculate the cost of all possible sets of cells that wholely contain
         // the requested bounding box.
+        int[] sw = GeocellTopology.toXY(cellSW);
+        int[] ne = GeocellTopology.toXY(cellNE);
+        boolean wraps = bbox.getEast() < bbox.getWest();
         for(int curResolution = minResolution; curResolution < GeocellManager.MAX_GEOCELL_RESOLUTION + 1; curResolution++) {
-            String curNE = cellNE.substring(0, curResolution);
-            String curSW = cellSW.substring(0, curResolution);
-
-            int numCells = GeocellUtils.interpolationCount(curNE, curSW);
+            long numCells = GeocellTopology.bboxCellsCount(sw, ne, wraps, curResolution);
             if(numCells > MAX_FEASIBLE_BBOX_SEARCH_CELLS) {
                 continue;
             }
 
-            List<String> cellSet = GeocellUtils.interpolate(curNE, curSW);
-            Collections.sort(cellSet);
-
             double cost;
             if(costFunction == null) {
-                cost = DEFAULT_COST_FUNCTION.defaultCostFunction(cellSet.size(), curResolution);
+                cost = DEFAULT_COST_FUNCTION.defaultCostFunction((int) numCells, curResolution);
             } else {
-                cost = costFunction.defaultCostFunction(cellSet.size(), curResolution);
+                cost = costFunction.defaultCostFunction((int) numCells, curResolution);
             }
 
             if(cost <= minCost) {
                 minCost = cost;
-                minCostCellSet = cellSet;
+                minCostResolution = curResolution;
             } else {
-                if(minCostCellSet.size() == 0) {
-                    minCostCellSet = cellSet;
+                if(minCostResolution < 0) {
+                    minCostResolution = curResolution;
                 }
                 // Once the cost starts rising, we won't be able to do better, so abort.
                 break;
             }
         }
-        logger.log(Level.INFO, "Calculate cells "+StringUtils.join(minCostCellSet, ", ")+" in box ("+bbox.getSouth()+","+bbox.getWest()+") ("+bbox.getNorth()+","+bbox.getEast()+")");
-        return minCostCellSet;
+        return minCostResolution;
+    }
+
+    /**
+     * Returns a set of geocells covering the given region, split between interior and boundary cells.
+
+      Starts from the cells returned by bestBboxSearchCells for the region's bounding box, drops the
+      cells not touching the region, then subdivides boundary cells (coarsest first) as long as the
+      covering stays within maxCells cells. Cells of the result can have different resolutions but never overlap.
+
+     * @param region the region to cover
+     * @param costFunction cost function used to choose the initial cells, see bestBboxSearchCells. Can be null.
+     * @param maxCells maximum number of cells of the covering, unless the initial cells are already more numerous.
+     * @return the covering of the region.
+     */
+    public static GeocellCovering regionCovering(Region region, CostFunction costFunction, int maxCells) {
+        Validate.notNull(region, "Region must not be null");
+        List<String> interiorCells = new ArrayList<String>();
+        LinkedList<String> boundaryCells = new LinkedList<String>();
+
+        for(String cell : bestBboxSearchCells(region.getBoundingBox(), costFunction)) {
+            if(cell.length() == 0) {
+                for(String child : GeocellUtils.children(cell)) {
+                    classifyCell(region, child, interiorCells, boundaryCells);
+                }
+            } else {
+                classifyCell(region, cell, interiorCells, boundaryCells);
+            }
+        }
+
+        List<String> finalBoundaryCells = new ArrayList<String>();
+        while(!boundaryCells.isEmpty()) {
+            String cell = boundaryCells.removeFirst();
+            if(cell.length() >= MAX_GEOCELL_RESOLUTION) {
+                finalBoundaryCells.add(cell);
+                continue;
+            }
+            List<String> childInteriorCells = new ArrayList<String>();
+            List<String> childBoundaryCells = new ArrayList<String>();
+            for(String child : GeocellUtils.children(cell)) {
+                classifyCell(region, child, childInteriorCells, childBoundaryCells);
+            }
+            int size = interiorCells.size() + boundaryCells.size() + finalBoundaryCells.size()
+                    + childInteriorCells.size() + childBoundaryCells.size();
+            if(size > maxCells) {
+                // Over budget, keep this cell and all remaining ones as they are.
+                finalBoundaryCells.add(cell);
+                finalBoundaryCells.addAll(boundaryCells);
+                break;
+            }
+            interiorCells.addAll(childInteriorCells);
+            boundaryCells.addAll(childBoundaryCells);
+        }
+        return new GeocellCovering(interiorCells, finalBoundaryCells);
+    }
+
+    private static void classifyCell(Region region, String cell, List<String> interiorCells, List<String> boundaryCells) {
+        BoundingBox box = GeocellUtils.computeBox(cell);
+        if(region.containsBox(box)) {
+            interiorCells.add(cell);
+        } else if(region.intersectsBox(box)) {
+            boundaryCells.add(cell);
+        }
+    }
+
+    /**
+     * Returns the geocells to search to find all the points within the given distance of the center.
+
+      The resolution is derived from the radius: it is the highest one whose cells are at least
+      as tall as the radius, so a handful of cells cover the circle. Cells of the circle's bounding box
+      not touching the circle are dropped.
+
+     * @param center A Point indicating the center of the search.
+     * @param radius the search radius, in meters.
+     * @return A list of geocell strings of the same resolution covering the circle.
+     */
+    public static List<String> radiusSearchCells(Point center, double radius) {
+        Circle circle = new Circle(center, radius);
+        BoundingBox bbox = circle.getBoundingBox();
+
+        // Near the poles the bounding box gets very wide, go down in resolution until the cell count is reasonable.
+        int resolution = radiusResolution(radius);
+        while(resolution > 1 && bboxCellsCount(bbox, resolution) > MAX_FEASIBLE_BBOX_SEARCH_CELLS) {
+            resolution--;
+        }
+
+        List<String> cells = new ArrayList<String>();
+        for(String cell : bboxCells(bbox, resolution)) {
+            if(circle.intersectsBox(GeocellUtils.computeBox(cell))) {
+                cells.add(cell);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Returns all the geocells of the given resolution intersecting the bounding box.
+     *
+     * @param bbox the bounding box, crossing the antimeridian if east < west.
+     * @param resolution resolution of the cells
+     * @return A list of geocell strings of the given resolution.
+     */
+    public static List<String> bboxCells(BoundingBox bbox, int resolution) {
+        return GeocellTopology.bboxCells(bbox, resolution);
+    }
+
+    /**
+     * Returns the number of cells bboxCells would return, without computing them.
+     */
+    public static long bboxCellsCount(BoundingBox bbox, int resolution) {
+        return GeocellTopology.bboxCellsCount(bbox, resolution);
+    }
+
+    /**
+     * Highest resolution whose cell height (PI * RADIUS / 4^resolution meters) is at least the given radius.
+     */
+    private static int radiusResolution(double radius) {
+        double ratio = Math.PI * GeocellUtils.RADIUS / radius;
+        int resolution = (int) Math.floor(Math.log(ratio) / Math.log(GeocellUtils.GEOCELL_GRID_SIZE));
+        return Math.max(1, Math.min(MAX_GEOCELL_RESOLUTION, resolution));
     }
 
     /**
@@ -336,159 +528,184 @@ public class GeocellManager {
        return proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, maxGeocellResolution);
    }
 
+   /**
+    * Approximate proximity search: stops as soon as the limits of the policy are reached, see {@link ApproximationPolicy}.
+    *
+    * @return the results, with whether they are exact
+    */
+   public static final <T> ProximitySearchResult<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, int maxGeocellResolution, ApproximationPolicy policy) {
+       return ProximitySearchContext.forCurrentThread().proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, maxGeocellResolution, policy);
+   }
+
+   /**
+    * Same as proximitySearch without timeout, but stops searching once the timeout has expired and returns
+    * the best results found so far, which may then not be the closest ones.
+    *
+    * Rounds are not started after the timeout. To also abandon a round whose query is still running,
+    * see {@link GeocellQueryExecutor}.
+    *
+    * @param timeout maximum duration of the search
+    * @param unit unit of the timeout
+    */
+   public static final <T> List<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, int maxGeocellResolution, long timeout, TimeUnit unit) {
+       return ProximitySearchContext.forCurrentThread().proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, maxGeocellResolution, timeout, unit);
+   }
+
+   /**
+    * Runs the search with the context of the current thread, see {@link ProximitySearchContext}.
+    *
+    * @see #proximityFetch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int)
+    */
    public static final <T> List<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, int maxGeocellResolution) {
-       List<EntityLocationComparableTuple<T>> results = new ArrayList<EntityLocationComparableTuple<T>>();
+       return ProximitySearchContext.forCurrentThread().proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, maxGeocellResolution);
+   }
 
-       Validate.isTrue(maxGeocellResolution < MAX_GEOCELL_RESOLUTION + 1,
-               "Invalid max resolution parameter. Must be inferior to ", MAX_GEOCELL_RESOLUTION);
-
-       // The current search geocell containing the lat,lon.
-       String curContainingGeocell = GeocellUtils.compute(center, maxGeocellResolution);
-
-       // Set of already searched cells
-       Set<String> searchedCells = new HashSet<String>();
-
-       /*
-        * The currently-being-searched geocells.
-        * NOTES:
-        * Start with max possible.
-        * Must always be of the same resolution.
-        * Must always form a rectangular region.
-        * One of these must be equal to the cur_containing_geocell.
-        */
-       List<String> curGeocells = new ArrayList<String>();
-       curGeocells.add(curContainingGeocell);
-       double closestPossibleNextResultDist = 0;
-
-       /*
-        * Assumes both a and b are lists of (entity, dist) tuples, *sorted by dist*.
-        * NOTE: This is an in-place merge, and there are guaranteed no duplicates in the resulting list.
-        */
-
-       int noDirection [] = {0,0};
-       List<Tuple<int[], Double>> sortedEdgesDistances = Arrays.asList(new Tuple<int[], Double>(noDirection, 0d));
-
-       while(!curGeocells.isEmpty()) {
-           closestPossibleNextResultDist = sortedEdgesDistances.get(0).getSecond();
-           if(maxDistance > 0 && closestPossibleNextResultDist > maxDistance) {
-               break;
-           }
+   /**
+    * Two-phase proximity search: the rounds only fetch the key and location of the entities (see GeocellProjection),
+    * then the entities of the closest keys are fetched at once. Use it when entities are much larger than their location.
+    *
+    * @param projectionEngine {@link GeocellProjectionEngine} to be used to execute queries
+    * @return the list of entities found near the center and ordered by distance.
+    * @see #proximitySearch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int)
+    */
+   public static final <T> List<T> proximitySearchTwoPhase(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellProjectionEngine projectionEngine, int maxGeocellResolution) {
+       return ProximitySearchContext.forCurrentThread().proximitySearchTwoPhase(center, maxResults, maxDistance, entityClass, baseQuery, projectionEngine, maxGeocellResolution);
+   }
 
-           Set<String> curTempUnique = new HashSet<String>(curGeocells);
-           curTempUnique.removeAll(searchedCells);
-           List<String> curGeocellsUnique = new ArrayList<String>(curTempUnique);
+   public static final <T> List<T> proximitySearchTwoPhase(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, PersistenceManager pm, int maxGeocellResolution) {
+       JDOGeocellQueryEngine queryEngine = new JDOGeocellQueryEngine();
+       queryEngine.setPersistenceManager(pm);
+       return proximitySearchTwoPhase(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, maxGeocellResolution);
+   }
 
-           List<T> newResultEntities = queryEngine.query(baseQuery, curGeocellsUnique, entityClass);
+   public static final <T> List<T> proximitySearchTwoPhase(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, EntityManager em, int maxGeocellResolution) {
+       JPAGeocellQueryEngine queryEngine = new JPAGeocellQueryEngine();
+       queryEngine.setEntityManager(em);
+       return proximitySearchTwoPhase(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, maxGeocellResolution);
+   }
 
-           logger.log(Level.FINE, "fetch complete for: " + StringUtils.join(curGeocellsUnique, ", "));
 
-           searchedCells.addAll(curGeocells);
+   /**
+    * Fetches the entities located in the given region.
+    *
+    * A single query is run against the cells of the region covering (see regionCovering). Entities found in interior cells
+    * are returned directly, only the ones found in boundary cells are tested against the region.
+    *
+    * @param region the region to search in, for instance a {@link Circle}, a {@link Polygon} or a {@link MultiPolygon}.
+    * @param entityClass class of the entity to search.
+    * @param baseQuery query that will be enhanced by algorithm. see GeocellQuery class for more information.
+    * @param queryEngine {@link GeocellQueryEngine} to be used to execute queries
+    * @param maxCells maximum number of geocells to query. The more cells, the fewer entities need an exact containment test.
+    * @return the list of entities found in the region, in no particular order.
+    */
+   public static final <T> List<T> regionSearch(Region region, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, int maxCells) {
+       GeocellCovering covering = regionCovering(region, null, maxCells);
+       List<T> result = new ArrayList<T>();
+       List<String> cells = covering.getCells();
+       if(cells.isEmpty()) {
+           return result;
+       }
 
-           // Begin storing distance from the search result entity to the
-           // search center along with the search result itself, in a tuple.
-           List<EntityLocationComparableTuple<T>> newResults = new ArrayList<EntityLocationComparableTuple<T>>();
-           for(T entity : newResultEntities) {
-               newResults.add(new EntityLocationComparableTuple<T>(entity, GeocellUtils.distance(center, GeocellUtils.getLocation(entity))));
-           }
-           // TODO (Alex) we can optimize here. Sort is needed only if new_results.size() > max_results.
-           Collections.sort(newResults);
-           newResults = newResults.subList(0, Math.min(maxResults, newResults.size()));
-
-           // Merge new_results into results
-           for(EntityLocationComparableTuple<T> tuple : newResults) {
-               // contains method will check if entity in tuple have same key
-               if(!results.contains(tuple)) {
-                   results.add(tuple);
+       List<T> entities = queryEngine.query(baseQuery, cells, entityClass);
+       int boundaryCandidates = 0;
+       for(T entity : entities) {
+           Point location = GeocellUtils.getLocation(entity);
+           if(covering.isInterior(location)) {
+               result.add(entity);
+           } else {
+               boundaryCandidates++;
+               if(region.contains(location)) {
+                   result.add(entity);
                }
            }
+       }
+       logger.log(Level.INFO, "Region query looked in "+cells.size()+" geocells ("+covering.getInteriorCells().size()+" interior) and found "
+               +result.size()+" results, "+boundaryCandidates+" candidates tested against the region.");
+       return result;
+   }
 
-           Collections.sort(results);
-           results = results.subList(0, Math.min(maxResults, results.size()));
+   public static final <T> List<T> regionSearch(Region region, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine) {
+       return regionSearch(region, entityClass, baseQuery, queryEngine, DEFAULT_MAX_REGION_COVERING_CELLS);
+   }
 
-           sortedEdgesDistances = GeocellUtils.distanceSortedEdges(curGeocells, center);
+   public static final <T> List<T> regionSearch(Region region, Class<T> entityClass, GeocellQuery baseQuery, PersistenceManager pm) {
+       JDOGeocellQueryEngine queryEngine = new JDOGeocellQueryEngine();
+       queryEngine.setPersistenceManager(pm);
+       return regionSearch(region, entityClass, baseQuery, queryEngine);
+   }
 
-           if(results.size() == 0 || curGeocells.size() == 4) {
-               /* Either no results (in which case we optimize by not looking at
-                       adjacents, go straight to the parent) or we've searched 4 adjacent
-                       geocells, in which case we should now search the parents of those
-                       geocells.*/
-               curContainingGeocell = curContainingGeocell.substring(0, Math.max(curContainingGeocell.length() - 1,0));
-               if(curContainingGeocell.length() == 0) {
-                   break;  // Done with search, we've searched everywhere.
-               }
-               List<String> oldCurGeocells = new ArrayList<String>(curGeocells);
-               curGeocells.clear();
-               for(String cell : oldCurGeocells) {
-                   if(cell.length() > 0) {
-                       String newCell = cell.substring(0, cell.length() - 1);
-                       if(!curGeocells.contains(newCell)) {
-                           curGeocells.add(newCell);
-                       }
-                   }
-               }
-               if(curGeocells.size() == 0) {
-                   break;  // Done with search, we've searched everywhere.
-               }
-           } else if(curGeocells.size() == 1) {
-               // Get adjacent in one direction.
-               // TODO(romannurik): Watch for +/- 90 degree latitude edge case geocells.
-               int nearestEdge[] = sortedEdgesDistances.get(0).getFirst();
-               curGeocells.add(GeocellUtils.adjacent(curGeocells.get(0), nearestEdge));
-           } else if(curGeocells.size() == 2) {
-               // Get adjacents in perpendicular direction.
-               int nearestEdge[] = GeocellUtils.distanceSortedEdges(Arrays.asList(curContainingGeocell), center).get(0).getFirst();
-               int[] perpendicularNearestEdge = {0,0};
-               if(nearestEdge[0] == 0) {
-                   // Was vertical, perpendicular is horizontal.
-                   for(Tuple<int[], Double> edgeDistance : sortedEdgesDistances) {
-                       if(edgeDistance.getFirst()[0] != 0) {
-                           perpendicularNearestEdge = edgeDistance.getFirst();
-                           break;
-                       }
-                   }
-               } else {
-                   // Was horizontal, perpendicular is vertical.
-                   for(Tuple<int[], Double> edgeDistance : sortedEdgesDistances) {
-                       if(edgeDistance.getFirst()[0] == 0) {
-                           perpendicularNearestEdge = edgeDistance.getFirst();
-                           break;
-                       }
-                   }
-               }
-               List<String> tempCells = new ArrayList<String>();
-               for(String cell : curGeocells) {
-                   tempCells.add(GeocellUtils.adjacent(cell, perpendicularNearestEdge));
-               }
-               curGeocells.addAll(tempCells);
-           }
+   public static final <T> List<T> regionSearch(Region region, Class<T> entityClass, GeocellQuery baseQuery, EntityManager em) {
+       JPAGeocellQueryEngine queryEngine = new JPAGeocellQueryEngine();
+       queryEngine.setEntityManager(em);
+       return regionSearch(region, entityClass, baseQuery, queryEngine);
+   }
 
-           // We don't have enough items yet, keep searching.
-           if(results.size() < maxResults) {
-               logger.log(Level.FINE,  results.size()+" results found but want "+maxResults+" results, continuing search.");
-               continue;
-           }
 
-           logger.log(Level.FINE, results.size()+" results found.");
+   /**
+    * Fetches all the entities within the given distance of the center, ordered by ascending distance.
+    *
+    * Unlike proximitySearch with a max distance, there is no incremental expansion: the cells covering the circle
+    * are computed up front (see radiusSearchCells), queried once and the results are filtered by exact distance.
+    *
+    * @param center A Point indicating the center point around which to search for matching entities.
+    * @param radius the search radius, in meters. Must be > 0.
+    * @param entityClass class of the entity to search.
+    * @param baseQuery query that will be enhanced by algorithm. see GeocellQuery class for more information.
+    * @param queryEngine {@link GeocellQueryEngine} to be used to execute queries
+    * @return the list of entities within the radius, ordered by distance.
+    */
+   public static final <T> List<T> withinRadius(Point center, double radius, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine) {
+       List<String> cells = radiusSearchCells(center, radius);
+       List<T> entities = queryEngine.query(baseQuery, cells, entityClass);
 
-           // If the currently max_results'th closest item is closer than any
-           // of the next test geocells, we're done searching.
-           double currentFarthestReturnableResultDist = GeocellUtils.distance(center, GeocellUtils.getLocation(results.get(maxResults - 1).getFirst()));
-           if (closestPossibleNextResultDist >=
-               currentFarthestReturnableResultDist) {
-               logger.log(Level.FINE, "DONE next result at least "+closestPossibleNextResultDist+" away, current farthest is "+currentFarthestReturnableResultDist+" dist");
-               break;
+       List<EntityLocationComparableTuple<T>> results = new ArrayList<EntityLocationComparableTuple<T>>();
+       for(T entity : entities) {
+           double distance = GeocellUtils.distance(center, GeocellUtils.getLocation(entity));
+           if(distance <= radius) {
+               results.add(new EntityLocationComparableTuple<T>(entity, distance));
            }
-           logger.log(Level.FINE, "next result at least "+closestPossibleNextResultDist+" away, current farthest is "+currentFarthestReturnableResultDist+" dist");
        }
-       List<T> result = new ArrayList<T>();
-       for(Tuple<T, Double> entry : results.subList(0, Math.min(maxResults, results.size()))) {
-           if(maxDistance == 0 || entry.getSecond() < maxDistance) {
-               result.add(entry.getFirst());
-           } else {
-        	   logger.info("Discarding result " + entry.getFirst() + " because distance " + entry.getSecond() + "m > max distance " + maxDistance + "m");
-           }
+       Collections.sort(results);
+
+       List<T> result = new ArrayList<T>(results.size());
+       for(Tuple<T, Double> entry : results) {
+           result.add(entry.getFirst());
        }
-       logger.log(Level.INFO, "Proximity query looked in "+ searchedCells.size() +" geocells and found "+result.size()+" results.");
+       logger.log(Level.INFO, "Radius query looked in "+cells.size()+" geocells and found "+result.size()+" results out of "+entities.size()+" candidates.");
+       return result;
+   }
+
+   public static final <T> List<T> withinRadius(Point center, double radius, Class<T> entityClass, GeocellQuery baseQuery, PersistenceManager pm) {
+       JDOGeocellQueryEngine queryEngine = new JDOGeocellQueryEngine();
+       queryEngine.setPersistenceManager(pm);
+       return withinRadius(center, radius, entityClass, baseQuery, queryEngine);
+   }
+
+   public static final <T> List<T> withinRadius(Point center, double radius, Class<T> entityClass, GeocellQuery baseQuery, EntityManager em) {
+       JPAGeocellQueryEngine queryEngine = new JPAGeocellQueryEngine();
+       queryEngine.setEntityManager(em);
+       return withinRadius(center, radius, entityClass, baseQuery, queryEngine);
+   }
+
+   /**
+    * Counts the entities per geocell of the given resolution in the bounding box, e.g. to display clusters on a map.
+    *
+    * Counting is delegated to the engine, which can push it down to the datastore (GROUP BY) instead of fetching entities.
+    *
+    * @param bbox the bounding box, crossing the antimeridian if east < west.
+    * @param resolution resolution of the cells to count. The box must not contain more than 300 cells of this resolution.
+    * @param entityClass class of the entities to count.
+    * @param baseQuery query filtering the entities to count. see GeocellQuery class for more information.
+    * @param engine {@link GeocellAggregationEngine} to be used to count
+    * @return one aggregate per non-empty cell, in no particular order.
+    */
+   public static final <T> List<GeocellAggregate> aggregate(BoundingBox bbox, int resolution, Class<T> entityClass, GeocellQuery baseQuery, GeocellAggregationEngine engine) {
+       Validate.isTrue(resolution > 0 && resolution <= MAX_GEOCELL_RESOLUTION, "Invalid resolution. Must be between 1 and ", MAX_GEOCELL_RESOLUTION);
+       long numCells = bboxCellsCount(bbox, resolution);
+       Validate.isTrue(numCells <= MAX_FEASIBLE_BBOX_SEARCH_CELLS, "Too many cells in bounding box for this resolution: ", numCells);
+       List<String> cells = bboxCells(bbox, resolution);
+       List<GeocellAggregate> result = engine.aggregate(baseQuery, cells, entityClass);
+       logger.log(Level.FINE, "Aggregated "+cells.size()+" geocells, "+result.size()+" not empty.");
        return result;
    }
 
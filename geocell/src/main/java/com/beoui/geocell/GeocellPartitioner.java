@@ -0,0 +1,300 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Maps geocells to N partitions of balanced load, e.g. to spread the entities or the queries of a region over the nodes of a cluster.
+ *
+ * The world is divided in regions: geocell prefixes, no one a prefix of another, covering the whole world.
+ * Starting from the top level cells, regions heavier than a fraction of the load of a partition are split in their 16 children,
+ * as long as the histogram knows how their load is spread. Regions are then assigned to partitions by ranges
+ * of consecutive geocells, so that a partition holds close regions.
+ *
+ * The load of a region is estimated from a histogram of counts per geocell, e.g. the output of GeocellManager.aggregate
+ * (see {@link #histogram(List)}). Counts of cells larger than a region are shared equally between their 16 children.
+ *
+ * A partitioner is immutable and thread safe. Use rebalance to change the number of partitions.
+ */
+public class GeocellPartitioner {
+
+    // Regions are split until they weigh at most 1 / REGIONS_PER_PARTITION of the load of a partition.
+    private static final int REGIONS_PER_PARTITION = 8;
+
+    private final int partitions;
+    // Region -> partition.
+    private final TreeMap<String, Integer> assignments;
+    // Region -> estimated load.
+    private final TreeMap<String, Double> loads;
+
+    /**
+     * @param partitions number of partitions, > 0
+     * @param histogram count of entities (or queries) per geocell, of any resolution
+     */
+    public GeocellPartitioner(int partitions, Map<String, Long> histogram) {
+        Validate.isTrue(partitions > 0, "Number of partitions must be > 0");
+        Validate.notNull(histogram, "Histogram must not be null");
+        this.partitions = partitions;
+        this.loads = split(partitions, new TreeMap<String, Long>(histogram));
+        this.assignments = new TreeMap<String, Integer>();
+
+        // Ranges of consecutive regions. Empty regions count as one entity, so that they are spread too.
+        double total = 0;
+        for(double load : loads.values()) {
+            total += load + 1;
+        }
+        double before = 0;
+        for(Map.Entry<String, Double> region : loads.entrySet()) {
+            double weight = region.getValue() + 1;
+            assignments.put(region.getKey(), Math.min(partitions - 1, (int) ((before + weight / 2) * partitions / total)));
+            before += weight;
+        }
+    }
+
+    private GeocellPartitioner(int partitions, TreeMap<String, Integer> assignments, TreeMap<String, Double> loads) {
+        this.partitions = partitions;
+        this.assignments = assignments;
+        this.loads = loads;
+    }
+
+    /**
+     * @return the histogram of the aggregates, for the constructor
+     */
+    public static Map<String, Long> histogram(List<GeocellAggregate> aggregates) {
+        Map<String, Long> histogram = new TreeMap<String, Long>();
+        for(GeocellAggregate aggregate : aggregates) {
+            Long count = histogram.get(aggregate.getCell());
+            histogram.put(aggregate.getCell(), (count == null ? 0 : count) + aggregate.getCount());
+        }
+        return histogram;
+    }
+
+    /**
+     * Splits the heaviest regions, starting from the top level cells.
+     */
+    private static TreeMap<String, Double> split(int partitions, TreeMap<String, Long> histogram) {
+        double total = 0;
+        for(long count : histogram.values()) {
+            total += count;
+        }
+        double maxLoad = total / partitions / REGIONS_PER_PARTITION;
+
+        TreeMap<String, Double> regions = new TreeMap<String, Double>();
+        PriorityQueue<String> heaviest = new PriorityQueue<String>(16, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return Double.compare(regions.get(o2), regions.get(o1));
+            }
+        });
+        for(String cell : GeocellUtils.children("")) {
+            regions.put(cell, load(histogram, cell));
+            heaviest.add(cell);
+        }
+        while(!heaviest.isEmpty()) {
+            String region = heaviest.poll();
+            if(regions.get(region) <= maxLoad || region.length() == GeocellManager.MAX_GEOCELL_RESOLUTION || !isSplittable(histogram, region)) {
+                // The remaining regions are lighter, or cannot be split either.
+                continue;
+            }
+            regions.remove(region);
+            for(String child : GeocellUtils.children(region)) {
+                regions.put(child, load(histogram, child));
+                heaviest.add(child);
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * @return the count of the cells in the region, plus the share of the region in the counts of the larger cells containing it
+     */
+    private static double load(TreeMap<String, Long> histogram, String region) {
+        double load = 0;
+        for(long count : histogram.subMap(region, region + Character.MAX_VALUE).values()) {
+            load += count;
+        }
+        for(int length = 0; length < region.length(); length++) {
+            Long count = histogram.get(region.substring(0, length));
+            if(count != null) {
+                load += count / Math.pow(16, region.length() - length);
+            }
+        }
+        return load;
+    }
+
+    /**
+     * @return whether the histogram has counts of cells smaller than the region
+     */
+    private static boolean isSplittable(TreeMap<String, Long> histogram, String region) {
+        String higher = histogram.higherKey(region);
+        return higher != null && higher.startsWith(region);
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return read-only map of the regions to their partition
+     */
+    public SortedMap<String, Integer> getAssignments() {
+        return Collections.unmodifiableSortedMap(assignments);
+    }
+
+    /**
+     * @return the estimated load of each partition
+     */
+    public double[] getLoads() {
+        double[] partitionLoads = new double[partitions];
+        for(Map.Entry<String, Integer> assignment : assignments.entrySet()) {
+            partitionLoads[assignment.getValue()] += loads.get(assignment.getKey());
+        }
+        return partitionLoads;
+    }
+
+    public int partitionFor(Point point) {
+        return partitionFor(GeocellUtils.compute(point, GeocellManager.MAX_GEOCELL_RESOLUTION));
+    }
+
+    /**
+     * @param cell a geocell, at least as small as the regions
+     * @return the partition of the region containing the geocell
+     * @throws IllegalArgumentException if the geocell is larger than a region, see partitionsFor
+     */
+    public int partitionFor(String cell) {
+        String region = region(cell);
+        Validate.notNull(region, "Geocell is larger than a region, use partitionsFor: " + cell);
+        return assignments.get(region);
+    }
+
+    /**
+     * Routes geocells, e.g. bestBboxSearchCells output, to partitions. A geocell larger than a region
+     * goes to the partitions of all the regions it contains.
+     *
+     * @return the geocells of each partition, by partition number
+     */
+    public SortedMap<Integer, List<String>> partitionsFor(List<String> cells) {
+        SortedMap<Integer, List<String>> routes = new TreeMap<Integer, List<String>>();
+        for(String cell : cells) {
+            String region = region(cell);
+            if(region != null) {
+                route(routes, assignments.get(region), cell);
+            } else {
+                for(int partition : assignments.subMap(cell, cell + Character.MAX_VALUE).values()) {
+                    route(routes, partition, cell);
+                }
+            }
+        }
+        return routes;
+    }
+
+    private static void route(SortedMap<Integer, List<String>> routes, int partition, String cell) {
+        List<String> partitionCells = routes.get(partition);
+        if(partitionCells == null) {
+            partitionCells = new ArrayList<String>();
+            routes.put(partition, partitionCells);
+        }
+        // A cell is routed once per partition.
+        if(partitionCells.isEmpty() || !partitionCells.get(partitionCells.size() - 1).equals(cell)) {
+            partitionCells.add(cell);
+        }
+    }
+
+    /**
+     * As regions are not prefixes of one another, the region containing the geocell is the closest one before it.
+     *
+     * @return the region containing the geocell, or null if the geocell is larger than a region
+     */
+    private String region(String cell) {
+        String region = assignments.floorKey(cell);
+        return region != null && cell.startsWith(region) ? region : null;
+    }
+
+    /**
+     * Changes the number of partitions, keeping the same regions and moving as few regions as possible:
+     * when partitions are removed, their regions go to the least loaded partitions; when partitions are added,
+     * they take regions from the most loaded partitions as long as it improves the balance.
+     *
+     * @return a partitioner with the given number of partitions
+     */
+    public GeocellPartitioner rebalance(int newPartitions) {
+        Validate.isTrue(newPartitions > 0, "Number of partitions must be > 0");
+        TreeMap<String, Integer> newAssignments = new TreeMap<String, Integer>(assignments);
+        double[] partitionLoads = new double[newPartitions];
+        List<String> orphans = new ArrayList<String>();
+        for(Map.Entry<String, Integer> assignment : newAssignments.entrySet()) {
+            if(assignment.getValue() < newPartitions) {
+                partitionLoads[assignment.getValue()] += loads.get(assignment.getKey());
+            } else {
+                orphans.add(assignment.getKey());
+            }
+        }
+
+        // Heaviest orphans first, to the least loaded partition.
+        Collections.sort(orphans, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return Double.compare(loads.get(o2), loads.get(o1));
+            }
+        });
+        for(String region : orphans) {
+            int partition = lightest(partitionLoads);
+            newAssignments.put(region, partition);
+            partitionLoads[partition] += loads.get(region);
+        }
+
+        // New partitions take regions from the heaviest ones, while it reduces the gap between both.
+        for(int partition = partitions; partition < newPartitions; partition++) {
+            while(true) {
+                int donor = heaviest(partitionLoads);
+                double gap = partitionLoads[donor] - partitionLoads[partition];
+                String moved = null;
+                for(Map.Entry<String, Integer> assignment : newAssignments.entrySet()) {
+                    double load = loads.get(assignment.getKey());
+                    if(assignment.getValue() == donor && load > 0 && load < gap && (moved == null || load > loads.get(moved))) {
+                        moved = assignment.getKey();
+                    }
+                }
+                if(moved == null) {
+                    break;
+                }
+                newAssignments.put(moved, partition);
+                partitionLoads[donor] -= loads.get(moved);
+                partitionLoads[partition] += loads.get(moved);
+            }
+        }
+        return new GeocellPartitioner(newPartitions, newAssignments, loads);
+    }
+
+    private static int lightest(double[] partitionLoads) {
+        int lightest = 0;
+        for(int i = 1; i < partitionLoads.length; i++) {
+            if(partitionLoads[i] < partitionLoads[lightest]) {
+                lightest = i;
+            }
+        }
+        return lightest;
+    }
+
+    private static int heaviest(double[] partitionLoads) {
+        int heaviest = 0;
+        for(int i = 1; i < partitionLoads.length; i++) {
+            if(partitionLoads[i] > partitionLoads[heaviest]) {
+                heaviest = i;
+            }
+        }
+        return heaviest;
+    }
+
+}
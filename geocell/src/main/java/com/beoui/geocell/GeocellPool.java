@@ -0,0 +1,149 @@
+package com.beoui.geocell;
+
+/**
+ * Shared instances of the geocell strings of low resolutions, whose number of distinct cells is bounded.
+ *
+ * Cells up to resolution 4 (69904 cells) have one slot each, indexed by packed value. Cells of resolutions 5 to
+ * MAX_POOLED_RESOLUTION share a fixed number of slots, indexed by a hash of the packed value: a cell replaces the one
+ * previously in its slot, so the pool never holds more than a few MB whatever the queries.
+ *
+ * Cells computed again and again by the searches, e.g. by adjacent and children, are then the same instance across
+ * queries: no allocation when pooled, and equals and hashCode of sets of cells are identity checks and cached hashes.
+ * The pool is thread safe without locking: strings are immutable, so a racy read sees either a complete entry or none.
+ */
+public final class GeocellPool {
+
+    public static final int MAX_POOLED_RESOLUTION = 8;
+
+    // Resolutions having one slot per cell.
+    private static final int EXACT_RESOLUTION = 4;
+    private static final int SHARED_BITS = 16;
+    private static final int SHARED_SLOTS = 1 << SHARED_BITS;
+
+    // Cells of resolution r are at (16^r - 1) / 15 - 1 + packed.
+    private static final String[] EXACT = new String[(int) ((1L << 4 * (EXACT_RESOLUTION + 1)) - 1) / 15 - 1];
+    private static final Entry[] SHARED = new Entry[SHARED_SLOTS];
+
+    private GeocellPool() {
+        // no instantiation allowed
+    }
+
+    /**
+     * @return the pooled geocell equal to the cell, or the cell itself if it is not pooled
+     */
+    public static String intern(String cell) {
+        int resolution = cell.length();
+        if(resolution == 0 || resolution > MAX_POOLED_RESOLUTION) {
+            return cell;
+        }
+        long packed = 0;
+        for(int i = 0; i < resolution; i++) {
+            int digit = digit(cell.charAt(i));
+            if(digit < 0) {
+                return cell;
+            }
+            packed = packed << 4 | digit;
+        }
+        String pooled = get(packed, resolution);
+        if(pooled != null) {
+            return pooled;
+        }
+        put(packed, resolution, cell);
+        return cell;
+    }
+
+    /**
+     * @param chars characters of a geocell
+     * @return the pooled geocell of the characters, or a new string if it is not pooled
+     */
+    public static String cell(char[] chars) {
+        int resolution = chars.length;
+        if(resolution == 0 || resolution > MAX_POOLED_RESOLUTION) {
+            return new String(chars);
+        }
+        long packed = 0;
+        for(int i = 0; i < resolution; i++) {
+            int digit = digit(chars[i]);
+            if(digit < 0) {
+                return new String(chars);
+            }
+            packed = packed << 4 | digit;
+        }
+        String pooled = get(packed, resolution);
+        if(pooled != null) {
+            return pooled;
+        }
+        String cell = new String(chars);
+        put(packed, resolution, cell);
+        return cell;
+    }
+
+    /**
+     * @param packed output of GeocellUtils.pack
+     * @param resolution length of the packed geocell, > 0
+     * @return the geocell, pooled if its resolution is at most MAX_POOLED_RESOLUTION
+     */
+    public static String cell(long packed, int resolution) {
+        String pooled = resolution <= MAX_POOLED_RESOLUTION ? get(packed, resolution) : null;
+        if(pooled != null) {
+            return pooled;
+        }
+        char[] chars = new char[resolution];
+        for(int i = 0; i < resolution; i++) {
+            chars[i] = Character.forDigit((int) (packed >>> 4 * (resolution - 1 - i)) & 0xf, 16);
+        }
+        String cell = new String(chars);
+        if(resolution <= MAX_POOLED_RESOLUTION) {
+            put(packed, resolution, cell);
+        }
+        return cell;
+    }
+
+    /**
+     * @return the value of the geocell character, -1 if it is not one
+     */
+    private static int digit(char c) {
+        if(c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        return c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+    }
+
+    private static String get(long packed, int resolution) {
+        if(resolution <= EXACT_RESOLUTION) {
+            return EXACT[exactIndex(packed, resolution)];
+        }
+        Entry entry = SHARED[sharedIndex(packed, resolution)];
+        return entry != null && entry.packed == packed && entry.cell.length() == resolution ? entry.cell : null;
+    }
+
+    private static void put(long packed, int resolution, String cell) {
+        if(resolution <= EXACT_RESOLUTION) {
+            EXACT[exactIndex(packed, resolution)] = cell;
+        } else {
+            SHARED[sharedIndex(packed, resolution)] = new Entry(packed, cell);
+        }
+    }
+
+    private static int exactIndex(long packed, int resolution) {
+        return (int) (((1L << 4 * resolution) - 1) / 15 - 1 + packed);
+    }
+
+    private static int sharedIndex(long packed, int resolution) {
+        long hash = (packed << 4 | resolution) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 64 - SHARED_BITS);
+    }
+
+    private static final class Entry {
+
+        private final long packed;
+        private final String cell;
+
+        private Entry(long packed, String cell) {
+            this.packed = packed;
+            this.cell = cell;
+        }
+
+    }
+
+}
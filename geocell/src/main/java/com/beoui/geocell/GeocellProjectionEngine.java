@@ -0,0 +1,34 @@
+package com.beoui.geocell;
+
+import java.util.List;
+
+import com.beoui.geocell.model.GeocellProjection;
+import com.beoui.geocell.model.GeocellQuery;
+
+/**
+ * Engine able to fetch only the key and location of entities, then the entities of a few keys.
+ *
+ * @see GeocellManager#proximitySearchTwoPhase(com.beoui.geocell.model.Point, int, double, Class, GeocellQuery, GeocellProjectionEngine, int)
+ */
+public interface GeocellProjectionEngine {
+
+	/**
+	 * Same as GeocellQueryEngine.query, returning projections instead of entities.
+	 *
+	 * @param baseQuery query filtering the entities. see GeocellQuery class for more information.
+	 * @param cells geocells to search in
+	 * @param entityClass class of the searched entities
+	 * @return the key and location of the entities found, in no particular order
+	 */
+	public abstract <T> List<GeocellProjection> queryProjections(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass);
+
+	/**
+	 * Fetches the entities of the given keys, in a single round trip.
+	 *
+	 * @param keys primary keys, as returned in projections
+	 * @param entityClass class of the entities
+	 * @return the entities found, in the order of the keys. Entities deleted since their keys were read are skipped.
+	 */
+	public abstract <T> List<T> fetch(List<Object> keys, Class<T> entityClass);
+
+}
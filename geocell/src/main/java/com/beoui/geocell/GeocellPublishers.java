@@ -0,0 +1,286 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.comparator.EntityLocationComparableTuple;
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Reactive versions of the searches, as {@link GeocellFlow.Publisher}s.
+ *
+ * Publishers are cold: each subscription runs its own search, on a thread of the given executor. The search
+ * respects the demand of the subscriber: it waits, holding its thread, until more items are requested,
+ * and a cancelled subscription stops the search before its next query. Queries being blocking calls,
+ * use an executor dedicated to them rather than an event loop.
+ */
+public final class GeocellPublishers {
+
+    private GeocellPublishers() {
+        // no instantiation allowed
+    }
+
+    /**
+     * Streams the queries of a blocking engine: cells are queried one at a time, when the entities of the previous
+     * cells have been requested.
+     */
+    public static GeocellStreamingEngine fromEngine(final GeocellQueryEngine queryEngine, final Executor executor) {
+        Validate.notNull(queryEngine, "Query engine must not be null");
+        Validate.notNull(executor, "Executor must not be null");
+        return new GeocellStreamingEngine() {
+            @Override
+            public <T> GeocellFlow.Publisher<T> queryStream(final GeocellQuery baseQuery, List<String> cells, final Class<T> entityClass) {
+                final List<String> cellsCopy = new ArrayList<String>(cells);
+                return publisher(executor, emitter -> {
+                    for(String cell : cellsCopy) {
+                        if(emitter.isCancelled()) {
+                            return;
+                        }
+                        for(T entity : queryEngine.query(baseQuery, Collections.singletonList(cell), entityClass)) {
+                            if(!emitter.emit(entity)) {
+                                return;
+                            }
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Same as GeocellManager.proximitySearch, emitting the results closest first as soon as they are final, i.e. closer
+     * than any cell not searched yet: the first results are typically sent after the first round.
+     * Cancelling the subscription stops the search before its next round.
+     *
+     * @see GeocellManager#proximitySearch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int)
+     */
+    public static <T> GeocellFlow.Publisher<T> proximitySearch(final Point center, final int maxResults, final double maxDistance, final Class<T> entityClass,
+            final GeocellQuery baseQuery, final GeocellQueryEngine queryEngine, final int maxGeocellResolution, Executor executor) {
+        Validate.notNull(queryEngine, "Query engine must not be null");
+        Validate.notNull(executor, "Executor must not be null");
+        return publisher(executor, emitter -> {
+            // Final results are a prefix of the sorted results, that later rounds do not change.
+            final int[] emitted = {0};
+            List<T> results = ProximitySearchContext.forCurrentThread().proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery,
+                    queryEngine, maxGeocellResolution, (roundResults, minNextDistance) -> {
+                        for(int i = emitted[0]; i < roundResults.size(); i++) {
+                            EntityLocationComparableTuple<Object> result = roundResults.get(i);
+                            if(maxDistance > 0 && result.getSecond() >= maxDistance) {
+                                // The remaining results are all too far.
+                                return false;
+                            }
+                            if(result.getSecond() >= minNextDistance) {
+                                break;
+                            }
+                            if(!emitter.emit(entityClass.cast(result.getFirst()))) {
+                                return false;
+                            }
+                            emitted[0]++;
+                        }
+                        return !emitter.isCancelled();
+                    });
+            for(int i = emitted[0]; i < results.size(); i++) {
+                if(!emitter.emit(results.get(i))) {
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Streams the entities in the bounding box, found in the cells of bestBboxSearchCells.
+     * East may be lower than west if the box crosses the antimeridian.
+     */
+    public static <T> GeocellFlow.Publisher<T> boundingBoxSearch(final BoundingBox bbox, final Class<T> entityClass, final GeocellQuery baseQuery,
+            final GeocellStreamingEngine streamingEngine) {
+        Validate.notNull(bbox, "Bounding box must not be null");
+        Validate.notNull(streamingEngine, "Streaming engine must not be null");
+        final List<String> cells = GeocellManager.bestBboxSearchCells(bbox, null);
+        return subscriber -> streamingEngine.queryStream(baseQuery, cells, entityClass).subscribe(new InBoxSubscriber<T>(subscriber, bbox));
+    }
+
+    private static boolean isInBox(Point location, BoundingBox bbox) {
+        if(location.getLat() < bbox.getSouth() || location.getLat() > bbox.getNorth()) {
+            return false;
+        }
+        if(bbox.getWest() <= bbox.getEast()) {
+            return location.getLon() >= bbox.getWest() && location.getLon() <= bbox.getEast();
+        }
+        return location.getLon() >= bbox.getWest() || location.getLon() <= bbox.getEast();
+    }
+
+    private interface Source<T> {
+
+        /**
+         * Emits the items, until emit returns false.
+         */
+        void run(Emitter<T> emitter) throws Exception;
+
+    }
+
+    private static <T> GeocellFlow.Publisher<T> publisher(final Executor executor, final Source<T> source) {
+        return subscriber -> {
+            Validate.notNull(subscriber, "Subscriber must not be null");
+            final Emitter<T> emitter = new Emitter<T>(subscriber);
+            subscriber.onSubscribe(emitter);
+            try {
+                executor.execute(() -> {
+                    try {
+                        source.run(emitter);
+                        emitter.complete();
+                    } catch(Throwable e) {
+                        emitter.error(e);
+                    }
+                });
+            } catch(RejectedExecutionException e) {
+                emitter.error(e);
+            }
+        };
+    }
+
+    /**
+     * Subscription sending items from the thread of the search, which waits for demand.
+     */
+    private static final class Emitter<T> implements GeocellFlow.Subscription {
+
+        private final GeocellFlow.Subscriber<? super T> subscriber;
+        private long demand;
+        private boolean cancelled;
+        private boolean terminated;
+        // Error of a non positive request, sent instead of completion.
+        private Throwable requestError;
+
+        private Emitter(GeocellFlow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if(n <= 0) {
+                if(requestError == null) {
+                    requestError = new IllegalArgumentException("Requested items must be > 0: " + n);
+                }
+                cancelled = true;
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Sends the item once requested.
+         *
+         * @return false if the subscription is cancelled, then the item is not sent
+         */
+        boolean emit(T item) {
+            synchronized(this) {
+                while(demand == 0 && !cancelled) {
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancelled = true;
+                    }
+                }
+                if(cancelled) {
+                    return false;
+                }
+                if(demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+            }
+            subscriber.onNext(item);
+            return true;
+        }
+
+        void complete() {
+            Throwable error = terminate(null);
+            if(error != null) {
+                subscriber.onError(error);
+            } else if(!isCancelled()) {
+                subscriber.onComplete();
+            }
+        }
+
+        void error(Throwable e) {
+            Throwable error = terminate(e);
+            if(error != null) {
+                subscriber.onError(error);
+            }
+        }
+
+        /**
+         * @return the error to send, if any and not sent yet
+         */
+        private synchronized Throwable terminate(Throwable e) {
+            if(terminated) {
+                return null;
+            }
+            terminated = true;
+            if(requestError != null) {
+                return requestError;
+            }
+            return cancelled ? null : e;
+        }
+
+    }
+
+    /**
+     * Forwards the items in the bounding box, requesting one more item for each item out of it.
+     */
+    private static final class InBoxSubscriber<T> implements GeocellFlow.Subscriber<T> {
+
+        private final GeocellFlow.Subscriber<? super T> downstream;
+        private final BoundingBox bbox;
+        private GeocellFlow.Subscription subscription;
+
+        private InBoxSubscriber(GeocellFlow.Subscriber<? super T> downstream, BoundingBox bbox) {
+            this.downstream = downstream;
+            this.bbox = bbox;
+        }
+
+        @Override
+        public void onSubscribe(GeocellFlow.Subscription subscription) {
+            this.subscription = subscription;
+            downstream.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if(isInBox(GeocellUtils.getLocation(item), bbox)) {
+                downstream.onNext(item);
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.onComplete();
+        }
+
+    }
+
+}
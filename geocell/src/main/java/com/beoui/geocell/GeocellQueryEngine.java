@@ -2,10 +2,37 @@ package com.beoui.geocell;
 
 import java.util.List;
 
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellDelta;
+import com.beoui.geocell.model.GeocellList;
 import com.beoui.geocell.model.GeocellQuery;
 
 public interface GeocellQueryEngine {
 
 	public abstract <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass);
 
-}
\ No newline at end of file
+	/**
+	 * Applies a geocells delta (see GeocellManager.diff) to a moved entity.
+	 *
+	 * The entity's geocells list is updated in place so that only the changed cells are written to the index.
+	 * A read-only GeocellList is replaced by the list of the new location, in the Geocells annotated field.
+	 * The entity location must be updated by the caller.
+	 *
+	 * @param entity entity whose geocells list is generated for the old location
+	 * @param delta difference between the old and new location geocells
+	 * @return the instance holding the update, to use afterwards: the entity itself, or its managed copy
+	 * when an engine merges a detached entity
+	 */
+	public default <T> T applyDelta(T entity, GeocellDelta delta) {
+		List<String> geocells = GeocellUtils.getGeocells(entity);
+		Validate.notNull(geocells, "Entity has no geocells list to update");
+		if(geocells instanceof GeocellList) {
+			GeocellUtils.setGeocells(entity, delta.applyTo((GeocellList) geocells));
+		} else {
+			delta.applyTo(geocells);
+		}
+		return entity;
+	}
+
+}
@@ -0,0 +1,255 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellDelta;
+import com.beoui.geocell.model.GeocellProjection;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Runs the queries of a datastore on an executor, with at most maxConcurrency queries running at the same time,
+ * and with deadlines.
+ *
+ * Use one instance per datastore, so that a slow datastore only holds its own permits. The executor can be
+ * a virtual thread per task executor: a task waiting for a permit or for the datastore only parks its virtual thread.
+ *
+ * When the deadline of a query passes, the caller stops waiting, the task is interrupted and
+ * {@link GeocellDeadlineExceededException} is thrown. The permit is released once the task actually ends.
+ *
+ */
+public class GeocellQueryExecutor {
+
+    private final Executor executor;
+    private final Semaphore permits;
+
+    /**
+     * @param executor executor running the queries, e.g. Executors.newVirtualThreadPerTaskExecutor() on JDK 21
+     * @param maxConcurrency maximum number of queries running at the same time
+     */
+    public GeocellQueryExecutor(Executor executor, int maxConcurrency) {
+        Validate.notNull(executor, "Executor must not be null");
+        Validate.isTrue(maxConcurrency > 0, "Max concurrency must be > 0");
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * Runs a query and waits for its result until the deadline.
+     *
+     * @param deadline deadline, as a System.nanoTime() value
+     * @throws GeocellDeadlineExceededException if the query did not complete before the deadline
+     */
+    public <T> List<T> query(GeocellQueryEngine queryEngine, GeocellQuery baseQuery, List<String> cells, Class<T> entityClass, long deadline) {
+        FutureTask<List<T>> task = submit(queryEngine, baseQuery, cells, entityClass);
+        return await(task, deadline);
+    }
+
+    /**
+     * Runs queries on several sets of cells concurrently, within the concurrency limit, and waits for all of them.
+     * The engine must support concurrent queries.
+     *
+     * @return the results of each set of cells, in the same order
+     * @throws GeocellDeadlineExceededException if some query did not complete in time, remaining queries are then cancelled.
+     */
+    public <T> List<List<T>> queryAll(GeocellQueryEngine queryEngine, GeocellQuery baseQuery, List<List<String>> cellSets, Class<T> entityClass, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<FutureTask<List<T>>> tasks = new ArrayList<FutureTask<List<T>>>();
+        for(List<String> cells : cellSets) {
+            tasks.add(submit(queryEngine, baseQuery, cells, entityClass));
+        }
+        List<List<T>> results = new ArrayList<List<T>>();
+        try {
+            for(FutureTask<List<T>> task : tasks) {
+                results.add(await(task, deadline));
+            }
+        } finally {
+            for(FutureTask<List<T>> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Proximity search whose queries run on this executor. When the timeout expires, no further round is started
+     * and the running query is abandoned: the best results found so far are returned.
+     *
+     * @see GeocellManager#proximitySearch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int, long, TimeUnit)
+     */
+    public <T> List<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery,
+            GeocellQueryEngine queryEngine, int maxGeocellResolution, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return GeocellManager.proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery,
+                withDeadline(queryEngine, deadline), maxGeocellResolution, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The engine must support concurrent queries: a query abandoned at its deadline may still be running when
+     * the next one starts.
+     *
+     * @return an engine running the queries of the given engine on this executor, failing once the deadline has passed.
+     * @see DeadlineEngine
+     */
+    public DeadlineEngine withDeadline(GeocellQueryEngine queryEngine, long deadline) {
+        Validate.notNull(queryEngine, "Query engine must not be null");
+        return new DeadlineEngine(queryEngine, deadline);
+    }
+
+    private <T> FutureTask<List<T>> submit(final GeocellQueryEngine queryEngine, final GeocellQuery baseQuery, List<String> cells, final Class<T> entityClass) {
+        // The task may still run after the caller gave up: give it its own copy of the cells.
+        final List<String> cellsCopy = new ArrayList<String>(cells);
+        return submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return queryEngine.query(baseQuery, cellsCopy, entityClass);
+            }
+        });
+    }
+
+    private <T> FutureTask<List<T>> submit(final Callable<List<T>> query) {
+        FutureTask<List<T>> task = new FutureTask<List<T>>(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                permits.acquire();
+                try {
+                    return query.call();
+                } finally {
+                    permits.release();
+                }
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    private static <T> List<T> await(FutureTask<List<T>> task, long deadline) {
+        return await(task, true, deadline);
+    }
+
+    private static <T> List<T> await(FutureTask<List<T>> task, boolean hasDeadline, long deadline) {
+        try {
+            return hasDeadline ? task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS) : task.get();
+        } catch(TimeoutException e) {
+            task.cancel(true);
+            throw new GeocellDeadlineExceededException("Query did not complete before the deadline", e);
+        } catch(CancellationException e) {
+            throw new GeocellDeadlineExceededException("Query was cancelled", e);
+        } catch(InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new GeocellDeadlineExceededException("Interrupted while waiting for the query", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if(e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Engine running the queries of another engine on the executor, until a deadline. It forwards every capability
+     * of the wrapped engine, and throws UnsupportedOperationException for the ones the wrapped engine lacks:
+     * <ul>
+     * <li>query, queryProjections and aggregate run on the executor and fail once the deadline has passed.</li>
+     * <li>fetch runs on the executor without deadline: proximitySearchTwoPhase only fetches the closest entities
+     * once the search has stopped, so that the best results found so far are returned.</li>
+     * <li>queryStream fails once the deadline has passed, the returned publisher is not bound by the deadline.</li>
+     * <li>shardCount is 1 when the wrapped engine is not a ShardAwareQueryEngine: it uses a single datastore.</li>
+     * <li>applyDelta is forwarded as is.</li>
+     * </ul>
+     */
+    public final class DeadlineEngine implements ShardAwareQueryEngine, GeocellProjectionEngine, GeocellAggregationEngine, GeocellStreamingEngine {
+
+        private final GeocellQueryEngine queryEngine;
+        private final long deadline;
+
+        private DeadlineEngine(GeocellQueryEngine queryEngine, long deadline) {
+            this.queryEngine = queryEngine;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+            return GeocellQueryExecutor.this.query(queryEngine, baseQuery, curGeocellsUnique, entityClass, deadline);
+        }
+
+        @Override
+        public <T> T applyDelta(T entity, GeocellDelta delta) {
+            return queryEngine.applyDelta(entity, delta);
+        }
+
+        @Override
+        public int shardCount(List<String> cells) {
+            return queryEngine instanceof ShardAwareQueryEngine ? ((ShardAwareQueryEngine) queryEngine).shardCount(cells) : 1;
+        }
+
+        @Override
+        public <T> List<GeocellProjection> queryProjections(final GeocellQuery baseQuery, List<String> cells, final Class<T> entityClass) {
+            final GeocellProjectionEngine projectionEngine = capability(GeocellProjectionEngine.class);
+            final List<String> cellsCopy = new ArrayList<String>(cells);
+            return await(submit(new Callable<List<GeocellProjection>>() {
+                @Override
+                public List<GeocellProjection> call() {
+                    return projectionEngine.queryProjections(baseQuery, cellsCopy, entityClass);
+                }
+            }), deadline);
+        }
+
+        @Override
+        public <T> List<T> fetch(List<Object> keys, final Class<T> entityClass) {
+            final GeocellProjectionEngine projectionEngine = capability(GeocellProjectionEngine.class);
+            final List<Object> keysCopy = new ArrayList<Object>(keys);
+            return await(submit(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    return projectionEngine.fetch(keysCopy, entityClass);
+                }
+            }), false, 0);
+        }
+
+        @Override
+        public <T> List<GeocellAggregate> aggregate(final GeocellQuery baseQuery, List<String> cells, final Class<T> entityClass) {
+            final GeocellAggregationEngine aggregationEngine = capability(GeocellAggregationEngine.class);
+            final List<String> cellsCopy = new ArrayList<String>(cells);
+            return await(submit(new Callable<List<GeocellAggregate>>() {
+                @Override
+                public List<GeocellAggregate> call() {
+                    return aggregationEngine.aggregate(baseQuery, cellsCopy, entityClass);
+                }
+            }), deadline);
+        }
+
+        @Override
+        public <T> GeocellFlow.Publisher<T> queryStream(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass) {
+            GeocellStreamingEngine streamingEngine = capability(GeocellStreamingEngine.class);
+            if(System.nanoTime() - deadline >= 0) {
+                throw new GeocellDeadlineExceededException("Deadline passed before the query started");
+            }
+            return streamingEngine.queryStream(baseQuery, cells, entityClass);
+        }
+
+        private <E> E capability(Class<E> type) {
+            if(!type.isInstance(queryEngine)) {
+                throw new UnsupportedOperationException(queryEngine.getClass().getName() + " is not a " + type.getSimpleName());
+            }
+            return type.cast(queryEngine);
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.beoui.geocell;
+
+import java.util.List;
+
+import com.beoui.geocell.model.GeocellQuery;
+
+/**
+ * Engine emitting the entities of the searched cells as they arrive, rather than returning them all at once.
+ *
+ * @see GeocellPublishers#fromEngine(GeocellQueryEngine, java.util.concurrent.Executor)
+ */
+public interface GeocellStreamingEngine {
+
+	/**
+	 * Same as GeocellQueryEngine.query, as a publisher: each subscription runs the query, no further cell is read
+	 * once it is cancelled.
+	 *
+	 * @param baseQuery query filtering the entities. see GeocellQuery class for more information.
+	 * @param cells geocells to search in
+	 * @param entityClass class of the searched entities
+	 * @return the entities found, in no particular order
+	 */
+	public abstract <T> GeocellFlow.Publisher<T> queryStream(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass);
+
+}
@@ -0,0 +1,99 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.TimeGranularity;
+
+/**
+ * Composite geocell + time bucket keys, for event-like entities queried on a time window, e.g. "near X in the last hour".
+ *
+ * A key is a geocell, ':', the code of a granularity and the number of a time bucket, e.g. "8e6f2:h482913".
+ * Entities store the keys of their location and time along with their geocells, in the geocells field:
+ * a query on the keys of a window only reads the entities of the buckets overlapping the window.
+ *
+ * @see TimeBucketedQueryEngine
+ */
+public final class GeocellTimeBuckets {
+
+    private GeocellTimeBuckets() {
+        // no instantiation allowed
+    }
+
+    /**
+     * @return the composite key of the geocell and the bucket
+     */
+    public static String key(String cell, TimeGranularity granularity, long bucket) {
+        return cell + ':' + granularity.getCode() + bucket;
+    }
+
+    /**
+     * Returns the keys of the point at the time, for all resolutions and the given granularities.
+     * Add them to the geocells of the entity, e.g. with generateGeoCell.
+     *
+     * @param point location of the entity
+     * @param time time of the entity, in milliseconds since the epoch
+     * @param granularities granularities of the queries to support, all if none
+     * @return one key per resolution and granularity
+     */
+    public static List<String> generateKeys(Point point, long time, TimeGranularity... granularities) {
+        List<TimeGranularity> used = granularities.length == 0 ? Arrays.asList(TimeGranularity.values()) : Arrays.asList(granularities);
+        List<String> keys = new ArrayList<String>();
+        for(String cell : GeocellManager.generateGeoCell(point)) {
+            for(TimeGranularity granularity : used) {
+                keys.add(key(cell, granularity, granularity.bucket(time)));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the number of buckets of the granularity overlapping the window
+     */
+    public static long bucketCount(long from, long to, TimeGranularity granularity) {
+        return granularity.bucket(to) - granularity.bucket(from) + 1;
+    }
+
+    /**
+     * Chooses the finest granularity whose keys of the cells over the window are at most maxKeys, so that the query reads
+     * as few entities out of the window as possible. Falls back to the coarsest granularity.
+     *
+     * @param granularities granularities stored in the entities
+     */
+    public static TimeGranularity granularityFor(long from, long to, int cells, int maxKeys, List<TimeGranularity> granularities) {
+        Validate.isTrue(from <= to, "Window must not end before it starts");
+        Validate.notEmpty(granularities, "Granularities must not be empty");
+        TimeGranularity coarsest = null;
+        TimeGranularity chosen = null;
+        for(TimeGranularity granularity : granularities) {
+            if(coarsest == null || granularity.getMillis() > coarsest.getMillis()) {
+                coarsest = granularity;
+            }
+            if((double) cells * bucketCount(from, to, granularity) <= maxKeys
+                    && (chosen == null || granularity.getMillis() < chosen.getMillis())) {
+                chosen = granularity;
+            }
+        }
+        return chosen != null ? chosen : coarsest;
+    }
+
+    /**
+     * @return the keys of the cells for each bucket of the granularity overlapping the window
+     */
+    public static List<String> expand(List<String> cells, long from, long to, TimeGranularity granularity) {
+        Validate.isTrue(from <= to, "Window must not end before it starts");
+        List<String> keys = new ArrayList<String>();
+        long last = granularity.bucket(to);
+        for(String cell : cells) {
+            for(long bucket = granularity.bucket(from); bucket <= last; bucket++) {
+                keys.add(key(cell, granularity, bucket));
+            }
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.beoui.geocell.model.BoundingBox;
+
+/**
+ * Integer (x, y) view of geocells, aware of the longitude wrap at the antimeridian and of the poles.
+ *
+ * At a given resolution, geocells form a 4^resolution x 4^resolution grid, x growing eastwards from -180
+ * and y northwards from -90. Going east of the last column wraps to the first one, while there is no cell
+ * north of the last row or south of the first one.
+ *
+ */
+public final class GeocellTopology {
+
+    private GeocellTopology() {
+        // no instantiation allowed
+    }
+
+    /**
+     * @param resolution
+     * @return the number of rows (and columns) of the grid at this resolution
+     */
+    public static int gridSize(int resolution) {
+        return 1 << (2 * resolution);
+    }
+
+    /**
+     * @param cell a geocell of resolution up to 15
+     * @return the (x, y) position of the cell in the grid of its resolution
+     */
+    public static int[] toXY(String cell) {
+        int x = 0;
+        int y = 0;
+        for(int i = 0; i < cell.length(); i++) {
+            int[] xy = GeocellUtils.subdivXY(cell.charAt(i));
+            x = x << 2 | xy[0];
+            y = y << 2 | xy[1];
+        }
+        return new int[] {x, y};
+    }
+
+    /**
+     * @param x column, wrapped around the antimeridian if out of the grid
+     * @param y row
+     * @param resolution
+     * @return the geocell at (x, y), or null if y is beyond a pole
+     */
+    public static String fromXY(int x, int y, int resolution) {
+        int size = gridSize(resolution);
+        if(y < 0 || y >= size) {
+            return null;
+        }
+        x = Math.floorMod(x, size);
+        char[] cell = new char[resolution];
+        for(int i = resolution - 1; i >= 0; i--) {
+            cell[i] = GeocellUtils.subdivChar(new int[] {x & 3, y & 3});
+            x >>= 2;
+            y >>= 2;
+        }
+        return new String(cell);
+    }
+
+    /**
+     * Number of columns from the west column to the east column included, going east.
+     * When the east column is west of the west one, the range wraps around the antimeridian.
+     */
+    static int columns(int westX, int eastX, boolean wraps, int size) {
+        if(!wraps) {
+            return eastX - westX + 1;
+        }
+        if(eastX >= westX) {
+            // Both sides of the antimeridian in the same column: every column is covered.
+            return size;
+        }
+        return eastX + size - westX + 1;
+    }
+
+    /**
+     * Returns the number of cells of the given resolution intersecting the bounding box, without computing them.
+     *
+     * @param bbox the bounding box, crossing the antimeridian if east < west.
+     * @param resolution
+     * @return the number of cells
+     */
+    public static long bboxCellsCount(BoundingBox bbox, int resolution) {
+        int[] sw = toXY(GeocellUtils.compute(bbox.getSouthWest(), resolution));
+        int[] ne = toXY(GeocellUtils.compute(bbox.getNorthEast(), resolution));
+        long rows = ne[1] - sw[1] + 1;
+        long cols = columns(sw[0], ne[0], bbox.getEast() < bbox.getWest(), gridSize(resolution));
+        return rows * cols;
+    }
+
+    /**
+     * Same as bboxCellsCount from the grid positions of the corner cells at max resolution, computed once for all resolutions:
+     * the cell of a lower resolution containing a point is a prefix of its max resolution cell, so its position
+     * is the high bits of the max resolution position.
+     *
+     * @param sw position of the south-west max resolution cell
+     * @param ne position of the north-east max resolution cell
+     * @param wraps whether the box crosses the antimeridian
+     */
+    static long bboxCellsCount(int[] sw, int[] ne, boolean wraps, int resolution) {
+        int shift = 2 * (GeocellManager.MAX_GEOCELL_RESOLUTION - resolution);
+        long rows = (ne[1] >> shift) - (sw[1] >> shift) + 1;
+        long cols = columns(sw[0] >> shift, ne[0] >> shift, wraps, gridSize(resolution));
+        return rows * cols;
+    }
+
+    /**
+     * Returns all the cells of the given resolution intersecting the bounding box, row by row from the south-west cell.
+     *
+     * @param bbox the bounding box, crossing the antimeridian if east < west.
+     * @param resolution
+     * @return A list of geocell strings of the given resolution.
+     */
+    public static List<String> bboxCells(BoundingBox bbox, int resolution) {
+        int[] sw = toXY(GeocellUtils.compute(bbox.getSouthWest(), resolution));
+        int[] ne = toXY(GeocellUtils.compute(bbox.getNorthEast(), resolution));
+        int cols = columns(sw[0], ne[0], bbox.getEast() < bbox.getWest(), gridSize(resolution));
+        List<String> cells = new ArrayList<String>((ne[1] - sw[1] + 1) * cols);
+        for(int y = sw[1]; y <= ne[1]; y++) {
+            for(int i = 0; i < cols; i++) {
+                cells.add(fromXY(sw[0] + i, y, resolution));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Returns the west and east longitudes of the rectangular region formed by the given cells of the same resolution.
+     * If the region crosses the antimeridian, east is lower than west.
+     *
+     * @param cells adjacent cells of the same resolution
+     * @return {west, east}
+     */
+    public static double[] westEast(List<String> cells) {
+        int size = gridSize(cells.get(0).length());
+        SortedSet<Integer> columnSet = new TreeSet<Integer>();
+        for(String cell : cells) {
+            columnSet.add(toXY(cell)[0]);
+        }
+        List<Integer> columns = new ArrayList<Integer>(columnSet);
+        // The region starts right after the largest gap between used columns, going around the world.
+        int westX = columns.get(0);
+        int eastX = columns.get(columns.size() - 1);
+        int largestGap = westX + size - eastX;
+        for(int i = 1; i < columns.size(); i++) {
+            int gap = columns.get(i) - columns.get(i - 1);
+            if(gap > largestGap) {
+                largestGap = gap;
+                westX = columns.get(i);
+                eastX = columns.get(i - 1);
+            }
+        }
+        double span = 360.0 / size;
+        return new double[] {GeocellUtils.MIN_LONGITUDE + westX * span, GeocellUtils.MIN_LONGITUDE + (eastX + 1) * span};
+    }
+
+}
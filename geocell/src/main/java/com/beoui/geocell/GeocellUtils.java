@@ -23,11 +23,14 @@ import java.util.List;
 import javax.jdo.annotations.PrimaryKey;
 import javax.persistence.Id;
 
+import org.apache.commons.lang.Validate;
+
 import com.beoui.geocell.annotations.Geocells;
 import com.beoui.geocell.annotations.Latitude;
 import com.beoui.geocell.annotations.Longitude;
 import com.beoui.geocell.comparator.DoubleTupleComparator;
 import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.GeocellProjection;
 import com.beoui.geocell.model.LocationCapable;
 import com.beoui.geocell.model.Point;
 import com.beoui.geocell.model.Tuple;
@@ -78,7 +81,17 @@ public final class GeocellUtils {
     private static final int[] WEST = new int[] {-1,0};
 
 
-    private static final int RADIUS = 6378135;
+    public static final int RADIUS = 6378135;
+
+    // Latitude and longitude spans of a cell, per resolution.
+    private static final double[] CELL_LAT_SPANS = new double[GeocellManager.MAX_GEOCELL_RESOLUTION + 1];
+    private static final double[] CELL_LON_SPANS = new double[GeocellManager.MAX_GEOCELL_RESOLUTION + 1];
+    static {
+        for(int resolution = 0; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+            CELL_LAT_SPANS[resolution] = cellSpan(MAX_LATITUDE - MIN_LATITUDE, resolution);
+            CELL_LON_SPANS[resolution] = cellSpan(MAX_LONGITUDE - MIN_LONGITUDE, resolution);
+        }
+    }
 
     private GeocellUtils() {
         // no instantiation allowed
@@ -128,6 +141,8 @@ public final class GeocellUtils {
       given Northeast geocell to the given Southwest geocell.
 
       Assumes the Northeast geocell is actually Northeast of Southwest geocell.
+      A Northeast geocell west of the Southwest geocell means the grid crosses
+      the antimeridian: columns wrap from the East edge of the world to the West edge.
 
      *
      * @param cellNE: The Northeast geocell string.
@@ -187,18 +202,13 @@ public final class GeocellUtils {
      * @return An int, indicating the number of geocells in the interpolation.
      */
     public static int interpolationCount(String cellNE, String cellSW) {
+        int[] ne = GeocellTopology.toXY(cellNE);
+        int[] sw = GeocellTopology.toXY(cellSW);
+        // A Northeast cell west of the Southwest cell means the grid crosses the antimeridian.
+        long numCols = GeocellTopology.columns(sw[0], ne[0], ne[0] < sw[0], GeocellTopology.gridSize(cellSW.length()));
+        long numRows = ne[1] - sw[1] + 1;
 
-
-        BoundingBox bboxNE = computeBox(cellNE);
-        BoundingBox bboxSW = computeBox(cellSW);
-
-        double cellLatSpan = bboxSW.getNorth() - bboxSW.getSouth();
-        double cellLonSpan = bboxSW.getEast() - bboxSW.getWest();
-
-        double numCols = ((bboxNE.getEast() - bboxSW.getWest()) / cellLonSpan);
-        double numRows = ((bboxNE.getNorth() - bboxSW.getSouth()) / cellLatSpan);
-
-        double totalCols = numCols * numRows * 1.0;
+        long totalCols = numCols * numRows;
         if(totalCols > Integer.MAX_VALUE) {
         	return Integer.MAX_VALUE;
         }
@@ -221,6 +231,27 @@ public final class GeocellUtils {
         return result;
     }
 
+    /**
+     * Calculates the 16 sub-cells of the given geocell, i.e. the cells one resolution higher having it as parent.
+     *
+     * @param cell: The geocell string to subdivide. Empty string subdivides the whole world.
+     * @return A list of 16 geocell strings.
+     */
+    public static List<String> children(String cell) {
+        List<String> result = new ArrayList<String>(GEOCELL_ALPHABET.length());
+        if(cell.length() < GeocellPool.MAX_POOLED_RESOLUTION) {
+            long packed = pack(cell) << 4;
+            for(int i = 0; i < GEOCELL_ALPHABET.length(); i++) {
+                result.add(GeocellPool.cell(packed | i, cell.length() + 1));
+            }
+            return result;
+        }
+        for(int i = 0; i < GEOCELL_ALPHABET.length(); i++) {
+            result.add(cell + GEOCELL_ALPHABET.charAt(i));
+        }
+        return result;
+    }
+
     /**
      * Calculates the geocell adjacent to the given cell in the given direction.
      *
@@ -294,7 +325,7 @@ public final class GeocellUtils {
         }
 
         // At this point, horizontal wrapping is done inherently.
-        return new String(cellAdjArr);
+        return GeocellPool.cell(cellAdjArr);
     }
 
     /**
@@ -391,26 +422,56 @@ public final class GeocellUtils {
         if(cell_ == null) {
             return null;
         }
+        double[] box = new double[4];
+        computeBox(cell_, box);
+        return new BoundingBox(box[0], box[1], box[2], box[3]);
+    }
 
-        BoundingBox bbox = new BoundingBox(90.0, 180.0, -90.0, -180.0);
-        StringBuilder cell = new StringBuilder(cell_);
-        while(cell.length() > 0) {
-            double subcellLonSpan = (bbox.getEast() - bbox.getWest()) / GEOCELL_GRID_SIZE;
-            double subcellLatSpan = (bbox.getNorth() - bbox.getSouth()) / GEOCELL_GRID_SIZE;
-
-            int l[] = subdivXY(cell.charAt(0));
-            int x = l[0];
-            int y = l[1];
+    /**
+     * Computes the rectangular boundaries of the given geocell without allocating.
 
-            bbox = new BoundingBox(bbox.getSouth() + subcellLatSpan * (y + 1),
-                    bbox.getWest()  + subcellLonSpan * (x + 1),
-                    bbox.getSouth() + subcellLatSpan * y,
-                    bbox.getWest()  + subcellLonSpan * x);
+      The cell's column and row are decoded from the string, then each side is
+      a single multiplication by the cell span of the resolution.
 
-            cell.deleteCharAt(0);
+     * @param cell The geocell string whose boundaries are to be computed, of resolution up to 31.
+     * @param box receives {north, east, south, west}, in the order of the BoundingBox constructor.
+     */
+    public static void computeBox(String cell, double[] box) {
+        long x = 0;
+        long y = 0;
+        for(int i = 0; i < cell.length(); i++) {
+            // NOTE: This only works for grid size 4, see subdivXY.
+            int charI = GEOCELL_ALPHABET.indexOf(cell.charAt(i));
+            x = x << 2 | (charI & 4) >> 1 | (charI & 1);
+            y = y << 2 | (charI & 8) >> 2 | (charI & 2) >> 1;
         }
+        double latSpan = cellLatSpan(cell.length());
+        double lonSpan = cellLonSpan(cell.length());
+        box[0] = MIN_LATITUDE + latSpan * (y + 1);
+        box[1] = MIN_LONGITUDE + lonSpan * (x + 1);
+        box[2] = MIN_LATITUDE + latSpan * y;
+        box[3] = MIN_LONGITUDE + lonSpan * x;
+    }
 
-        return bbox;
+    /**
+     * @param resolution
+     * @return the latitude span of cells at this resolution, in degrees
+     */
+    public static double cellLatSpan(int resolution) {
+        return resolution < CELL_LAT_SPANS.length ? CELL_LAT_SPANS[resolution] : cellSpan(MAX_LATITUDE - MIN_LATITUDE, resolution);
+    }
+
+    /**
+     * @param resolution
+     * @return the longitude span of cells at this resolution, in degrees
+     */
+    public static double cellLonSpan(int resolution) {
+        return resolution < CELL_LON_SPANS.length ? CELL_LON_SPANS[resolution] : cellSpan(MAX_LONGITUDE - MIN_LONGITUDE, resolution);
+    }
+
+    private static double cellSpan(double worldSpan, int resolution) {
+        // Dividing by a power of 2 is exact.
+        return Math.scalb(worldSpan, -2 * resolution);
     }
 
     /**
@@ -430,6 +491,20 @@ public final class GeocellUtils {
         return true;
     }
 
+    /**
+     * Packs a geocell into a long, 4 bits per character. Only cells of the same resolution can be compared once packed.
+     *
+     * @param cell a geocell of resolution up to 15
+     * @return the hexadecimal value of the geocell string, 0 for the empty string.
+     */
+    public static long pack(String cell) {
+        long packed = 0;
+        for(int i = 0; i < cell.length(); i++) {
+            packed = packed << 4 | GEOCELL_ALPHABET.indexOf(cell.charAt(i));
+        }
+        return packed;
+    }
+
     /**
      * Returns the (x, y) of the geocell character in the 4x4 alphabet grid.
      * @param char_
@@ -464,10 +539,17 @@ public final class GeocellUtils {
      * @return The 2D great-circle distance between the two given points, in meters.
      */
 	public static double distance(Point p1, Point p2) {
-		double p1lat = Math.toRadians(p1.getLat());
-		double p1lon = Math.toRadians(p1.getLon());
-		double p2lat = Math.toRadians(p2.getLat());
-		double p2lon = Math.toRadians(p2.getLon());
+		return distance(p1.getLat(), p1.getLon(), p2.getLat(), p2.getLon());
+	}
+
+	/**
+	 * Same as distance(Point, Point), without allocating points.
+	 */
+	public static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double p1lat = Math.toRadians(lat1);
+		double p1lon = Math.toRadians(lon1);
+		double p2lat = Math.toRadians(lat2);
+		double p2lon = Math.toRadians(lon2);
 		return RADIUS
 				* Math.acos(makeDoubleInRange(Math.sin(p1lat) * Math.sin(p2lat)
 						+ Math.cos(p1lat) * Math.cos(p2lat)
@@ -502,29 +584,28 @@ public final class GeocellUtils {
             and distance is the distance from the point to that edge. A direction
             value of (0,-1), for example, corresponds to the South edge of the
             rectangular region containing all of the given geocells.
+            An edge lying on a pole has no adjacent cells, but still bounds the
+            distance to the cells across the pole.
      *
      * TODO(romannurik): Assert that lat,lon are actually inside the geocell.
      */
     public static List<Tuple<int[],Double>> distanceSortedEdges(List<String> cells, Point point) {
-        List<BoundingBox> boxes = new ArrayList<BoundingBox>();
-        for(String cell : cells) {
-            boxes.add(computeBox(cell));
-        }
         double maxNorth = Double.NEGATIVE_INFINITY;
-        double maxEast = Double.NEGATIVE_INFINITY;
         double maxSouth = Double.POSITIVE_INFINITY;
-        double maxWest = Double.POSITIVE_INFINITY;
-        for(BoundingBox box : boxes) {
-            maxNorth = Math.max(maxNorth, box.getNorth());
-            maxEast = Math.max(maxEast, box.getEast());
-            maxSouth = Math.min(maxSouth, box.getSouth());
-            maxWest = Math.min(maxWest, box.getWest());
+        double[] box = new double[4];
+        for(String cell : cells) {
+            computeBox(cell, box);
+            maxNorth = Math.max(maxNorth, box[0]);
+            maxSouth = Math.min(maxSouth, box[2]);
         }
+        // West and east edges are computed on the grid columns, so that a region crossing the antimeridian
+        // is not mistaken for one spanning the whole world.
+        double[] westEast = GeocellTopology.westEast(cells);
         List<Tuple<int[],Double>> result = new ArrayList<Tuple<int[],Double>>();
         result.add(new Tuple<int[], Double>(SOUTH, distance(new Point(maxSouth, point.getLon()), point)));
         result.add(new Tuple<int[], Double>(NORTH, distance(new Point(maxNorth, point.getLon()), point)));
-        result.add(new Tuple<int[], Double>(WEST, distance(new Point(point.getLat(), maxWest), point)));
-        result.add(new Tuple<int[], Double>(EAST, distance(new Point(point.getLat(), maxEast), point)));
+        result.add(new Tuple<int[], Double>(WEST, distance(new Point(point.getLat(), westEast[0]), point)));
+        result.add(new Tuple<int[], Double>(EAST, distance(new Point(point.getLat(), westEast[1]), point)));
         Collections.sort(result, new DoubleTupleComparator());
         return result;
     }
@@ -533,6 +614,9 @@ public final class GeocellUtils {
     	if(entity instanceof LocationCapable) {
     		return ((LocationCapable) entity).getKeyString();
     	}
+    	if(entity instanceof GeocellProjection) {
+    		return ((GeocellProjection) entity).getKey().toString();
+    	}
 
     	Field field = getField(entity.getClass(), PrimaryKey.class);
     	if(field == null) {
@@ -550,6 +634,27 @@ public final class GeocellUtils {
         }
     }
 
+    /**
+     * Returns the value of the PrimaryKey or Id annotated field, the one getKeyFieldName names.
+     * Unlike getKeyString, it is not LocationCapable.getKeyString(): it is the key as queried and projected.
+     *
+     * @param entity
+     * @return the key of the entity, may be null
+     * @throws IllegalArgumentException if the entity has no PrimaryKey or Id annotated field
+     */
+    public static Object getKey(Object entity) {
+    	Field field = getField(entity.getClass(), PrimaryKey.class);
+    	if(field == null) {
+    		field = getField(entity.getClass(), Id.class);
+    	}
+    	Validate.notNull(field, "No PrimaryKey or Id annotated field in " + entity.getClass().getName());
+    	try {
+	        return field.get(entity);
+        } catch (IllegalAccessException e) {
+	        throw new IllegalStateException("Cannot read field " + field.getName(), e);
+        }
+    }
+
 	private static Field getField(Class<?> type, Class<? extends Annotation> annotation) {
 	    for(Field field : type.getDeclaredFields()) {
     		if(field.isAnnotationPresent(annotation)) {
@@ -575,6 +680,9 @@ public final class GeocellUtils {
     	if(entity instanceof LocationCapable) {
     		return ((LocationCapable) entity).getLocation();
     	}
+    	if(entity instanceof GeocellProjection) {
+    		return ((GeocellProjection) entity).getLocation();
+    	}
     	
     	Point location = new Point();
     	
@@ -600,6 +708,45 @@ public final class GeocellUtils {
         return location;
     }
 
+    /**
+     * Returns the geocells list of the entity, i.e. LocationCapable.getGeocells() or the value of the Geocells annotated field.
+     *
+     * @param entity
+     * @return the geocells list of the entity, may be null
+     * @throws IllegalArgumentException if the entity has no Geocells annotated field
+     */
+    @SuppressWarnings("unchecked")
+    public static List<String> getGeocells(Object entity) {
+    	if(entity instanceof LocationCapable) {
+    		return ((LocationCapable) entity).getGeocells();
+    	}
+
+    	Field field = getField(entity.getClass(), Geocells.class);
+    	Validate.notNull(field, "No Geocells annotated field in " + entity.getClass().getName());
+    	try {
+	        return (List<String>) field.get(entity);
+        } catch (IllegalAccessException e) {
+	        throw new IllegalStateException("Cannot read field " + field.getName(), e);
+        }
+    }
+
+    /**
+     * Replaces the geocells list of the entity, in its Geocells annotated field.
+     *
+     * @param entity an entity with a Geocells annotated field
+     * @param geocells the new geocells list
+     */
+    public static void setGeocells(Object entity, List<String> geocells) {
+        Validate.isTrue(!(entity instanceof LocationCapable), "Cannot replace the geocells of a LocationCapable entity, update its list instead");
+        Field field = getField(entity.getClass(), Geocells.class);
+        Validate.notNull(field, "No Geocells annotated field in " + entity.getClass().getName());
+        try {
+            field.set(entity, geocells);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot write field " + field.getName(), e);
+        }
+    }
+
     public static String getGeocellsFieldName(Class<?> type) {
     	if(LocationCapable.class.isAssignableFrom(type)) {
     		return "geocells";
@@ -607,4 +754,28 @@ public final class GeocellUtils {
 
     	return getField(type, Geocells.class).getName();
     }
+
+    /**
+     * @return the name of the PrimaryKey or Id annotated field
+     */
+    public static String getKeyFieldName(Class<?> type) {
+    	Field field = getField(type, PrimaryKey.class);
+    	if(field == null) {
+    		field = getField(type, Id.class);
+    	}
+    	Validate.notNull(field, "No PrimaryKey or Id annotated field in "+type.getName());
+    	return field.getName();
+    }
+
+    public static String getLatitudeFieldName(Class<?> type) {
+    	Field field = getField(type, Latitude.class);
+    	Validate.notNull(field, "No Latitude annotated field in "+type.getName());
+    	return field.getName();
+    }
+
+    public static String getLongitudeFieldName(Class<?> type) {
+    	Field field = getField(type, Longitude.class);
+    	Validate.notNull(field, "No Longitude annotated field in "+type.getName());
+    	return field.getName();
+    }
 }
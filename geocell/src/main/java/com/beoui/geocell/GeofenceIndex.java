@@ -0,0 +1,208 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellCovering;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.Region;
+
+/**
+ * Concurrent in-memory index of geofences, finding the fences containing a point: the inverse of a region search,
+ * e.g. to match a stream of device positions against many stored circles and polygons.
+ *
+ * Each fence is covered with geocells (see GeocellManager.regionCovering), and each cell of a covering is mapped to
+ * the fence with an interior or boundary flag. A lookup probes the geocells containing the point, one per resolution
+ * in use (the ones of GeocellManager.generateGeoCell): fences found in an interior cell contain the point without
+ * further test, only the fences found in a boundary cell are tested with Region.contains.
+ *
+ * Updates of the same fence are serialized, and replacing a fence adds its new cells before removing the old ones.
+ * Lookups never block updates; a fence being replaced is matched with its old or its new region.
+ *
+ * @param <K> type of the fence ids
+ */
+public class GeofenceIndex<K> {
+
+    private final int maxCells;
+
+    // Fence id -> current fence.
+    private final ConcurrentMap<K, Fence<K>> fences = new ConcurrentHashMap<K, Fence<K>>();
+
+    // Geocell -> fences whose covering has the cell, replaced on update.
+    private final ConcurrentMap<String, Posting<K>[]> postings = new ConcurrentHashMap<String, Posting<K>[]>();
+
+    // Number of geocells having postings, per resolution, index 0 for resolution 1.
+    private final AtomicIntegerArray resolutionCells = new AtomicIntegerArray(GeocellManager.MAX_GEOCELL_RESOLUTION);
+
+    public GeofenceIndex() {
+        this(GeocellManager.DEFAULT_MAX_REGION_COVERING_CELLS);
+    }
+
+    /**
+     * @param maxCells maximum number of cells of the covering of a fence. More cells make fewer boundary tests
+     * and use more memory.
+     */
+    public GeofenceIndex(int maxCells) {
+        Validate.isTrue(maxCells > 0, "Max cells must be > 0");
+        this.maxCells = maxCells;
+    }
+
+    /**
+     * Adds the fence to the index, or replaces the fence with the same id.
+     */
+    public void put(final K id, final Region region) {
+        Validate.notNull(id, "Fence id must not be null");
+        Validate.notNull(region, "Region must not be null");
+        final GeocellCovering covering = GeocellManager.regionCovering(region, null, maxCells);
+        fences.compute(id, (k, old) -> {
+            Fence<K> fence = new Fence<K>(id, region, covering.getCells());
+            for(String cell : covering.getInteriorCells()) {
+                addPosting(cell, new Posting<K>(fence, true));
+            }
+            for(String cell : covering.getBoundaryCells()) {
+                addPosting(cell, new Posting<K>(fence, false));
+            }
+            if(old != null) {
+                removePostings(old);
+            }
+            return fence;
+        });
+    }
+
+    /**
+     * @return true if a fence was removed
+     */
+    public boolean remove(K id) {
+        final boolean[] removed = {false};
+        fences.computeIfPresent(id, (k, old) -> {
+            removePostings(old);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * @return the region of the fence, or null if there is no such fence
+     */
+    public Region get(K id) {
+        Fence<K> fence = fences.get(id);
+        return fence == null ? null : fence.region;
+    }
+
+    public int size() {
+        return fences.size();
+    }
+
+    /**
+     * @return the ids of the fences containing the point (boundary included), each once
+     */
+    public List<K> lookup(Point point) {
+        Set<K> ids = new LinkedHashSet<K>();
+        lookup(point, ids);
+        return new ArrayList<K>(ids);
+    }
+
+    /**
+     * @return the ids of the fences containing each point, in the order of the points
+     */
+    public List<List<K>> lookup(List<Point> points) {
+        List<List<K>> result = new ArrayList<List<K>>(points.size());
+        Set<K> ids = new LinkedHashSet<K>();
+        for(Point point : points) {
+            ids.clear();
+            lookup(point, ids);
+            result.add(new ArrayList<K>(ids));
+        }
+        return result;
+    }
+
+    private void lookup(Point point, Set<K> ids) {
+        String cell = GeocellUtils.compute(point, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        for(int resolution = 1; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+            if(resolutionCells.get(resolution - 1) == 0) {
+                continue;
+            }
+            Posting<K>[] cellPostings = postings.get(cell.substring(0, resolution));
+            if(cellPostings == null) {
+                continue;
+            }
+            for(Posting<K> posting : cellPostings) {
+                if(!ids.contains(posting.fence.id) && (posting.interior || posting.fence.region.contains(point))) {
+                    ids.add(posting.fence.id);
+                }
+            }
+        }
+    }
+
+    private void addPosting(String cell, Posting<K> posting) {
+        postings.compute(cell, (c, old) -> {
+            if(old == null) {
+                resolutionCells.incrementAndGet(cell.length() - 1);
+                return newPostings(posting);
+            }
+            Posting<K>[] updated = Arrays.copyOf(old, old.length + 1);
+            updated[old.length] = posting;
+            return updated;
+        });
+    }
+
+    private void removePostings(Fence<K> fence) {
+        for(String cell : fence.cells) {
+            postings.computeIfPresent(cell, (c, old) -> {
+                List<Posting<K>> kept = new ArrayList<Posting<K>>(old.length);
+                for(Posting<K> posting : old) {
+                    if(posting.fence != fence) {
+                        kept.add(posting);
+                    }
+                }
+                if(kept.isEmpty()) {
+                    resolutionCells.decrementAndGet(cell.length() - 1);
+                    return null;
+                }
+                return kept.toArray(Arrays.copyOf(old, 0));
+            });
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K> Posting<K>[] newPostings(Posting<K> posting) {
+        return new Posting[] {posting};
+    }
+
+    private static final class Fence<K> {
+
+        private final K id;
+        private final Region region;
+        private final List<String> cells;
+
+        private Fence(K id, Region region, List<String> cells) {
+            this.id = id;
+            this.region = region;
+            this.cells = cells;
+        }
+
+    }
+
+    private static final class Posting<K> {
+
+        private final Fence<K> fence;
+        // The cell is entirely inside the fence.
+        private final boolean interior;
+
+        private Posting(Fence<K> fence, boolean interior) {
+            this.fence = fence;
+            this.interior = interior;
+        }
+
+    }
+
+}
@@ -0,0 +1,318 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Concurrent in-memory index of moving entities, usable as a {@link GeocellQueryEngine}
+ * for proximitySearch, withinRadius or bounding box queries.
+ *
+ * Entities are grouped in buckets keyed by their packed geocell at the index resolution, kept in a
+ * lock-free skip list so that lower resolution cells are answered with a range scan.
+ * Updates of the same entity are serialized, and moving an entity puts it in its new bucket before removing it
+ * from the old one, so reading a single bucket always finds the entity at its old or new position.
+ * Queries return each entity at most once, with its most recent position among the ones seen.
+ * Readers never block writers; like any non-blocking read, a query spanning several buckets is not a snapshot.
+ *
+ * Entities are identified by GeocellUtils.getKeyString and located by GeocellUtils.getLocation.
+ * The location is read when the entity is put: call put again after each move.
+ *
+ * @param <T> type of the indexed entities
+ */
+public class InMemoryGeocellIndex<T> implements GeocellQueryEngine, GeocellAggregationEngine {
+
+    // Cells of about 150m x 150m at the equator.
+    public static final int DEFAULT_RESOLUTION = 8;
+
+    private final int resolution;
+
+    // Packed geocell at index resolution -> (entity key -> entry).
+    private final ConcurrentSkipListMap<Long, ConcurrentMap<String, Entry<T>>> buckets = new ConcurrentSkipListMap<Long, ConcurrentMap<String, Entry<T>>>();
+
+    // Entity key -> current entry.
+    private final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<String, Entry<T>>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    private final GeocellCountTree countTree = new GeocellCountTree();
+
+    public InMemoryGeocellIndex() {
+        this(DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * @param resolution resolution of the buckets. Higher resolutions make high resolution queries cheaper
+     * and low resolution queries (large areas) more expensive.
+     */
+    public InMemoryGeocellIndex(int resolution) {
+        Validate.isTrue(resolution > 0 && resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION,
+                "Invalid resolution. Must be between 1 and ", GeocellManager.MAX_GEOCELL_RESOLUTION);
+        this.resolution = resolution;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Adds the entity to the index, or moves it if an entity with the same key is already indexed.
+     *
+     * @param entity
+     */
+    public void put(final T entity) {
+        final String key = GeocellUtils.getKeyString(entity);
+        final Point location = GeocellUtils.getLocation(entity);
+        final String cell = GeocellUtils.compute(location, GeocellManager.MAX_GEOCELL_RESOLUTION);
+        entries.compute(key, (k, old) -> {
+            Entry<T> entry = new Entry<T>(entity, location, cell, GeocellUtils.pack(cell.substring(0, resolution)), versions.incrementAndGet());
+            addToBucket(key, entry);
+            if(old != null && old.bucket != entry.bucket) {
+                removeFromBucket(key, old);
+            }
+            if(old == null) {
+                countTree.add(location);
+            } else {
+                countTree.move(old.location, location);
+            }
+            return entry;
+        });
+    }
+
+    /**
+     * Removes the entity with the given key from the index.
+     *
+     * @param key
+     * @return true if an entity was removed
+     */
+    public boolean remove(String key) {
+        final boolean[] removed = {false};
+        entries.computeIfPresent(key, (k, old) -> {
+            removeFromBucket(key, old);
+            countTree.remove(old.location);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    public boolean remove(T entity) {
+        return remove(GeocellUtils.getKeyString(entity));
+    }
+
+    /**
+     * @param key
+     * @return the indexed entity with the given key, or null
+     */
+    public T get(String key) {
+        Entry<T> entry = entries.get(key);
+        return entry == null ? null : entry.entity;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Query strings are not supported: the base query must be empty, entities can be filtered with a GeocellFilter,
+     * evaluated on the entities of the cells. Cells must be geocells: other keys, e.g. the composite keys of
+     * TimeBucketedQueryEngine, are rejected.
+     *
+     * @see com.beoui.geocell.GeocellQueryEngine#query(com.beoui.geocell.model.GeocellQuery, java.util.List, java.lang.Class)
+     */
+    @Override
+    public <E> List<E> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<E> entityClass) {
+        Validate.isTrue(baseQuery == null || StringUtils.isBlank(baseQuery.getBaseQuery()),
+                "In-memory index does not support query strings");
+        Predicate<Object> filter = GeocellFilters.compile(baseQuery == null ? null : baseQuery.getFilter(), entityClass);
+        List<E> result = new ArrayList<E>();
+        for(Entry<T> entry : find(curGeocellsUnique).values()) {
+            if(entityClass.isInstance(entry.entity) && filter.test(entry.entity)) {
+                result.add(entityClass.cast(entry.entity));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indexed entities located in the given bounding box.
+     *
+     * @param bbox
+     * @return the entities in the bounding box, in no particular order.
+     */
+    public List<T> boundingBoxSearch(BoundingBox bbox) {
+        boolean antimeridian = bbox.getEast() < bbox.getWest();
+        List<T> result = new ArrayList<T>();
+        for(Entry<T> entry : find(GeocellManager.bestBboxSearchCells(bbox, null)).values()) {
+            Point location = entry.location;
+            boolean betweenNS = bbox.getSouth() <= location.getLat() && location.getLat() <= bbox.getNorth();
+            boolean betweenWE = antimeridian
+                    ? bbox.getWest() <= location.getLon() || location.getLon() <= bbox.getEast()
+                    : bbox.getWest() <= location.getLon() && location.getLon() <= bbox.getEast();
+            if(betweenNS && betweenWE) {
+                result.add(entry.entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of indexed entities and their centroid per non-empty cell of the given resolution
+     * in the bounding box, from counters maintained on each update.
+     *
+     * @see GeocellCountTree#aggregate(BoundingBox, int)
+     */
+    public List<GeocellAggregate> aggregate(BoundingBox bbox, int resolution) {
+        return countTree.aggregate(bbox, resolution);
+    }
+
+    /**
+     * Aggregates are read from the maintained counters: the base query must be empty and without filter,
+     * all indexed entities are counted, whatever the entity class.
+     *
+     * @see com.beoui.geocell.GeocellAggregationEngine#aggregate(com.beoui.geocell.model.GeocellQuery, java.util.List, java.lang.Class)
+     */
+    @Override
+    public <E> List<GeocellAggregate> aggregate(GeocellQuery baseQuery, List<String> cells, Class<E> entityClass) {
+        Validate.isTrue(baseQuery == null || StringUtils.isBlank(baseQuery.getBaseQuery()),
+                "In-memory index does not support query strings");
+        Validate.isTrue(baseQuery == null || baseQuery.getFilter() == null,
+                "In-memory index aggregates do not support filters");
+        List<GeocellAggregate> result = new ArrayList<GeocellAggregate>();
+        for(String cell : cells) {
+            GeocellAggregate aggregate = countTree.get(cell);
+            if(aggregate != null) {
+                result.add(aggregate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Collects the entries of the given cells. An entity being moved can be seen in both its old and new bucket,
+     * only its most recent entry is kept.
+     */
+    private Map<String, Entry<T>> find(List<String> cells) {
+        Map<String, Entry<T>> found = new LinkedHashMap<String, Entry<T>>();
+        for(String cell : cells) {
+            Validate.isTrue(isGeocell(cell), "Invalid geocell: ", cell);
+            if(cell.length() >= resolution) {
+                ConcurrentMap<String, Entry<T>> bucket = buckets.get(GeocellUtils.pack(cell.substring(0, resolution)));
+                if(bucket != null) {
+                    collect(bucket, cell, found);
+                }
+            } else {
+                int shift = 4 * (resolution - cell.length());
+                long packed = GeocellUtils.pack(cell);
+                for(ConcurrentMap<String, Entry<T>> bucket : buckets.subMap(packed << shift, (packed + 1) << shift).values()) {
+                    collect(bucket, cell, found);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return whether the string is a geocell of resolution up to 13, or the empty string for the whole world
+     */
+    static boolean isGeocell(String cell) {
+        return cell.length() <= GeocellManager.MAX_GEOCELL_RESOLUTION && (cell.length() == 0 || GeocellUtils.isValid(cell));
+    }
+
+    private void collect(ConcurrentMap<String, Entry<T>> bucket, String cell, Map<String, Entry<T>> found) {
+        boolean checkPrefix = cell.length() > resolution;
+        for(Map.Entry<String, Entry<T>> e : bucket.entrySet()) {
+            Entry<T> entry = e.getValue();
+            if(checkPrefix && !entry.cell.startsWith(cell)) {
+                continue;
+            }
+            Entry<T> previous = found.get(e.getKey());
+            if(previous == null || previous.version < entry.version) {
+                found.put(e.getKey(), entry);
+            }
+        }
+    }
+
+    /**
+     * @return the number of buckets, empty buckets being removed
+     */
+    int bucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Puts the entry in its bucket, creating the bucket if needed.
+     * Writers of a bucket synchronize on it, so that a bucket is only removed from the buckets while empty:
+     * if the bucket was removed before the entry could be put, the put is retried in a new bucket.
+     */
+    private void addToBucket(String key, Entry<T> entry) {
+        while(true) {
+            ConcurrentMap<String, Entry<T>> bucket = buckets.get(entry.bucket);
+            if(bucket == null) {
+                ConcurrentMap<String, Entry<T>> newBucket = new ConcurrentHashMap<String, Entry<T>>();
+                bucket = buckets.putIfAbsent(entry.bucket, newBucket);
+                if(bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+            synchronized(bucket) {
+                if(buckets.get(entry.bucket) == bucket) {
+                    bucket.put(key, entry);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entry from its bucket, and the bucket from the buckets once empty, so that the buckets
+     * of the cells entities moved through do not pile up.
+     */
+    private void removeFromBucket(String key, Entry<T> entry) {
+        ConcurrentMap<String, Entry<T>> bucket = buckets.get(entry.bucket);
+        if(bucket == null) {
+            return;
+        }
+        synchronized(bucket) {
+            if(bucket.remove(key, entry) && bucket.isEmpty()) {
+                buckets.remove(entry.bucket, bucket);
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+
+        private final T entity;
+        // Location when the entity was put.
+        private final Point location;
+        // Max resolution geocell of the entity location.
+        private final String cell;
+        // Packed geocell at index resolution.
+        private final long bucket;
+        private final long version;
+
+        private Entry(T entity, Point location, String cell, long bucket, long version) {
+            this.entity = entity;
+            this.location = location;
+            this.cell = cell;
+            this.bucket = bucket;
+            this.version = version;
+        }
+
+    }
+
+}
@@ -1,14 +1,23 @@
 package com.beoui.geocell;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.jdo.JDOHelper;
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
 
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellDelta;
+import com.beoui.geocell.model.GeocellFilter;
+import com.beoui.geocell.model.GeocellProjection;
 import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
 
-public class JDOGeocellQueryEngine implements GeocellQueryEngine {
+public class JDOGeocellQueryEngine implements GeocellQueryEngine, GeocellAggregationEngine, GeocellProjectionEngine {
 
 	PersistenceManager pm;
 
@@ -22,6 +31,70 @@ public class JDOGeocellQueryEngine implements GeocellQueryEngine {
     @Override
 	@SuppressWarnings("unchecked")
     public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+        return (List<T>) query(baseQuery, curGeocellsUnique, entityClass, null);
+	}
+
+	/**
+	 * Same query as query, with a result clause selecting the key, latitude and longitude.
+	 *
+	 * @see com.beoui.geocell.GeocellProjectionEngine#queryProjections(com.beoui.geocell.model.GeocellQuery, java.util.List, java.lang.Class)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> List<GeocellProjection> queryProjections(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass) {
+		String result = GeocellUtils.getKeyFieldName(entityClass) + ", " + GeocellUtils.getLatitudeFieldName(entityClass)
+				+ ", " + GeocellUtils.getLongitudeFieldName(entityClass);
+		List<GeocellProjection> projections = new ArrayList<GeocellProjection>();
+		for(Object[] row : (List<Object[]>) query(baseQuery, cells, entityClass, result)) {
+			projections.add(new GeocellProjection(row[0], ((Number) row[1]).doubleValue(), ((Number) row[2]).doubleValue()));
+		}
+		return projections;
+	}
+
+	/**
+	 * Fetches the entities with a single "keysP.contains(key)" query.
+	 * Entities deleted since their keys were read are missing from the result, as with JPAGeocellQueryEngine.
+	 *
+	 * @see com.beoui.geocell.GeocellProjectionEngine#fetch(java.util.List, java.lang.Class)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> List<T> fetch(List<Object> keys, Class<T> entityClass) {
+		List<T> result = new ArrayList<T>();
+		if(keys.isEmpty()) {
+			return result;
+		}
+		Query query = pm.newQuery(entityClass, "keysP.contains(" + GeocellUtils.getKeyFieldName(entityClass) + ")");
+		query.declareParameters("java.util.Collection keysP");
+
+		// Keyed by the raw key, as the given keys: LocationCapable.getKeyString may format it differently.
+		Map<Object, T> entities = new HashMap<Object, T>();
+		for(T entity : (List<T>) query.execute(keys)) {
+			entities.put(GeocellUtils.getKey(entity), entity);
+		}
+		for(Object key : keys) {
+			T entity = entities.get(key);
+			if(entity != null) {
+				result.add(entity);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the query on the given geocells, with the given result clause or null for the entities.
+	 */
+	private Object query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<?> entityClass, String result) {
+        if(baseQuery.getFilter() != null) {
+            JdoqlTranslator translator = new JdoqlTranslator();
+            String filter = baseQuery.getFilter().accept(translator);
+            Query query = pm.newQuery(entityClass, filter + " && " + GeocellUtils.getGeocellsFieldName(entityClass) + ".contains(geocellsP)");
+            query.declareParameters(translator.getDeclaredParameters() + ", String geocellsP");
+            if(result != null) {
+                query.setResult(result);
+            }
+            return translator.execute(query, curGeocellsUnique);
+        }
         // Run query on the next set of geocells.
         String queryStart = baseQuery.getBaseQuery() == null || baseQuery.getBaseQuery().trim().length() == 0 ? " " : baseQuery.getBaseQuery() + " && ";
         Query query = pm.newQuery(entityClass, queryStart + GeocellUtils.getGeocellsFieldName(entityClass) + ".contains(geocellsP)");
@@ -31,17 +104,143 @@ public class JDOGeocellQueryEngine implements GeocellQueryEngine {
         } else {
             query.declareParameters(baseQuery.getDeclaredParameters() + ", String geocellsP");
         }
-
-        List<T> newResultEntities;
-        if(baseQuery.getParameters() == null || baseQuery.getParameters().isEmpty()) {
-            newResultEntities = (List<T>) query.execute(curGeocellsUnique);
-        } else {
-            List<Object> parameters = new ArrayList<Object>(baseQuery.getParameters());
-            parameters.add(curGeocellsUnique);
-            newResultEntities = (List<T>) query.executeWithArray(parameters.toArray());
+        if(result != null) {
+            query.setResult(result);
         }
 
-        return newResultEntities;
+        return execute(query, baseQuery, curGeocellsUnique);
+	}
+
+	/**
+	 * Counts entities grouped by geocell with a JDOQL aggregate query on the geocells collection.
+	 *
+	 * @see com.beoui.geocell.GeocellAggregationEngine#aggregate(com.beoui.geocell.model.GeocellQuery, java.util.List, java.lang.Class)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> List<GeocellAggregate> aggregate(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass) {
+		List<GeocellAggregate> result = new ArrayList<GeocellAggregate>();
+		if(cells.isEmpty()) {
+			return result;
+		}
+		JdoqlTranslator translator = null;
+		String queryStart;
+		if(baseQuery.getFilter() != null) {
+			translator = new JdoqlTranslator();
+			queryStart = baseQuery.getFilter().accept(translator) + " && ";
+		} else {
+			queryStart = baseQuery.getBaseQuery() == null || baseQuery.getBaseQuery().trim().length() == 0 ? "" : baseQuery.getBaseQuery() + " && ";
+		}
+		Query query = pm.newQuery(entityClass, queryStart + GeocellUtils.getGeocellsFieldName(entityClass) + ".contains(g) && geocellsP.contains(g)");
+		query.declareVariables("String g");
+		if(translator != null) {
+			query.declareParameters(translator.getDeclaredParameters() + ", java.util.Collection geocellsP");
+		} else if(baseQuery.getDeclaredParameters() == null || baseQuery.getDeclaredParameters().trim().length() == 0) {
+			query.declareParameters("java.util.Collection geocellsP");
+		} else {
+			query.declareParameters(baseQuery.getDeclaredParameters() + ", java.util.Collection geocellsP");
+		}
+		query.setResult("g, count(this), avg(" + GeocellUtils.getLatitudeFieldName(entityClass) + "), avg("
+				+ GeocellUtils.getLongitudeFieldName(entityClass) + ")");
+		query.setGrouping("g");
+
+		Object rows = translator != null ? translator.execute(query, cells) : execute(query, baseQuery, cells);
+		for(Object[] row : (List<Object[]>) rows) {
+			result.add(new GeocellAggregate((String) row[0], ((Number) row[1]).longValue(),
+					new Point(((Number) row[2]).doubleValue(), ((Number) row[3]).doubleValue())));
+		}
+		return result;
+	}
+
+	private Object execute(Query query, GeocellQuery baseQuery, List<String> cells) {
+		if(baseQuery.getParameters() == null || baseQuery.getParameters().isEmpty()) {
+			return query.execute(cells);
+		}
+		List<Object> parameters = new ArrayList<Object>(baseQuery.getParameters());
+		parameters.add(cells);
+		return query.executeWithArray(parameters.toArray());
+	}
+
+	/**
+	 * Translates a filter to a JDOQL condition with declared parameters, named filterP0, filterP1...
+	 */
+	private static final class JdoqlTranslator implements GeocellFilter.Visitor<String> {
+
+		private final List<Object> parameters = new ArrayList<Object>();
+		private final StringBuffer declaredParameters = new StringBuffer();
+
+		@Override
+		public String visit(GeocellFilter.Comparison comparison) {
+			return comparison.getField() + " " + comparison.getOperator().getJdoql() + " " + parameter(comparison.getValue().getClass(), comparison.getValue());
+		}
+
+		@Override
+		public String visit(GeocellFilter.In in) {
+			return parameter(Collection.class, in.getValues()) + ".contains(" + in.getField() + ")";
+		}
+
+		@Override
+		public String visit(GeocellFilter.Range range) {
+			if(range.getUpper() == null) {
+				return range.getField() + " >= " + parameter(range.getLower().getClass(), range.getLower());
+			}
+			if(range.getLower() == null) {
+				return range.getField() + " <= " + parameter(range.getUpper().getClass(), range.getUpper());
+			}
+			return range.getField() + " >= " + parameter(range.getLower().getClass(), range.getLower())
+					+ " && " + range.getField() + " <= " + parameter(range.getUpper().getClass(), range.getUpper());
+		}
+
+		@Override
+		public String visit(GeocellFilter.And and) {
+			StringBuffer jdoql = new StringBuffer();
+			for(GeocellFilter filter : and.getFilters()) {
+				if(jdoql.length() > 0) {
+					jdoql.append(" && ");
+				}
+				jdoql.append('(').append(filter.accept(this)).append(')');
+			}
+			return jdoql.toString();
+		}
+
+		private String parameter(Class<?> type, Object value) {
+			String name = "filterP" + parameters.size();
+			if(declaredParameters.length() > 0) {
+				declaredParameters.append(", ");
+			}
+			declaredParameters.append(type.getName()).append(' ').append(name);
+			parameters.add(value);
+			return name;
+		}
+
+		private String getDeclaredParameters() {
+			return declaredParameters.toString();
+		}
+
+		private Object execute(Query query, List<String> cells) {
+			List<Object> values = new ArrayList<Object>(parameters);
+			values.add(cells);
+			return query.executeWithArray(values.toArray());
+		}
+
+	}
+
+	/**
+	 * Updates the geocells collection of the entity in place. A detached entity is attached afterwards,
+	 * the returned instance is the attached one.
+	 *
+	 * @see com.beoui.geocell.GeocellQueryEngine#applyDelta(java.lang.Object, com.beoui.geocell.model.GeocellDelta)
+	 */
+	@Override
+	public <T> T applyDelta(T entity, GeocellDelta delta) {
+		if(delta.isEmpty()) {
+			return entity;
+		}
+		GeocellQueryEngine.super.applyDelta(entity, delta);
+		if(JDOHelper.isDetached(entity)) {
+			return pm.makePersistent(entity);
+		}
+		return entity;
 	}
 
 }
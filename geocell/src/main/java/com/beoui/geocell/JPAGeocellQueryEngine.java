@@ -1,19 +1,34 @@
 package com.beoui.geocell;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.persistence.Entity;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellDelta;
+import com.beoui.geocell.model.GeocellFilter;
+import com.beoui.geocell.model.GeocellProjection;
 import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
 
-public class JPAGeocellQueryEngine implements GeocellQueryEngine {
+public class JPAGeocellQueryEngine implements GeocellQueryEngine, GeocellAggregationEngine, GeocellProjectionEngine {
 
     private static final Logger logger = GeocellLogger.get();
 
     private final static String ORDER_BY_RE = "[Oo][Rr][Dd][Ee][Rr]\\s*[Bb][Yy]";
 	private final static String WHERE_RE = "[Ww][Hh][Ee][Rr][Ee]";
+	private final static String ALIAS = "e";
+	private final static Pattern SELECT_PATTERN = Pattern.compile("^\\s*[Ss][Ee][Ll][Ee][Cc][Tt]\\s+(\\w+)\\s+[Ff][Rr][Oo][Mm]\\s+");
 
 	private EntityManager entityManager;
 
@@ -29,12 +44,85 @@ public class JPAGeocellQueryEngine implements GeocellQueryEngine {
 	@Override
 	@SuppressWarnings("unchecked")
 	public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+		return (List<T>) createQuery(baseQuery, curGeocellsUnique, entityClass, false).getResultList();
+	}
+
+	/**
+	 * Same query as query, with a constructor expression selecting the key, latitude and longitude.
+	 * The base query must be of the form "SELECT alias FROM Entity alias [WHERE ...]".
+	 *
+	 * @see com.beoui.geocell.GeocellProjectionEngine#queryProjections(com.beoui.geocell.model.GeocellQuery, java.util.List, java.lang.Class)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> List<GeocellProjection> queryProjections(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass) {
+		return (List<GeocellProjection>) createQuery(baseQuery, cells, entityClass, true).getResultList();
+	}
+
+	/**
+	 * Fetches the entities with a single "select e from Entity e where e.key in (...)" query.
+	 * Entities deleted since their keys were read are missing from the result.
+	 *
+	 * @see com.beoui.geocell.GeocellProjectionEngine#fetch(java.util.List, java.lang.Class)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> List<T> fetch(List<Object> keys, Class<T> entityClass) {
+		List<T> result = new ArrayList<T>();
+		if(keys.isEmpty()) {
+			return result;
+		}
+		StringBuffer ejbql = new StringBuffer("select ");
+		ejbql.append(ALIAS).append(" from ").append(getEntityName(entityClass)).append(' ').append(ALIAS);
+		ejbql.append(" where ").append(ALIAS).append('.').append(GeocellUtils.getKeyFieldName(entityClass)).append(" in (");
+		for(int i = 0; i < keys.size(); i++) {
+			if(i > 0) {
+				ejbql.append(",");
+			}
+			ejbql.append('?').append(i + 1);
+		}
+		ejbql.append(")");
+		logger.info("running EJB QL=["+ejbql+"]");
+		Query query = entityManager.createQuery(ejbql.toString());
+		for(int i = 0; i < keys.size(); i++) {
+			query.setParameter(i + 1, keys.get(i));
+		}
+
+		// Keyed by the raw key, as the given keys: LocationCapable.getKeyString may format it differently.
+		Map<Object, T> entities = new HashMap<Object, T>();
+		for(T entity : (List<T>) query.getResultList()) {
+			entities.put(GeocellUtils.getKey(entity), entity);
+		}
+		for(Object key : keys) {
+			T entity = entities.get(key);
+			if(entity != null) {
+				result.add(entity);
+			}
+		}
+		return result;
+	}
+
+	private Query createQuery(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<?> entityClass, boolean projection) {
+		if(baseQuery.getFilter() != null) {
+			return createQuery(baseQuery.getFilter(), curGeocellsUnique, entityClass, projection);
+		}
 		String[] splitQueryWhere = baseQuery.getBaseQuery().split(WHERE_RE);
 		String[] splitQueryOrderBy = null;
 		if(splitQueryWhere.length > 1) {
 			splitQueryOrderBy = splitQueryWhere[1].split(ORDER_BY_RE);
 		}
-		StringBuffer ejbql = new StringBuffer(splitQueryWhere[0].trim());
+		String select = splitQueryWhere[0].trim();
+		if(projection) {
+			Matcher matcher = SELECT_PATTERN.matcher(select);
+			Validate.isTrue(matcher.find(), "Base query must start with SELECT alias FROM: "+baseQuery.getBaseQuery());
+			String alias = matcher.group(1);
+			String from = select.substring(matcher.end()).trim();
+			if(from.indexOf(' ') < 0) {
+				from = from + " " + alias;
+			}
+			select = "select " + projection(alias, entityClass) + " from " + from;
+		}
+		StringBuffer ejbql = new StringBuffer(select);
 
 		if(!curGeocellsUnique.isEmpty()) {
 			Object geocellsFieldName = GeocellUtils.getGeocellsFieldName(entityClass);
@@ -72,8 +160,221 @@ public class JPAGeocellQueryEngine implements GeocellQueryEngine {
 				query.setParameter(position, parameter);
 			}
 		}
+		return query;
+	}
+
+	/**
+	 * Replaces the select clause of the JPA EJB QL by a count per geocell, joined on the geocells collection.
+	 * The base query must be of the form "SELECT alias FROM Entity alias [WHERE ...]".
+	 *
+	 * @see com.beoui.geocell.GeocellAggregationEngine#aggregate(com.beoui.geocell.model.GeocellQuery, java.util.List, java.lang.Class)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> List<GeocellAggregate> aggregate(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass) {
+		List<GeocellAggregate> result = new ArrayList<GeocellAggregate>();
+		if(cells.isEmpty()) {
+			return result;
+		}
+		String alias;
+		String from;
+		String where = null;
+		List<Object> parameters;
+		if(baseQuery.getFilter() != null) {
+			alias = ALIAS;
+			from = getEntityName(entityClass) + " " + ALIAS;
+			parameters = new ArrayList<Object>();
+			where = baseQuery.getFilter().accept(new JpqlTranslator(parameters));
+		} else {
+			String[] splitQueryWhere = baseQuery.getBaseQuery().split(WHERE_RE);
+			Matcher matcher = SELECT_PATTERN.matcher(splitQueryWhere[0]);
+			Validate.isTrue(matcher.find(), "Base query must start with SELECT alias FROM: "+baseQuery.getBaseQuery());
+			alias = matcher.group(1);
+			from = splitQueryWhere[0].substring(matcher.end()).trim();
+			if(from.indexOf(' ') < 0) {
+				from = from + " " + alias;
+			}
+			if(splitQueryWhere.length > 1) {
+				where = splitQueryWhere[1].split(ORDER_BY_RE)[0].trim();
+			}
+			parameters = baseQuery.getParameters();
+		}
+
+		StringBuffer ejbql = new StringBuffer("select g, count(");
+		ejbql.append(alias);
+		ejbql.append("), avg(");
+		ejbql.append(alias).append('.').append(GeocellUtils.getLatitudeFieldName(entityClass));
+		ejbql.append("), avg(");
+		ejbql.append(alias).append('.').append(GeocellUtils.getLongitudeFieldName(entityClass));
+		ejbql.append(") from ");
+		ejbql.append(from);
+		ejbql.append(" join ");
+		ejbql.append(alias).append('.').append(GeocellUtils.getGeocellsFieldName(entityClass));
+		ejbql.append(" g where g in (");
+		boolean first = true;
+		for(String geocell : cells) {
+			if(!first) {
+				ejbql.append(",");
+			}
+			ejbql.append("\'" + geocell + "\'");
+			first = false;
+		}
+		ejbql.append(")");
+		if(where != null) {
+			ejbql.append(" and (");
+			ejbql.append(where);
+			ejbql.append(")");
+		}
+		ejbql.append(" group by g");
+		logger.info("running EJB QL=["+ejbql+"]");
+		Query query = entityManager.createQuery(ejbql.toString());
+
+		int position = 0;
+		if(parameters != null) {
+			for(Object parameter : parameters) {
+				position++;
+				query.setParameter(position, parameter);
+			}
+		}
+
+		for(Object[] row : (List<Object[]>) query.getResultList()) {
+			result.add(new GeocellAggregate((String) row[0], ((Number) row[1]).longValue(),
+					new Point(((Number) row[2]).doubleValue(), ((Number) row[3]).doubleValue())));
+		}
+		return result;
+	}
 
-		return (List<T>) query.getResultList();
+	/**
+	 * Builds "select e from Entity e where filter and e.geocells in (...)". The geocells are bound as parameters too,
+	 * so that the query text only depends on the filter structure and on the number of cells.
+	 */
+	private Query createQuery(GeocellFilter filter, List<String> curGeocellsUnique, Class<?> entityClass, boolean projection) {
+		List<Object> parameters = new ArrayList<Object>();
+		StringBuffer ejbql = new StringBuffer("select ");
+		ejbql.append(projection ? projection(ALIAS, entityClass) : ALIAS);
+		ejbql.append(" from ").append(getEntityName(entityClass)).append(' ').append(ALIAS);
+		ejbql.append(" where ").append(filter.accept(new JpqlTranslator(parameters)));
+		if(!curGeocellsUnique.isEmpty()) {
+			ejbql.append(" and ").append(ALIAS).append('.').append(GeocellUtils.getGeocellsFieldName(entityClass));
+			ejbql.append(" in (");
+			for(int i = 0; i < curGeocellsUnique.size(); i++) {
+				if(i > 0) {
+					ejbql.append(",");
+				}
+				parameters.add(curGeocellsUnique.get(i));
+				ejbql.append('?').append(parameters.size());
+			}
+			ejbql.append(")");
+		}
+		logger.info("running EJB QL=["+ejbql+"]");
+		Query query = entityManager.createQuery(ejbql.toString());
+		for(int i = 0; i < parameters.size(); i++) {
+			query.setParameter(i + 1, parameters.get(i));
+		}
+		return query;
+	}
+
+	/**
+	 * @return the constructor expression of a GeocellProjection of the alias entity
+	 */
+	private static String projection(String alias, Class<?> entityClass) {
+		return "new " + GeocellProjection.class.getName() + "(" + alias + "." + GeocellUtils.getKeyFieldName(entityClass)
+				+ ", " + alias + "." + GeocellUtils.getLatitudeFieldName(entityClass)
+				+ ", " + alias + "." + GeocellUtils.getLongitudeFieldName(entityClass) + ")";
+	}
+
+	/**
+	 * @return the name of the entity in queries: the name of its Entity annotation, by default the class simple name.
+	 */
+	private static String getEntityName(Class<?> entityClass) {
+		Entity entity = entityClass.getAnnotation(Entity.class);
+		if(entity != null && entity.name().length() > 0) {
+			return entity.name();
+		}
+		return entityClass.getSimpleName();
+	}
+
+	/**
+	 * Translates a filter to a JPQL condition on the ALIAS entity, with positional parameters.
+	 */
+	private static final class JpqlTranslator implements GeocellFilter.Visitor<String> {
+
+		private final List<Object> parameters;
+
+		private JpqlTranslator(List<Object> parameters) {
+			this.parameters = parameters;
+		}
+
+		@Override
+		public String visit(GeocellFilter.Comparison comparison) {
+			return path(comparison.getField()) + " " + comparison.getOperator().getJpql() + " " + parameter(comparison.getValue());
+		}
+
+		@Override
+		public String visit(GeocellFilter.In in) {
+			StringBuffer jpql = new StringBuffer(path(in.getField()));
+			jpql.append(" in (");
+			boolean first = true;
+			for(Object value : in.getValues()) {
+				if(!first) {
+					jpql.append(",");
+				}
+				jpql.append(parameter(value));
+				first = false;
+			}
+			return jpql.append(")").toString();
+		}
+
+		@Override
+		public String visit(GeocellFilter.Range range) {
+			if(range.getUpper() == null) {
+				return path(range.getField()) + " >= " + parameter(range.getLower());
+			}
+			if(range.getLower() == null) {
+				return path(range.getField()) + " <= " + parameter(range.getUpper());
+			}
+			return path(range.getField()) + " between " + parameter(range.getLower()) + " and " + parameter(range.getUpper());
+		}
+
+		@Override
+		public String visit(GeocellFilter.And and) {
+			StringBuffer jpql = new StringBuffer();
+			for(GeocellFilter filter : and.getFilters()) {
+				if(jpql.length() > 0) {
+					jpql.append(" and ");
+				}
+				jpql.append('(').append(filter.accept(this)).append(')');
+			}
+			return jpql.toString();
+		}
+
+		private static String path(String field) {
+			return ALIAS + "." + field;
+		}
+
+		private String parameter(Object value) {
+			parameters.add(value);
+			return "?" + parameters.size();
+		}
+
+	}
+
+	/**
+	 * Updates the geocells collection of the entity in place. A detached entity is merged afterwards:
+	 * the caller's instance stays detached, later changes must be made on the returned managed instance.
+	 *
+	 * @see com.beoui.geocell.GeocellQueryEngine#applyDelta(java.lang.Object, com.beoui.geocell.model.GeocellDelta)
+	 */
+	@Override
+	public <T> T applyDelta(T entity, GeocellDelta delta) {
+		if(delta.isEmpty()) {
+			return entity;
+		}
+		GeocellQueryEngine.super.applyDelta(entity, delta);
+		if(!entityManager.contains(entity)) {
+			return entityManager.merge(entity);
+		}
+		return entity;
 	}
 
 }
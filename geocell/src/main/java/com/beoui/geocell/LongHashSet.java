@@ -0,0 +1,125 @@
+package com.beoui.geocell;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Set of primitive longs, e.g. packed geocells, with open addressing and linear probing: no boxing and
+ * no entry objects, a lookup reads a few consecutive slots of a single array.
+ *
+ * Not thread safe.
+ */
+public final class LongHashSet {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    // Beyond this capacity, clear releases the table, so that a reused set does not retain a large one.
+    private static final int MAX_RETAINED_CAPACITY = 1 << 12;
+
+    // 0 marks empty slots, the value 0 is stored apart.
+    private long[] table;
+    private boolean hasZero;
+    private int size;
+
+    public LongHashSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of values the set holds without growing
+     */
+    public LongHashSet(int expectedSize) {
+        Validate.isTrue(expectedSize >= 0, "Expected size must be >= 0");
+        table = new long[tableSize(expectedSize)];
+    }
+
+    /**
+     * @return the power of 2 keeping the load factor under 1/2
+     */
+    private static int tableSize(int expectedSize) {
+        int tableSize = DEFAULT_CAPACITY;
+        while(tableSize < 2 * expectedSize) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long value) {
+        if(value == 0) {
+            return hasZero;
+        }
+        int mask = table.length - 1;
+        for(int i = slot(value, mask); table[i] != 0; i = i + 1 & mask) {
+            if(table[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the value was not in the set
+     */
+    public boolean add(long value) {
+        if(value == 0) {
+            if(hasZero) {
+                return false;
+            }
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int i = slot(value, mask);
+        while(table[i] != 0) {
+            if(table[i] == value) {
+                return false;
+            }
+            i = i + 1 & mask;
+        }
+        table[i] = value;
+        if(++size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    public void clear() {
+        if(table.length > MAX_RETAINED_CAPACITY) {
+            table = new long[DEFAULT_CAPACITY];
+        } else if(size > 0) {
+            Arrays.fill(table, 0);
+        }
+        hasZero = false;
+        size = 0;
+    }
+
+    private void rehash(int tableSize) {
+        long[] old = table;
+        table = new long[tableSize];
+        int mask = tableSize - 1;
+        for(long value : old) {
+            if(value != 0) {
+                int i = slot(value, mask);
+                while(table[i] != 0) {
+                    i = i + 1 & mask;
+                }
+                table[i] = value;
+            }
+        }
+    }
+
+    private static int slot(long value, int mask) {
+        // Fibonacci hashing: the high bits of the product depend on all the bits of the value.
+        return (int) (value * 0x9E3779B97F4A7C15L >>> 32) & mask;
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.beoui.geocell;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellProjection;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Read-only index of a large static set of points, stored outside of the Java heap.
+ *
+ * Points are identified by a long id. They are kept in direct buffers sorted by packed max resolution geocell:
+ * the points of a cell of any resolution are a contiguous range, found by binary search.
+ * The heap only holds the buffer objects, whatever the number of points, so the garbage collector never scans them.
+ * The memory is released when the index is garbage collected.
+ *
+ * As a {@link GeocellQueryEngine}, the index returns {@link GeocellProjection}s, with the point id as key:
+ * GeocellManager.proximitySearch(center, 10, 0, GeocellProjection.class, null, index, 13).
+ *
+ * Build it with a {@link Builder}. The index is immutable and thread safe.
+ */
+public class OffHeapGeocellIndex implements GeocellQueryEngine {
+
+    // Each buffer is limited to 2^31 bytes.
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE / 8;
+
+    private final int size;
+    // Sorted packed geocells of resolution 13, and the id and location of the points in the same order.
+    private final LongBuffer cells;
+    private final LongBuffer ids;
+    private final DoubleBuffer lats;
+    private final DoubleBuffer lons;
+
+    private OffHeapGeocellIndex(Builder builder) {
+        this.size = builder.size;
+        this.cells = builder.cells;
+        this.ids = builder.ids;
+        this.lats = builder.lats;
+        this.lons = builder.lons;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of points in the geocell
+     */
+    public int count(String cell) {
+        return upperBound(cell) - lowerBound(cell);
+    }
+
+    /**
+     * Only the geocells part of the query is supported: the base query must be empty and without filter,
+     * and cells must be geocells.
+     *
+     * @param entityClass GeocellProjection or a superclass
+     * @see com.beoui.geocell.GeocellQueryEngine#query(com.beoui.geocell.model.GeocellQuery, java.util.List, java.lang.Class)
+     */
+    @Override
+    public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+        Validate.isTrue(baseQuery == null || (StringUtils.isBlank(baseQuery.getBaseQuery()) && baseQuery.getFilter() == null),
+                "Off-heap index does not support queries");
+        Validate.isTrue(entityClass.isAssignableFrom(GeocellProjection.class), "Off-heap index only returns GeocellProjection");
+        List<T> result = new ArrayList<T>();
+        for(String cell : curGeocellsUnique) {
+            Validate.isTrue(InMemoryGeocellIndex.isGeocell(cell), "Invalid geocell: ", cell);
+            int end = upperBound(cell);
+            for(int i = lowerBound(cell); i < end; i++) {
+                result.add(entityClass.cast(new GeocellProjection(ids.get(i), lats.get(i), lons.get(i))));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of the first point in the cell, or of the first point after it
+     */
+    private int lowerBound(String cell) {
+        return search(first(cell));
+    }
+
+    /**
+     * @return the index of the first point after the cell
+     */
+    private int upperBound(String cell) {
+        return search(first(cell) + (1L << shift(cell)));
+    }
+
+    /**
+     * @return the first packed cell of resolution 13 in the cell
+     */
+    private static long first(String cell) {
+        return GeocellUtils.pack(cell) << shift(cell);
+    }
+
+    private static int shift(String cell) {
+        return 4 * (GeocellManager.MAX_GEOCELL_RESOLUTION - cell.length());
+    }
+
+    /**
+     * @return the index of the first packed cell >= key
+     */
+    private int search(long key) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(cells.get(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Collects the points in direct buffers of a fixed capacity, then sorts them in place.
+     * A builder is not thread safe and builds a single index.
+     */
+    public static class Builder {
+
+        private final int capacity;
+        private int size;
+        private final LongBuffer cells;
+        private final LongBuffer ids;
+        private final DoubleBuffer lats;
+        private final DoubleBuffer lons;
+        private boolean built;
+
+        /**
+         * @param capacity maximum number of points, at most MAX_CAPACITY
+         */
+        public Builder(int capacity) {
+            Validate.isTrue(capacity >= 0 && capacity <= MAX_CAPACITY, "Capacity must be between 0 and ", MAX_CAPACITY);
+            this.capacity = capacity;
+            this.cells = allocate(capacity).asLongBuffer();
+            this.ids = allocate(capacity).asLongBuffer();
+            this.lats = allocate(capacity).asDoubleBuffer();
+            this.lons = allocate(capacity).asDoubleBuffer();
+        }
+
+        private static ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder());
+        }
+
+        public Builder add(long id, double lat, double lon) {
+            Validate.isTrue(!built, "Index already built");
+            Validate.isTrue(size < capacity, "Builder is full");
+            cells.put(size, GeocellUtils.pack(GeocellUtils.compute(new Point(lat, lon), GeocellManager.MAX_GEOCELL_RESOLUTION)));
+            ids.put(size, id);
+            lats.put(size, lat);
+            lons.put(size, lon);
+            size++;
+            return this;
+        }
+
+        /**
+         * Sorts the points by geocell, with a heap sort: in place and without recursion, whatever the number of points.
+         */
+        public OffHeapGeocellIndex build() {
+            Validate.isTrue(!built, "Index already built");
+            built = true;
+            for(int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i, size);
+            }
+            for(int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            return new OffHeapGeocellIndex(this);
+        }
+
+        private void siftDown(int i, int end) {
+            while(2 * i + 1 < end) {
+                int child = 2 * i + 1;
+                if(child + 1 < end && cells.get(child + 1) > cells.get(child)) {
+                    child++;
+                }
+                if(cells.get(i) >= cells.get(child)) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long cell = cells.get(i);
+            cells.put(i, cells.get(j));
+            cells.put(j, cell);
+            long id = ids.get(i);
+            ids.put(i, ids.get(j));
+            ids.put(j, id);
+            double lat = lats.get(i);
+            lats.put(i, lats.get(j));
+            lats.put(j, lat);
+            double lon = lons.get(i);
+            lons.put(i, lons.get(j));
+            lons.put(j, lon);
+        }
+
+    }
+
+}
@@ -0,0 +1,528 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.comparator.EntityLocationComparableTuple;
+import com.beoui.geocell.model.ApproximationPolicy;
+import com.beoui.geocell.model.GeocellProjection;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.ProximitySearchResult;
+
+/**
+ * Reusable state of a proximity search: the cells being searched, the searched cells and the edge distances
+ * are kept in buffers reused from one search to the next, so that a steady flow of searches allocates little
+ * besides the query results.
+ *
+ * A context runs one search at a time and is not thread safe. Either keep one per worker and pass it explicitly,
+ * or use {@link #forCurrentThread()}. The cells list passed to the query engine is reused: engines must not keep it
+ * after query returns.
+ *
+ * With a {@link ShardAwareQueryEngine}, the search grows towards the cells involving the fewest shards,
+ * rather than towards the closest edge.
+ *
+ * @see GeocellManager#proximitySearch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int)
+ */
+public class ProximitySearchContext {
+
+    private static final Logger logger = GeocellLogger.get();
+
+    private static final ThreadLocal<ProximitySearchContext> CONTEXTS = new ThreadLocal<ProximitySearchContext>() {
+        @Override
+        protected ProximitySearchContext initialValue() {
+            return new ProximitySearchContext();
+        }
+    };
+
+    // Edge directions, indexed like the edges buffer.
+    private static final int[][] DIRECTIONS = {{0, -1}, {0, 1}, {-1, 0}, {1, 0}};
+    private static final int SOUTH = 0;
+    private static final int NORTH = 1;
+    private static final int WEST = 2;
+    private static final int EAST = 3;
+    // Before the first round, there is no edge yet.
+    private static final int NO_DIRECTION = -1;
+
+    // Largest polar row searched at once: the 256 cells of resolution 4.
+    private static final int MAX_POLAR_ROW_CELLS = 256;
+
+    private boolean inUse;
+
+    /*
+     * The currently-being-searched geocells.
+     * NOTES:
+     * Must always be of the same resolution.
+     * Must always form a rectangular region.
+     * One of these must be equal to the current containing geocell.
+     */
+    private final ArrayList<String> curGeocells = new ArrayList<String>(4);
+    private final ArrayList<String> nextGeocells = new ArrayList<String>(4);
+    // Current geocells not searched yet, passed to the query engine.
+    private final ArrayList<String> curGeocellsUnique = new ArrayList<String>(4);
+    // Candidate geocells, whose shards are counted.
+    private final ArrayList<String> shardGeocells = new ArrayList<String>(4);
+
+    // Already searched cells, packed with their resolution.
+    private final LongHashSet searchedCells = new LongHashSet(64);
+    // Cells of the list being built, packed with their resolution, to skip duplicates.
+    private final LongHashSet frontier = new LongHashSet();
+
+    // Edges of the current geocells region sorted by distance: directions and distances in meters.
+    private final int[] edges = new int[4];
+    private final double[] edgeDistances = new double[4];
+    private int edgeCount;
+    private final double[] box = new double[4];
+    private int[] columns = new int[4];
+
+    // Listener of the rounds of the current search, or null.
+    private RoundListener roundListener;
+
+    private final ArrayList<EntityLocationComparableTuple<Object>> results = new ArrayList<EntityLocationComparableTuple<Object>>();
+    private final ArrayList<EntityLocationComparableTuple<Object>> newResults = new ArrayList<EntityLocationComparableTuple<Object>>();
+    // Keys of the results, to skip the entities found again in the parent cells.
+    private final HashSet<String> resultKeys = new HashSet<String>();
+
+    /**
+     * @return the context of the current thread, or a new one if it is already running a search
+     * (e.g. a query engine itself running a proximity search).
+     */
+    public static ProximitySearchContext forCurrentThread() {
+        ProximitySearchContext context = CONTEXTS.get();
+        return context.inUse ? new ProximitySearchContext() : context;
+    }
+
+    /**
+     * @see GeocellManager#proximitySearch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int)
+     */
+    public <T> List<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, int maxGeocellResolution) {
+        return proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, null, maxGeocellResolution, ApproximationPolicy.EXACT, false, 0).getResults();
+    }
+
+    /**
+     * @see GeocellManager#proximitySearchTwoPhase(Point, int, double, Class, GeocellQuery, GeocellProjectionEngine, int)
+     */
+    public <T> List<T> proximitySearchTwoPhase(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellProjectionEngine projectionEngine, int maxGeocellResolution) {
+        Validate.notNull(projectionEngine, "Projection engine must not be null");
+        return proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, null, projectionEngine, maxGeocellResolution, ApproximationPolicy.EXACT, false, 0).getResults();
+    }
+
+    /**
+     * @see GeocellManager#proximitySearch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int, ApproximationPolicy)
+     */
+    public <T> ProximitySearchResult<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, int maxGeocellResolution, ApproximationPolicy policy) {
+        Validate.notNull(policy, "Approximation policy must not be null");
+        return proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, null, maxGeocellResolution, policy, false, 0);
+    }
+
+    /**
+     * @see GeocellManager#proximitySearch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int, long, TimeUnit)
+     */
+    public <T> List<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, int maxGeocellResolution, long timeout, TimeUnit unit) {
+        return proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, null, maxGeocellResolution, ApproximationPolicy.EXACT, true, System.nanoTime() + unit.toNanos(timeout)).getResults();
+    }
+
+    /**
+     * Exact search calling the listener after each round.
+     *
+     * @see GeocellPublishers#proximitySearch(Point, int, double, Class, GeocellQuery, GeocellQueryEngine, int, java.util.concurrent.Executor)
+     */
+    <T> List<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, int maxGeocellResolution, RoundListener listener) {
+        Validate.notNull(listener, "Listener must not be null");
+        Validate.isTrue(!inUse, "Context is already running a search");
+        roundListener = listener;
+        try {
+            return proximitySearch(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, null, maxGeocellResolution, ApproximationPolicy.EXACT, false, 0).getResults();
+        } finally {
+            roundListener = null;
+        }
+    }
+
+    /**
+     * Runs the rounds with queryEngine, or with the projections of projectionEngine when not null.
+     */
+    private <T> ProximitySearchResult<T> proximitySearch(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, GeocellProjectionEngine projectionEngine, int maxGeocellResolution, ApproximationPolicy policy, boolean hasDeadline, long deadline) {
+        Validate.isTrue(maxGeocellResolution < GeocellManager.MAX_GEOCELL_RESOLUTION + 1,
+                "Invalid max resolution parameter. Must be inferior to ", GeocellManager.MAX_GEOCELL_RESOLUTION);
+        Validate.isTrue(!inUse, "Context is already running a search");
+        inUse = true;
+        try {
+            return search(center, maxResults, maxDistance, entityClass, baseQuery, queryEngine, projectionEngine, maxGeocellResolution, policy, hasDeadline, deadline);
+        } finally {
+            // Do not retain entities nor cells until the next search.
+            results.clear();
+            newResults.clear();
+            resultKeys.clear();
+            curGeocells.clear();
+            nextGeocells.clear();
+            curGeocellsUnique.clear();
+            searchedCells.clear();
+            frontier.clear();
+            inUse = false;
+        }
+    }
+
+    private <T> ProximitySearchResult<T> search(Point center, int maxResults, double maxDistance, Class<T> entityClass, GeocellQuery baseQuery, GeocellQueryEngine queryEngine, GeocellProjectionEngine projectionEngine, int maxGeocellResolution, ApproximationPolicy policy, boolean hasDeadline, long deadline) {
+        // The current search geocell containing the lat,lon.
+        String curContainingGeocell = GeocellUtils.compute(center, maxGeocellResolution);
+        curGeocells.add(curContainingGeocell);
+
+        edges[0] = NO_DIRECTION;
+        edgeDistances[0] = 0;
+        edgeCount = 1;
+
+        ShardAwareQueryEngine shardAware = queryEngine instanceof ShardAwareQueryEngine ? (ShardAwareQueryEngine) queryEngine : null;
+
+        // Whether the search stopped before finding the closest results.
+        boolean stoppedEarly = false;
+        // Whether the current geocells are whole rows around a pole.
+        boolean polarRow = false;
+        int rounds = 0;
+
+        while(!curGeocells.isEmpty()) {
+            double closestPossibleNextResultDist = edgeDistances[0];
+            if(maxDistance > 0 && closestPossibleNextResultDist > maxDistance) {
+                break;
+            }
+
+            if(hasDeadline && System.nanoTime() - deadline >= 0) {
+                logger.log(Level.INFO, "Proximity query deadline reached, returning the best results found so far.");
+                stoppedEarly = true;
+                break;
+            }
+            if(!policy.allowsRound(rounds, searchedCells.size())) {
+                logger.log(Level.FINE, "Approximation limits reached after {0} rounds.", rounds);
+                stoppedEarly = true;
+                break;
+            }
+            rounds++;
+
+            curGeocellsUnique.clear();
+            frontier.clear();
+            for(String cell : curGeocells) {
+                long key = searchKey(cell);
+                if(!searchedCells.contains(key) && frontier.add(key)) {
+                    curGeocellsUnique.add(cell);
+                }
+            }
+            Collections.sort(curGeocellsUnique);
+
+            List<?> newResultEntities;
+            try {
+                newResultEntities = projectionEngine != null
+                        ? projectionEngine.queryProjections(baseQuery, curGeocellsUnique, entityClass)
+                        : queryEngine.query(baseQuery, curGeocellsUnique, entityClass);
+            } catch(GeocellDeadlineExceededException e) {
+                logger.log(Level.INFO, "Proximity query deadline reached, returning the best results found so far.");
+                stoppedEarly = true;
+                break;
+            }
+
+            if(logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "fetch complete for: " + StringUtils.join(curGeocellsUnique, ", "));
+            }
+
+            for(String cell : curGeocells) {
+                searchedCells.add(searchKey(cell));
+            }
+
+            // Begin storing distance from the search result entity to the
+            // search center along with the search result itself, in a tuple.
+            newResults.clear();
+            for(Object entity : newResultEntities) {
+                newResults.add(new EntityLocationComparableTuple<Object>(entity, GeocellUtils.distance(center, GeocellUtils.getLocation(entity))));
+            }
+            Collections.sort(newResults);
+
+            // Merge the closest new results into results
+            for(int i = 0; i < Math.min(maxResults, newResults.size()); i++) {
+                if(resultKeys.add(GeocellUtils.getKeyString(newResults.get(i).getFirst()))) {
+                    results.add(newResults.get(i));
+                }
+            }
+            newResults.clear();
+
+            Collections.sort(results);
+            while(results.size() > maxResults) {
+                resultKeys.remove(GeocellUtils.getKeyString(results.remove(results.size() - 1).getFirst()));
+            }
+
+            sortEdges(center);
+
+            if(roundListener != null && !roundListener.onRound(results, edgeDistances[0])) {
+                stoppedEarly = true;
+                break;
+            }
+
+            if(curContainingGeocell.length() == 0) {
+                break;  // Done with search, we've searched everywhere.
+            } else if(results.size() == 0 || curGeocells.size() == 4 || polarRow) {
+                /* Either no results (in which case we optimize by not looking at
+                        adjacents, go straight to the parent) or we've searched 4 adjacent
+                        geocells, in which case we should now search the parents of those
+                        geocells.*/
+                int resolution = curContainingGeocell.length();
+                nextGeocells.clear();
+                if(!polarRow && GeocellTopology.gridSize(resolution) <= MAX_POLAR_ROW_CELLS && addPolarRowCells(resolution)) {
+                    // The searched rectangle cannot grow across a pole: search around the pole at the same resolution.
+                    polarRow = true;
+                } else if(polarRow) {
+                    curContainingGeocell = curContainingGeocell.substring(0, resolution - 1);
+                    if(resolution > 1) {
+                        addPolarRowCells(resolution - 1);
+                    }
+                } else if(resolution > 1) {
+                    curContainingGeocell = curContainingGeocell.substring(0, resolution - 1);
+                    frontier.clear();
+                    for(String cell : curGeocells) {
+                        // Parent from the packed cell, without a substring.
+                        long parent = GeocellUtils.pack(cell) >>> 4;
+                        if(frontier.add(parent << 4 | (cell.length() - 1))) {
+                            nextGeocells.add(GeocellPool.cell(parent, cell.length() - 1));
+                        }
+                    }
+                }
+                curGeocells.clear();
+                curGeocells.addAll(nextGeocells);
+                if(curGeocells.size() == 0) {
+                    break;  // Done with search, we've searched everywhere.
+                }
+            } else if(curGeocells.size() == 1) {
+                // Get adjacent in one direction. There is nothing beyond a pole, but there is always a cell east or west.
+                // Closest edge first, unless another direction involves fewer shards.
+                String nextCell = null;
+                int nextShards = Integer.MAX_VALUE;
+                for(int i = 0; i < edgeCount; i++) {
+                    String adjacentCell = GeocellUtils.adjacent(curGeocells.get(0), DIRECTIONS[edges[i]]);
+                    if(adjacentCell != null) {
+                        int shards = shardCount(shardAware, adjacentCell, null);
+                        if(shards < nextShards) {
+                            nextCell = adjacentCell;
+                            nextShards = shards;
+                        }
+                        if(shardAware == null) {
+                            break;
+                        }
+                    }
+                }
+                if(nextCell != null) {
+                    curGeocells.add(nextCell);
+                }
+            } else if(curGeocells.size() == 2) {
+                // Get adjacents in perpendicular direction.
+                boolean vertical = GeocellTopology.toXY(curGeocells.get(0))[0] == GeocellTopology.toXY(curGeocells.get(1))[0];
+                int nextShards = Integer.MAX_VALUE;
+                nextGeocells.clear();
+                for(int i = 0; i < edgeCount; i++) {
+                    // Was vertical, perpendicular is horizontal, and conversely.
+                    if((DIRECTIONS[edges[i]][0] == 0) == vertical) {
+                        continue;
+                    }
+                    String first = GeocellUtils.adjacent(curGeocells.get(0), DIRECTIONS[edges[i]]);
+                    String second = GeocellUtils.adjacent(curGeocells.get(1), DIRECTIONS[edges[i]]);
+                    // Lying on a pole, try the opposite direction.
+                    if(first == null || second == null) {
+                        continue;
+                    }
+                    int shards = shardCount(shardAware, first, second);
+                    if(shards < nextShards) {
+                        nextGeocells.clear();
+                        nextGeocells.add(first);
+                        nextGeocells.add(second);
+                        nextShards = shards;
+                    }
+                    if(shardAware == null) {
+                        break;
+                    }
+                }
+                curGeocells.addAll(nextGeocells);
+            }
+
+            // We don't have enough items yet, keep searching.
+            if(results.size() < maxResults) {
+                if(logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, results.size() + " results found but want " + maxResults + " results, continuing search.");
+                }
+                continue;
+            }
+
+            logger.log(Level.FINE, "{0} results found.", results.size());
+
+            // If the currently max_results'th closest item is closer than any
+            // of the next test geocells, we're done searching.
+            double currentFarthestReturnableResultDist = results.get(maxResults - 1).getSecond();
+            if(closestPossibleNextResultDist >= currentFarthestReturnableResultDist) {
+                if(logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "DONE next result at least " + closestPossibleNextResultDist + " away, current farthest is " + currentFarthestReturnableResultDist + " dist");
+                }
+                break;
+            }
+            if(closestPossibleNextResultDist * (1 + policy.getEpsilon()) >= currentFarthestReturnableResultDist) {
+                if(logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "DONE within epsilon, next result at least " + closestPossibleNextResultDist + " away, current farthest is " + currentFarthestReturnableResultDist + " dist");
+                }
+                stoppedEarly = true;
+                break;
+            }
+            if(logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "next result at least " + closestPossibleNextResultDist + " away, current farthest is " + currentFarthestReturnableResultDist + " dist");
+            }
+        }
+        List<Object> found = new ArrayList<Object>(results.size());
+        for(EntityLocationComparableTuple<Object> entry : results) {
+            if(maxDistance == 0 || entry.getSecond() < maxDistance) {
+                found.add(projectionEngine != null ? ((GeocellProjection) entry.getFirst()).getKey() : entry.getFirst());
+            } else if(logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Discarding result " + entry.getFirst() + " because distance " + entry.getSecond() + "m > max distance " + maxDistance + "m");
+            }
+        }
+        List<T> result;
+        if(projectionEngine != null) {
+            // Second phase: only the closest entities are fetched.
+            result = projectionEngine.fetch(found, entityClass);
+        } else {
+            result = new ArrayList<T>(found.size());
+            for(Object entity : found) {
+                result.add(entityClass.cast(entity));
+            }
+        }
+        logger.log(Level.INFO, "Proximity query looked in " + searchedCells.size() + " geocells and found " + result.size() + " results.");
+        return new ProximitySearchResult<T>(result, !stoppedEarly, rounds, searchedCells.size());
+    }
+
+    /**
+     * Same as GeocellUtils.distanceSortedEdges on the current geocells, into the edges buffers.
+     */
+    private void sortEdges(Point center) {
+        double maxNorth = Double.NEGATIVE_INFINITY;
+        double maxSouth = Double.POSITIVE_INFINITY;
+        if(columns.length < curGeocells.size()) {
+            columns = new int[curGeocells.size()];
+        }
+        int columnCount = 0;
+        for(String cell : curGeocells) {
+            GeocellUtils.computeBox(cell, box);
+            maxNorth = Math.max(maxNorth, box[0]);
+            maxSouth = Math.min(maxSouth, box[2]);
+            columns[columnCount++] = GeocellTopology.toXY(cell)[0];
+        }
+
+        // West and east edges from the grid columns, the region may cross the antimeridian:
+        // it starts right after the largest gap between used columns, going around the world.
+        Arrays.sort(columns, 0, columnCount);
+        int size = GeocellTopology.gridSize(curGeocells.get(0).length());
+        int westX = columns[0];
+        int eastX = columns[columnCount - 1];
+        int largestGap = westX + size - eastX;
+        for(int i = 1; i < columnCount; i++) {
+            int gap = columns[i] - columns[i - 1];
+            if(gap > largestGap) {
+                largestGap = gap;
+                westX = columns[i];
+                eastX = columns[i - 1];
+            }
+        }
+        double lonSpan = GeocellUtils.cellLonSpan(curGeocells.get(0).length());
+        double west = GeocellUtils.MIN_LONGITUDE + westX * lonSpan;
+        double east = GeocellUtils.MIN_LONGITUDE + (eastX + 1) * lonSpan;
+
+        edgeCount = 0;
+        // A whole row around a pole has no west nor east edge, and nothing lies beyond its pole.
+        boolean wholeRow = largestGap <= 1;
+        if(!wholeRow || maxSouth > GeocellUtils.MIN_LATITUDE) {
+            addEdge(SOUTH, GeocellUtils.distance(maxSouth, center.getLon(), center.getLat(), center.getLon()));
+        }
+        if(!wholeRow || maxNorth < GeocellUtils.MAX_LATITUDE) {
+            addEdge(NORTH, GeocellUtils.distance(maxNorth, center.getLon(), center.getLat(), center.getLon()));
+        }
+        if(!wholeRow) {
+            addEdge(WEST, GeocellUtils.distance(center.getLat(), west, center.getLat(), center.getLon()));
+            addEdge(EAST, GeocellUtils.distance(center.getLat(), east, center.getLat(), center.getLon()));
+        }
+    }
+
+    /**
+     * @return the number of shards a query on the current geocells and the given adjacent cells involves,
+     * 0 if the engine is not shard aware.
+     */
+    private int shardCount(ShardAwareQueryEngine shardAware, String adjacentCell, String otherAdjacentCell) {
+        if(shardAware == null) {
+            return 0;
+        }
+        shardGeocells.clear();
+        shardGeocells.addAll(curGeocells);
+        shardGeocells.add(adjacentCell);
+        if(otherAdjacentCell != null) {
+            shardGeocells.add(otherAdjacentCell);
+        }
+        int shards = shardAware.shardCount(shardGeocells);
+        shardGeocells.clear();
+        return shards;
+    }
+
+    /**
+     * Insertion in the sorted edges. Like a stable sort, an edge goes after the edges at the same distance.
+     */
+    private void addEdge(int direction, double distance) {
+        int i = edgeCount++;
+        while(i > 0 && edgeDistances[i - 1] > distance) {
+            edges[i] = edges[i - 1];
+            edgeDistances[i] = edgeDistances[i - 1];
+            i--;
+        }
+        edges[i] = direction;
+        edgeDistances[i] = distance;
+    }
+
+    /**
+     * Adds to nextGeocells the whole rows, at the given resolution, lying on the poles the current geocells touch.
+     *
+     * @return whether the current geocells touch a pole
+     */
+    private boolean addPolarRowCells(int resolution) {
+        int lastRow = GeocellTopology.gridSize(resolution) - 1;
+        boolean onAnyPole = false;
+        for(int pole = 0; pole < 2; pole++) {
+            boolean onPole = false;
+            for(String cell : curGeocells) {
+                onPole |= GeocellTopology.toXY(cell)[1] == (pole == 0 ? 0 : GeocellTopology.gridSize(cell.length()) - 1);
+            }
+            for(int x = 0; onPole && x <= lastRow; x++) {
+                nextGeocells.add(GeocellTopology.fromXY(x, pole == 0 ? 0 : lastRow, resolution));
+            }
+            onAnyPole |= onPole;
+        }
+        return onAnyPole;
+    }
+
+    /**
+     * Packed cell and its resolution, so that "0" and "00" differ.
+     */
+    private static long searchKey(String cell) {
+        return GeocellUtils.pack(cell) << 4 | cell.length();
+    }
+
+    /**
+     * Called after each round of a search.
+     */
+    interface RoundListener {
+
+        /**
+         * @param results closest results found so far, sorted by distance, at most maxResults
+         * @param minNextDistance distance to the closest unsearched point: results closer than it are final
+         * @return false to stop the search
+         */
+        boolean onRound(List<EntityLocationComparableTuple<Object>> results, double minNextDistance);
+
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.beoui.geocell;
+
+import java.util.List;
+
+/**
+ * Query engine spreading the geocells over several datastores.
+ *
+ * When the search can grow in several directions, proximitySearch prefers the cells whose query involves the fewest datastores.
+ *
+ * @see ShardedGeocellQueryEngine
+ */
+public interface ShardAwareQueryEngine extends GeocellQueryEngine {
+
+	/**
+	 * @param cells geocells of a query
+	 * @return the number of datastores a query on these cells involves
+	 */
+	public abstract int shardCount(List<String> cells);
+
+}
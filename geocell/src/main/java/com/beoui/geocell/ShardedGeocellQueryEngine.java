@@ -0,0 +1,164 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellQuery;
+
+/**
+ * Query engine over several datastores, each owning the entities of some geocell prefixes.
+ *
+ * A geocell is routed to the shard of its longest prefix in the routing map. A geocell larger than some shards prefixes,
+ * e.g. "a" with shards "a0" to "af", is also sent to all the shards under it. The prefix "" makes a default shard.
+ * The shards of a query run in parallel on the executor, and their results are concatenated:
+ * shards must hold disjoint sets of entities.
+ *
+ * Shards can be added or removed at any time, a query uses the routing map as of when it started routing.
+ */
+public class ShardedGeocellQueryEngine implements ShardAwareQueryEngine {
+
+    private final Executor executor;
+
+    // Shard prefix -> engine. Sorted, so that the shards under a geocell are a range.
+    private final ConcurrentSkipListMap<String, GeocellQueryEngine> shards = new ConcurrentSkipListMap<String, GeocellQueryEngine>();
+
+    /**
+     * @param executor executor running the queries of the shards, when a query involves more than one shard
+     */
+    public ShardedGeocellQueryEngine(Executor executor) {
+        Validate.notNull(executor, "Executor must not be null");
+        this.executor = executor;
+    }
+
+    /**
+     * Routes the geocells starting with the prefix to the engine, replacing the previous engine of the prefix.
+     *
+     * @param prefix geocell prefix, "" for a default shard
+     * @param engine engine querying the shard
+     */
+    public void putShard(String prefix, GeocellQueryEngine engine) {
+        Validate.notNull(prefix, "Prefix must not be null");
+        Validate.notNull(engine, "Engine must not be null");
+        shards.put(prefix, engine);
+    }
+
+    /**
+     * @return the engine of the prefix, or null
+     */
+    public GeocellQueryEngine removeShard(String prefix) {
+        return shards.remove(prefix);
+    }
+
+    /**
+     * @return a read-only view of the routing map
+     */
+    public Map<String, GeocellQueryEngine> getShards() {
+        return Collections.unmodifiableMap(shards);
+    }
+
+    /**
+     * Groups the cells by the engine they are routed to.
+     *
+     * @throws IllegalArgumentException if a cell is not owned by any shard
+     */
+    public Map<GeocellQueryEngine, List<String>> route(List<String> cells) {
+        Map<GeocellQueryEngine, List<String>> routes = new IdentityHashMap<GeocellQueryEngine, List<String>>();
+        for(String cell : cells) {
+            Collection<GeocellQueryEngine> engines = route(cell);
+            Validate.isTrue(!engines.isEmpty(), "No shard for geocell " + cell);
+            for(GeocellQueryEngine engine : engines) {
+                List<String> engineCells = routes.get(engine);
+                if(engineCells == null) {
+                    engineCells = new ArrayList<String>();
+                    routes.put(engine, engineCells);
+                }
+                engineCells.add(cell);
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * @return the shard of the longest prefix of the cell, and the shards of longer prefixes starting with the cell
+     */
+    private Collection<GeocellQueryEngine> route(String cell) {
+        Map<GeocellQueryEngine, Boolean> engines = new IdentityHashMap<GeocellQueryEngine, Boolean>();
+        for(int length = cell.length(); length >= 0; length--) {
+            GeocellQueryEngine engine = shards.get(cell.substring(0, length));
+            if(engine != null) {
+                engines.put(engine, Boolean.TRUE);
+                break;
+            }
+        }
+        for(GeocellQueryEngine engine : shards.subMap(cell, false, cell + Character.MAX_VALUE, false).values()) {
+            engines.put(engine, Boolean.TRUE);
+        }
+        return engines.keySet();
+    }
+
+    @Override
+    public int shardCount(List<String> cells) {
+        return route(cells).size();
+    }
+
+    /**
+     * @see com.beoui.geocell.GeocellQueryEngine#query(com.beoui.geocell.model.GeocellQuery, java.util.List, java.lang.Class)
+     */
+    @Override
+    public <T> List<T> query(final GeocellQuery baseQuery, List<String> curGeocellsUnique, final Class<T> entityClass) {
+        Map<GeocellQueryEngine, List<String>> routes = route(curGeocellsUnique);
+        if(routes.size() == 1) {
+            Map.Entry<GeocellQueryEngine, List<String>> route = routes.entrySet().iterator().next();
+            return route.getKey().query(baseQuery, route.getValue(), entityClass);
+        }
+
+        List<FutureTask<List<T>>> tasks = new ArrayList<FutureTask<List<T>>>();
+        for(final Map.Entry<GeocellQueryEngine, List<String>> route : routes.entrySet()) {
+            FutureTask<List<T>> task = new FutureTask<List<T>>(() -> route.getKey().query(baseQuery, route.getValue(), entityClass));
+            tasks.add(task);
+            executor.execute(task);
+        }
+        List<T> result = new ArrayList<T>();
+        try {
+            for(FutureTask<List<T>> task : tasks) {
+                result.addAll(await(task));
+            }
+        } finally {
+            for(FutureTask<List<T>> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    private static <T> List<T> await(FutureTask<List<T>> task) {
+        try {
+            return task.get();
+        } catch(CancellationException e) {
+            throw new GeocellDeadlineExceededException("Shard query was cancelled", e);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeocellDeadlineExceededException("Interrupted while waiting for the shards", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if(e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+}
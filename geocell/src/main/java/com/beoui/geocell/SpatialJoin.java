@@ -0,0 +1,297 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.JoinMatch;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Matches two sets of entities by proximity, e.g. "for every order, the nearest depot within 5 km".
+ *
+ * Both sets are partitioned by geocell at a resolution whose cells are larger than the join distance,
+ * so every match of a left entity lies in its own cell or in one of the 8 adjacent cells.
+ * Partitions are then joined in parallel on a ForkJoinPool.
+ *
+ * Entities are located with GeocellUtils.getLocation, so they must implement LocationCapable
+ * or have Latitude/Longitude annotated fields.
+ *
+ */
+public final class SpatialJoin {
+
+    // Number of left partitions below which a task is not split any further.
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private static final Logger logger = GeocellLogger.get();
+
+    private SpatialJoin() {
+        // no instantiation allowed
+    }
+
+    /**
+     * For every left entity, finds the closest right entity within the given distance.
+     * Left entities without any right entity in range are not part of the result.
+     *
+     * @param left entities to match
+     * @param right candidate entities
+     * @param maxDistance maximum distance between matched entities, in meters. Must be > 0.
+     * @param pool pool running the partition joins
+     * @return one match per matched left entity, in no particular order.
+     */
+    public static <L, R> Stream<JoinMatch<L, R>> nearestWithin(Iterable<L> left, Iterable<R> right, double maxDistance, ForkJoinPool pool) {
+        return join(left, right, maxDistance, true, pool);
+    }
+
+    public static <L, R> Stream<JoinMatch<L, R>> nearestWithin(Iterable<L> left, Iterable<R> right, double maxDistance) {
+        return nearestWithin(left, right, maxDistance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds all the (left, right) pairs of entities within the given distance of each other.
+     *
+     * @see SpatialJoin#nearestWithin(Iterable, Iterable, double, ForkJoinPool)
+     */
+    public static <L, R> Stream<JoinMatch<L, R>> allWithin(Iterable<L> left, Iterable<R> right, double maxDistance, ForkJoinPool pool) {
+        return join(left, right, maxDistance, false, pool);
+    }
+
+    public static <L, R> Stream<JoinMatch<L, R>> allWithin(Iterable<L> left, Iterable<R> right, double maxDistance) {
+        return allWithin(left, right, maxDistance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Same as nearestWithin, with right entities fetched from a datastore.
+     *
+     * Only the cells neighbouring the left partitions are queried, in batches of
+     * GeocellManager.DEFAULT_MAX_REGION_COVERING_CELLS cells. Queries are run sequentially from the calling thread,
+     * as query engines are usually not thread safe; only the join itself runs on the pool.
+     *
+     * @param rightClass class of the right entities, stored with their geocells.
+     * @param rightQuery query that will be enhanced with geocells. see GeocellQuery class for more information.
+     * @param rightEngine {@link GeocellQueryEngine} to be used to fetch right entities
+     */
+    public static <L, R> Stream<JoinMatch<L, R>> nearestWithin(Iterable<L> left, Class<R> rightClass, GeocellQuery rightQuery,
+            GeocellQueryEngine rightEngine, double maxDistance, ForkJoinPool pool) {
+        return join(left, rightClass, rightQuery, rightEngine, maxDistance, true, pool);
+    }
+
+    /**
+     * Same as allWithin, with right entities fetched from a datastore.
+     *
+     * @see SpatialJoin#nearestWithin(Iterable, Class, GeocellQuery, GeocellQueryEngine, double, ForkJoinPool)
+     */
+    public static <L, R> Stream<JoinMatch<L, R>> allWithin(Iterable<L> left, Class<R> rightClass, GeocellQuery rightQuery,
+            GeocellQueryEngine rightEngine, double maxDistance, ForkJoinPool pool) {
+        return join(left, rightClass, rightQuery, rightEngine, maxDistance, false, pool);
+    }
+
+    private static <L, R> Stream<JoinMatch<L, R>> join(Iterable<L> left, Iterable<R> right, double maxDistance, boolean nearestOnly, ForkJoinPool pool) {
+        Validate.isTrue(maxDistance > 0, "Max distance must be > 0 but was ", maxDistance);
+        List<Located<L>> leftLocated = locate(left);
+        List<Located<R>> rightLocated = locate(right);
+        int resolution = joinResolution(maxDistance, Math.max(maxAbsLatitude(leftLocated), maxAbsLatitude(rightLocated)));
+        return join(partition(leftLocated, resolution), partition(rightLocated, resolution), maxDistance, nearestOnly, pool);
+    }
+
+    private static <L, R> Stream<JoinMatch<L, R>> join(Iterable<L> left, Class<R> rightClass, GeocellQuery rightQuery,
+            GeocellQueryEngine rightEngine, double maxDistance, boolean nearestOnly, ForkJoinPool pool) {
+        Validate.isTrue(maxDistance > 0, "Max distance must be > 0 but was ", maxDistance);
+        List<Located<L>> leftLocated = locate(left);
+        // Right entities are within maxDistance of a left one, so their latitude is bounded by the left ones.
+        int resolution = joinResolution(maxDistance, maxAbsLatitude(leftLocated));
+        Map<String, List<Located<L>>> leftPartitions = partition(leftLocated, resolution);
+
+        Set<String> queryCells = new LinkedHashSet<String>();
+        if(resolution == 0) {
+            queryCells.addAll(GeocellUtils.children(""));
+        } else {
+            for(String cell : leftPartitions.keySet()) {
+                queryCells.addAll(neighbourhood(cell));
+            }
+        }
+        List<String> cells = new ArrayList<String>(queryCells);
+        List<R> right = new ArrayList<R>();
+        int batchSize = GeocellManager.DEFAULT_MAX_REGION_COVERING_CELLS;
+        for(int i = 0; i < cells.size(); i += batchSize) {
+            right.addAll(rightEngine.query(rightQuery, cells.subList(i, Math.min(cells.size(), i + batchSize)), rightClass));
+        }
+        logger.log(Level.FINE, "Spatial join fetched "+right.size()+" right entities in "+cells.size()+" geocells.");
+
+        return join(leftPartitions, partition(locate(right), resolution), maxDistance, nearestOnly, pool);
+    }
+
+    private static <L, R> Stream<JoinMatch<L, R>> join(Map<String, List<Located<L>>> leftPartitions, Map<String, List<Located<R>>> rightPartitions,
+            double maxDistance, boolean nearestOnly, ForkJoinPool pool) {
+        List<String> leftCells = new ArrayList<String>(leftPartitions.keySet());
+        JoinTask<L, R> task = new JoinTask<L, R>(leftCells, 0, leftCells.size(), leftPartitions, rightPartitions, maxDistance, nearestOnly);
+        List<JoinMatch<L, R>> matches = pool.invoke(task);
+        logger.log(Level.INFO, "Spatial join processed "+leftCells.size()+" partitions and found "+matches.size()+" matches.");
+        return matches.stream();
+    }
+
+    /**
+     * Returns the highest resolution whose cells are at least maxDistance tall and wide up to the given latitude,
+     * or 0 (a single partition) if no such resolution exists.
+     */
+    static int joinResolution(double maxDistance, double maxAbsLatitude) {
+        double latitude = Math.min(maxAbsLatitude + Math.toDegrees(maxDistance / GeocellUtils.RADIUS), GeocellUtils.MAX_LATITUDE);
+        // Resolution 0 cell height, and width at the given latitude, in meters.
+        double cellSpan = Math.min(Math.PI * GeocellUtils.RADIUS, 2 * Math.PI * GeocellUtils.RADIUS * Math.cos(Math.toRadians(latitude)));
+        if(cellSpan < maxDistance) {
+            return 0;
+        }
+        int resolution = (int) Math.floor(Math.log(cellSpan / maxDistance) / Math.log(GeocellUtils.GEOCELL_GRID_SIZE));
+        return Math.min(GeocellManager.MAX_GEOCELL_RESOLUTION, resolution);
+    }
+
+    /**
+     * Returns the cell and its adjacent cells. At resolution 0, the single world cell.
+     */
+    private static Set<String> neighbourhood(String cell) {
+        Set<String> cells = new LinkedHashSet<String>();
+        cells.add(cell);
+        if(cell.length() > 0) {
+            for(String adjacent : GeocellUtils.allAdjacents(cell)) {
+                if(adjacent != null) {
+                    cells.add(adjacent);
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static <T> List<Located<T>> locate(Iterable<T> entities) {
+        List<Located<T>> located = new ArrayList<Located<T>>();
+        for(T entity : entities) {
+            located.add(new Located<T>(entity, GeocellUtils.getLocation(entity)));
+        }
+        return located;
+    }
+
+    private static double maxAbsLatitude(List<? extends Located<?>> entities) {
+        double max = 0;
+        for(Located<?> entity : entities) {
+            max = Math.max(max, Math.abs(entity.location.getLat()));
+        }
+        return max;
+    }
+
+    private static <T> Map<String, List<Located<T>>> partition(List<Located<T>> entities, int resolution) {
+        Map<String, List<Located<T>>> partitions = new HashMap<String, List<Located<T>>>();
+        for(Located<T> entity : entities) {
+            String cell = GeocellUtils.compute(entity.location, resolution);
+            List<Located<T>> partition = partitions.get(cell);
+            if(partition == null) {
+                partition = new ArrayList<Located<T>>();
+                partitions.put(cell, partition);
+            }
+            partition.add(entity);
+        }
+        return partitions;
+    }
+
+    private static final class Located<T> {
+
+        private final T entity;
+        private final Point location;
+
+        private Located(T entity, Point location) {
+            this.entity = entity;
+            this.location = location;
+        }
+
+    }
+
+    /**
+     * Joins a range of left partitions, splitting it in halves until it is small enough.
+     */
+    private static final class JoinTask<L, R> extends RecursiveTask<List<JoinMatch<L, R>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> leftCells;
+        private final int from;
+        private final int to;
+        private final Map<String, List<Located<L>>> leftPartitions;
+        private final Map<String, List<Located<R>>> rightPartitions;
+        private final double maxDistance;
+        private final boolean nearestOnly;
+
+        private JoinTask(List<String> leftCells, int from, int to, Map<String, List<Located<L>>> leftPartitions,
+                Map<String, List<Located<R>>> rightPartitions, double maxDistance, boolean nearestOnly) {
+            this.leftCells = leftCells;
+            this.from = from;
+            this.to = to;
+            this.leftPartitions = leftPartitions;
+            this.rightPartitions = rightPartitions;
+            this.maxDistance = maxDistance;
+            this.nearestOnly = nearestOnly;
+        }
+
+        @Override
+        protected List<JoinMatch<L, R>> compute() {
+            if(to - from <= SEQUENTIAL_THRESHOLD) {
+                List<JoinMatch<L, R>> matches = new ArrayList<JoinMatch<L, R>>();
+                for(int i = from; i < to; i++) {
+                    joinPartition(leftCells.get(i), matches);
+                }
+                return matches;
+            }
+            int middle = (from + to) >>> 1;
+            JoinTask<L, R> first = new JoinTask<L, R>(leftCells, from, middle, leftPartitions, rightPartitions, maxDistance, nearestOnly);
+            JoinTask<L, R> second = new JoinTask<L, R>(leftCells, middle, to, leftPartitions, rightPartitions, maxDistance, nearestOnly);
+            first.fork();
+            List<JoinMatch<L, R>> matches = second.compute();
+            matches.addAll(first.join());
+            return matches;
+        }
+
+        private void joinPartition(String cell, List<JoinMatch<L, R>> matches) {
+            List<List<Located<R>>> candidates = new ArrayList<List<Located<R>>>();
+            for(String neighbour : neighbourhood(cell)) {
+                List<Located<R>> partition = rightPartitions.get(neighbour);
+                if(partition != null) {
+                    candidates.add(partition);
+                }
+            }
+            if(candidates.isEmpty()) {
+                return;
+            }
+            for(Located<L> left : leftPartitions.get(cell)) {
+                Located<R> nearest = null;
+                double nearestDistance = Double.MAX_VALUE;
+                for(List<Located<R>> partition : candidates) {
+                    for(Located<R> right : partition) {
+                        double distance = GeocellUtils.distance(left.location, right.location);
+                        if(distance > maxDistance) {
+                            continue;
+                        }
+                        if(!nearestOnly) {
+                            matches.add(new JoinMatch<L, R>(left.entity, right.entity, distance));
+                        } else if(distance < nearestDistance) {
+                            nearest = right;
+                            nearestDistance = distance;
+                        }
+                    }
+                }
+                if(nearest != null) {
+                    matches.add(new JoinMatch<L, R>(left.entity, nearest.entity, nearestDistance));
+                }
+            }
+        }
+
+    }
+
+}
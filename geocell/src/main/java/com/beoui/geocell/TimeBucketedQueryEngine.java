@@ -0,0 +1,76 @@
+package com.beoui.geocell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.TimeGranularity;
+
+/**
+ * Restricts the queries of an engine to a time window: the geocells of each query are replaced by their composite keys
+ * (see {@link GeocellTimeBuckets}) for the buckets overlapping the window, with a granularity chosen per query.
+ *
+ * Any search can then be run on a window, e.g. the closest check-ins of the last hour:
+ * GeocellManager.proximitySearch(center, 10, 0, CheckIn.class, query, new TimeBucketedQueryEngine(engine, now - hour, now), 13).
+ *
+ * The wrapped engine must look up its geocells field by value, like the JPA and JDO engines: the in-memory engines
+ * (InMemoryGeocellIndex, OffHeapGeocellIndex) index locations rather than geocells lists and reject the keys.
+ *
+ * Buckets may extend beyond the window: filter the entities on their time in the base query for exact bounds,
+ * e.g. with GeocellFilter.range("time", from, to).
+ */
+public class TimeBucketedQueryEngine implements GeocellQueryEngine {
+
+    public static final int DEFAULT_MAX_KEYS = 300;
+
+    private final GeocellQueryEngine queryEngine;
+    private final long from;
+    private final long to;
+    private final List<TimeGranularity> granularities;
+    private final int maxKeys;
+
+    /**
+     * Window over the keys of all granularities, with at most DEFAULT_MAX_KEYS keys per query when possible.
+     *
+     * @param from start of the window, in milliseconds since the epoch
+     * @param to end of the window, inclusive
+     */
+    public TimeBucketedQueryEngine(GeocellQueryEngine queryEngine, long from, long to) {
+        this(queryEngine, from, to, Arrays.asList(TimeGranularity.values()), DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param granularities granularities of the keys stored in the entities
+     * @param maxKeys number of keys per query above which a coarser granularity is used
+     */
+    public TimeBucketedQueryEngine(GeocellQueryEngine queryEngine, long from, long to, List<TimeGranularity> granularities, int maxKeys) {
+        Validate.notNull(queryEngine, "Query engine must not be null");
+        Validate.isTrue(!(queryEngine instanceof InMemoryGeocellIndex) && !(queryEngine instanceof OffHeapGeocellIndex),
+                "In-memory engines do not index composite keys");
+        Validate.isTrue(from <= to, "Window must not end before it starts");
+        Validate.notEmpty(granularities, "Granularities must not be empty");
+        Validate.isTrue(maxKeys > 0, "Max keys must be > 0");
+        this.queryEngine = queryEngine;
+        this.from = from;
+        this.to = to;
+        this.granularities = new ArrayList<TimeGranularity>(granularities);
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * @return the granularity of the keys of a query on the given number of geocells
+     */
+    public TimeGranularity granularityFor(int cells) {
+        return GeocellTimeBuckets.granularityFor(from, to, cells, maxKeys, granularities);
+    }
+
+    @Override
+    public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+        TimeGranularity granularity = granularityFor(curGeocellsUnique.size());
+        return queryEngine.query(baseQuery, GeocellTimeBuckets.expand(curGeocellsUnique, from, to, granularity), entityClass);
+    }
+
+}
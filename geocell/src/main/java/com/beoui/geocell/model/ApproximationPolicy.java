@@ -0,0 +1,55 @@
+package com.beoui.geocell.model;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Limits of an approximate proximity search, trading exactness for latency.
+ *
+ * An exact search keeps expanding until no unsearched cell can hold a result closer than the current farthest one.
+ * An approximate search also stops after maxRounds queries, once maxCellsSearched cells have been searched,
+ * or as soon as closestPossibleNextResult * (1 + epsilon) >= currentFarthestResult.
+ *
+ */
+public class ApproximationPolicy {
+
+    /** No limit: the search is exact. */
+    public static final ApproximationPolicy EXACT = new ApproximationPolicy(0, 0, 0);
+
+    private final int maxRounds;
+    private final int maxCellsSearched;
+    private final double epsilon;
+
+    /**
+     * @param maxRounds maximum number of queries, 0 for no limit
+     * @param maxCellsSearched maximum number of searched cells, 0 for no limit. The last round may exceed it.
+     * @param epsilon results are allowed to be (1 + epsilon) times farther than the exact ones, must be >= 0
+     */
+    public ApproximationPolicy(int maxRounds, int maxCellsSearched, double epsilon) {
+        Validate.isTrue(maxRounds >= 0, "Max rounds must be >= 0 but was ", maxRounds);
+        Validate.isTrue(maxCellsSearched >= 0, "Max cells searched must be >= 0 but was ", maxCellsSearched);
+        Validate.isTrue(epsilon >= 0, "Epsilon must be >= 0 but was ", epsilon);
+        this.maxRounds = maxRounds;
+        this.maxCellsSearched = maxCellsSearched;
+        this.epsilon = epsilon;
+    }
+
+    public int getMaxRounds() {
+        return maxRounds;
+    }
+
+    public int getMaxCellsSearched() {
+        return maxCellsSearched;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * @return true if another round is allowed after the given number of rounds and searched cells
+     */
+    public boolean allowsRound(int rounds, int cellsSearched) {
+        return (maxRounds == 0 || rounds < maxRounds) && (maxCellsSearched == 0 || cellsSearched < maxCellsSearched);
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.beoui.geocell.model;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.GeocellUtils;
+
+/**
+ * Region of all points within a given great circle distance of a center point.
+ *
+ */
+public class Circle implements Region {
+
+    private final Point center;
+    private final double radius;
+
+    /**
+     * @param center center of the circle
+     * @param radius radius of the circle, in meters. Must be > 0.
+     */
+    public Circle(Point center, double radius) {
+        Validate.notNull(center, "Center must not be null");
+        Validate.isTrue(radius > 0, "Radius must be > 0 but was ", radius);
+        this.center = center;
+        this.radius = radius;
+    }
+
+    public Point getCenter() {
+        return center;
+    }
+
+    /**
+     * @return the radius in meters
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        double angularRadius = radius / GeocellUtils.RADIUS;
+        double latDelta = Math.toDegrees(angularRadius);
+        double north = center.getLat() + latDelta;
+        double south = center.getLat() - latDelta;
+        if(north >= GeocellUtils.MAX_LATITUDE || south <= GeocellUtils.MIN_LATITUDE) {
+            // A pole is inside the circle: every longitude is reached.
+            return new BoundingBox(Math.min(north, GeocellUtils.MAX_LATITUDE), GeocellUtils.MAX_LONGITUDE,
+                    Math.max(south, GeocellUtils.MIN_LATITUDE), GeocellUtils.MIN_LONGITUDE);
+        }
+        double sinLonDelta = Math.sin(angularRadius) / Math.cos(Math.toRadians(center.getLat()));
+        if(sinLonDelta >= 1) {
+            return new BoundingBox(north, GeocellUtils.MAX_LONGITUDE, south, GeocellUtils.MIN_LONGITUDE);
+        }
+        double lonDelta = Math.toDegrees(Math.asin(sinLonDelta));
+        double west = center.getLon() - lonDelta;
+        double east = center.getLon() + lonDelta;
+        // Wrap around the antimeridian, east < west is handled by bestBboxSearchCells.
+        if(west < GeocellUtils.MIN_LONGITUDE) {
+            west += 360;
+        }
+        if(east > GeocellUtils.MAX_LONGITUDE) {
+            east -= 360;
+        }
+        return new BoundingBox(north, east, south, west);
+    }
+
+    @Override
+    public boolean contains(Point point) {
+        return GeocellUtils.distance(center, point) <= radius;
+    }
+
+    /**
+     * The farthest point of a lat/lon rectangle from the center is always one of its corners.
+     */
+    @Override
+    public boolean containsBox(BoundingBox box) {
+        return GeocellUtils.distance(center, new Point(box.getNorth(), box.getEast())) <= radius
+            && GeocellUtils.distance(center, new Point(box.getNorth(), box.getWest())) <= radius
+            && GeocellUtils.distance(center, new Point(box.getSouth(), box.getEast())) <= radius
+            && GeocellUtils.distance(center, new Point(box.getSouth(), box.getWest())) <= radius;
+    }
+
+    @Override
+    public boolean intersectsBox(BoundingBox box) {
+        return minDistance(box) <= radius;
+    }
+
+    /**
+     * Returns the great circle distance from the center to the closest point of the box.
+     *
+     * Along a parallel, the closest point is the one with the smallest longitude difference.
+     * Along a meridian, the closest point is where the great circle through the center meets it at a right angle,
+     * clamped to the edge.
+     */
+    private double minDistance(BoundingBox box) {
+        double lat = center.getLat();
+        double lon = center.getLon();
+        boolean betweenWE = box.getWest() <= lon && lon <= box.getEast();
+        boolean betweenNS = box.getSouth() <= lat && lat <= box.getNorth();
+        if(betweenWE && betweenNS) {
+            return 0;
+        }
+        double min = Math.min(parallelDistance(box.getNorth(), box), parallelDistance(box.getSouth(), box));
+        min = Math.min(min, meridianDistance(box.getWest(), box));
+        min = Math.min(min, meridianDistance(box.getEast(), box));
+        return min;
+    }
+
+    private double parallelDistance(double edgeLat, BoundingBox box) {
+        double lon = center.getLon();
+        if(box.getWest() <= lon && lon <= box.getEast()) {
+            return GeocellUtils.distance(center, new Point(edgeLat, lon));
+        }
+        return Math.min(GeocellUtils.distance(center, new Point(edgeLat, box.getWest())),
+                GeocellUtils.distance(center, new Point(edgeLat, box.getEast())));
+    }
+
+    private double meridianDistance(double edgeLon, BoundingBox box) {
+        double cosLonDelta = Math.cos(Math.toRadians(edgeLon - center.getLon()));
+        double closestLat;
+        if(cosLonDelta > 0) {
+            closestLat = Math.toDegrees(Math.atan(Math.tan(Math.toRadians(center.getLat())) / cosLonDelta));
+        } else {
+            // The meridian is on the far side, the closest point is towards the pole of the center's hemisphere.
+            closestLat = center.getLat() >= 0 ? GeocellUtils.MAX_LATITUDE : GeocellUtils.MIN_LATITUDE;
+        }
+        closestLat = Math.max(box.getSouth(), Math.min(box.getNorth(), closestLat));
+        return GeocellUtils.distance(center, new Point(closestLat, edgeLon));
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.beoui.geocell.model;
+
+/**
+ * Number of entities located in a geocell, along with their centroid. Used to display clusters on a map.
+ *
+ */
+public class GeocellAggregate {
+
+    private final String cell;
+    private final long count;
+    private final Point centroid;
+
+    public GeocellAggregate(String cell, long count, Point centroid) {
+        this.cell = cell;
+        this.count = count;
+        this.centroid = centroid;
+    }
+
+    public String getCell() {
+        return cell;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean latitude and longitude of the entities in the cell
+     */
+    public Point getCentroid() {
+        return centroid;
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.beoui.geocell.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.beoui.geocell.GeocellUtils;
+
+/**
+ * Set of non-overlapping geocells covering a region, split in two parts:
+ * interior cells are entirely inside the region, boundary cells are only partially inside.
+ *
+ * Points found in an interior cell are known to be in the region without any further test.
+ *
+ */
+public class GeocellCovering {
+
+    private final List<String> interiorCells;
+    private final List<String> boundaryCells;
+
+    private final Set<String> interiorCellSet;
+    // Distinct resolutions of interior cells, used to look up a point's ancestors.
+    private final int[] interiorResolutions;
+
+    public GeocellCovering(List<String> interiorCells, List<String> boundaryCells) {
+        this.interiorCells = Collections.unmodifiableList(new ArrayList<String>(interiorCells));
+        this.boundaryCells = Collections.unmodifiableList(new ArrayList<String>(boundaryCells));
+        this.interiorCellSet = new HashSet<String>(interiorCells);
+        Set<Integer> resolutions = new TreeSet<Integer>();
+        for(String cell : interiorCells) {
+            resolutions.add(cell.length());
+        }
+        interiorResolutions = new int[resolutions.size()];
+        int i = 0;
+        for(Integer resolution : resolutions) {
+            interiorResolutions[i++] = resolution;
+        }
+    }
+
+    public List<String> getInteriorCells() {
+        return interiorCells;
+    }
+
+    public List<String> getBoundaryCells() {
+        return boundaryCells;
+    }
+
+    /**
+     * @return interior and boundary cells, i.e. the cells to query
+     */
+    public List<String> getCells() {
+        List<String> cells = new ArrayList<String>(interiorCells.size() + boundaryCells.size());
+        cells.addAll(interiorCells);
+        cells.addAll(boundaryCells);
+        return cells;
+    }
+
+    /**
+     * @param point
+     * @return true if the point is in one of the interior cells
+     */
+    public boolean isInterior(Point point) {
+        if(interiorResolutions.length == 0) {
+            return false;
+        }
+        String cell = GeocellUtils.compute(point, interiorResolutions[interiorResolutions.length - 1]);
+        for(int resolution : interiorResolutions) {
+            if(interiorCellSet.contains(cell.substring(0, resolution))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
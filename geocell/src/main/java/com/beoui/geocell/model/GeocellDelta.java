@@ -0,0 +1,84 @@
+package com.beoui.geocell.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Difference between the geocells of two locations of a moving entity.
+ *
+ * Geocells of a location are all the prefixes of its max resolution cell, so moving only changes
+ * the prefixes longer than the common prefix of the old and new cells. For most position updates
+ * only the last one or two resolutions change.
+ *
+ */
+public class GeocellDelta {
+
+    private final List<String> removedCells;
+    private final List<String> addedCells;
+
+    /**
+     * @param oldCell max resolution geocell of the old location
+     * @param newCell max resolution geocell of the new location
+     */
+    public GeocellDelta(String oldCell, String newCell) {
+        int commonLength = 0;
+        int maxLength = Math.min(oldCell.length(), newCell.length());
+        while(commonLength < maxLength && oldCell.charAt(commonLength) == newCell.charAt(commonLength)) {
+            commonLength++;
+        }
+        List<String> removed = new ArrayList<String>();
+        for(int i = commonLength + 1; i <= oldCell.length(); i++) {
+            removed.add(oldCell.substring(0, i));
+        }
+        List<String> added = new ArrayList<String>();
+        for(int i = commonLength + 1; i <= newCell.length(); i++) {
+            added.add(newCell.substring(0, i));
+        }
+        this.removedCells = Collections.unmodifiableList(removed);
+        this.addedCells = Collections.unmodifiableList(added);
+    }
+
+    /**
+     * @return the cells of the old location that are not cells of the new location, lowest resolution first
+     */
+    public List<String> getRemovedCells() {
+        return removedCells;
+    }
+
+    /**
+     * @return the cells of the new location that were not cells of the old location, lowest resolution first
+     */
+    public List<String> getAddedCells() {
+        return addedCells;
+    }
+
+    /**
+     * @return true if both locations have the same geocells
+     */
+    public boolean isEmpty() {
+        return removedCells.isEmpty() && addedCells.isEmpty();
+    }
+
+    /**
+     * Updates the given geocells list in place, so that persistence layers tracking
+     * changes only write the modified elements.
+     *
+     * @param geocells geocells of the old location, as generated by GeocellManager.generateGeoCell
+     */
+    public void applyTo(List<String> geocells) {
+        geocells.removeAll(removedCells);
+        geocells.addAll(addedCells);
+    }
+
+    /**
+     * Compact lists are read-only: returns the list of the new location instead.
+     *
+     * @param geocells geocells of the old location
+     * @return the geocells of the new location
+     */
+    public GeocellList applyTo(GeocellList geocells) {
+        return addedCells.isEmpty() ? geocells : GeocellList.of(addedCells.get(addedCells.size() - 1));
+    }
+
+}
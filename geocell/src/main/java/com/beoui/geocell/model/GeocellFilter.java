@@ -0,0 +1,247 @@
+package com.beoui.geocell.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Typed filter on the fields of an entity, combined with the geocells condition by the query engines.
+ *
+ * Unlike a base query string, a filter is translated by each engine: to JPQL or JDOQL with parameters,
+ * whose text only depends on the filter structure so that the datastore can reuse its plans,
+ * or to a predicate evaluated on the entities by the in-memory engines.
+ *
+ * Ex: GeocellFilter.and(GeocellFilter.eq("category", "restaurant"), GeocellFilter.range("rating", 3, 5))
+ *
+ * A field whose value is null never matches a comparison, like in SQL.
+ *
+ */
+public abstract class GeocellFilter {
+
+    public enum Operator {
+        EQ("=", "=="),
+        NE("<>", "!="),
+        LT("<", "<"),
+        LE("<=", "<="),
+        GT(">", ">"),
+        GE(">=", ">=");
+
+        private final String jpql;
+        private final String jdoql;
+
+        private Operator(String jpql, String jdoql) {
+            this.jpql = jpql;
+            this.jdoql = jdoql;
+        }
+
+        public String getJpql() {
+            return jpql;
+        }
+
+        public String getJdoql() {
+            return jdoql;
+        }
+
+    }
+
+    /**
+     * Translation or evaluation of a filter, by kind of filter.
+     *
+     * @param <R> type of the result
+     */
+    public interface Visitor<R> {
+
+        R visit(Comparison comparison);
+
+        R visit(In in);
+
+        R visit(Range range);
+
+        R visit(And and);
+
+    }
+
+    public static GeocellFilter eq(String field, Object value) {
+        return new Comparison(field, Operator.EQ, value);
+    }
+
+    public static GeocellFilter ne(String field, Object value) {
+        return new Comparison(field, Operator.NE, value);
+    }
+
+    public static GeocellFilter lt(String field, Object value) {
+        return new Comparison(field, Operator.LT, value);
+    }
+
+    public static GeocellFilter le(String field, Object value) {
+        return new Comparison(field, Operator.LE, value);
+    }
+
+    public static GeocellFilter gt(String field, Object value) {
+        return new Comparison(field, Operator.GT, value);
+    }
+
+    public static GeocellFilter ge(String field, Object value) {
+        return new Comparison(field, Operator.GE, value);
+    }
+
+    public static GeocellFilter in(String field, Collection<?> values) {
+        return new In(field, values);
+    }
+
+    /**
+     * @param lower inclusive lower bound, null for no lower bound
+     * @param upper inclusive upper bound, null for no upper bound
+     */
+    public static GeocellFilter range(String field, Object lower, Object upper) {
+        return new Range(field, lower, upper);
+    }
+
+    public static GeocellFilter and(GeocellFilter... filters) {
+        return new And(Arrays.asList(filters));
+    }
+
+    public static GeocellFilter and(List<GeocellFilter> filters) {
+        return new And(filters);
+    }
+
+    public abstract <R> R accept(Visitor<R> visitor);
+
+    /**
+     * field operator value
+     */
+    public static final class Comparison extends GeocellFilter {
+
+        private final String field;
+        private final Operator operator;
+        private final Object value;
+
+        private Comparison(String field, Operator operator, Object value) {
+            Validate.notEmpty(field, "Field must not be empty");
+            Validate.notNull(value, "Value must not be null");
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+
+    }
+
+    /**
+     * field in (values)
+     */
+    public static final class In extends GeocellFilter {
+
+        private final String field;
+        private final List<Object> values;
+
+        private In(String field, Collection<?> values) {
+            Validate.notEmpty(field, "Field must not be empty");
+            Validate.notEmpty(values, "Values must not be empty");
+            Validate.noNullElements(values, "Values must not be null");
+            this.field = field;
+            this.values = Collections.unmodifiableList(new ArrayList<Object>(values));
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+
+    }
+
+    /**
+     * lower <= field <= upper
+     */
+    public static final class Range extends GeocellFilter {
+
+        private final String field;
+        private final Object lower;
+        private final Object upper;
+
+        private Range(String field, Object lower, Object upper) {
+            Validate.notEmpty(field, "Field must not be empty");
+            Validate.isTrue(lower != null || upper != null, "Range must have at least one bound");
+            this.field = field;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * @return the inclusive lower bound, or null
+         */
+        public Object getLower() {
+            return lower;
+        }
+
+        /**
+         * @return the inclusive upper bound, or null
+         */
+        public Object getUpper() {
+            return upper;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+
+    }
+
+    /**
+     * Conjunction of filters.
+     */
+    public static final class And extends GeocellFilter {
+
+        private final List<GeocellFilter> filters;
+
+        private And(List<GeocellFilter> filters) {
+            Validate.notEmpty(filters, "Filters must not be empty");
+            Validate.noNullElements(filters, "Filters must not be null");
+            this.filters = Collections.unmodifiableList(new ArrayList<GeocellFilter>(filters));
+        }
+
+        public List<GeocellFilter> getFilters() {
+            return filters;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+
+    }
+
+}
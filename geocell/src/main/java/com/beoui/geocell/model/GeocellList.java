@@ -0,0 +1,164 @@
+package com.beoui.geocell.model;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.commons.lang.Validate;
+
+import com.beoui.geocell.GeocellManager;
+import com.beoui.geocell.GeocellUtils;
+
+/**
+ * Compact, read-only geocells list of a location: the prefixes of its max resolution geocell, lowest resolution first,
+ * as returned by GeocellManager.generateGeoCell.
+ *
+ * The list only holds the packed geocell and its resolution: prefixes are created on demand by get and iterators,
+ * and contains / indexOf compare packed values without creating strings. Use it instead of a materialized list of
+ * 13 strings for entities kept in memory, e.g. in caches or an InMemoryGeocellIndex.
+ * As the list is read-only, GeocellQueryEngine.applyDelta replaces it with the list of the new location.
+ *
+ * Persistence providers store the collection of the geocells field with their own collection types:
+ * convert with {@link #expand(List)} when storing (e.g. in a property getter, or a JPA @PrePersist / JDO jdoPreStore callback)
+ * and {@link #compact(List)} when loading (in the setter, or a @PostLoad / jdoPostLoad callback).
+ */
+public final class GeocellList extends AbstractList<String> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final char[] ALPHABET = "0123456789abcdef".toCharArray();
+
+    private final long packed;
+    private final int resolution;
+
+    private GeocellList(long packed, int resolution) {
+        this.packed = packed;
+        this.resolution = resolution;
+    }
+
+    /**
+     * @return the geocells of the point, for all resolutions
+     */
+    public static GeocellList of(Point point) {
+        return of(GeocellUtils.compute(point, GeocellManager.MAX_GEOCELL_RESOLUTION));
+    }
+
+    /**
+     * @param cell geocell of the location, of the highest resolution to list
+     * @return the prefixes of the geocell
+     */
+    public static GeocellList of(String cell) {
+        Validate.isTrue(isGeocell(cell) && cell.length() > 0, "Invalid geocell: " + cell);
+        return new GeocellList(GeocellUtils.pack(cell), cell.length());
+    }
+
+    /**
+     * @param packed output of GeocellUtils.pack
+     * @param resolution length of the packed geocell
+     */
+    public static GeocellList fromPacked(long packed, int resolution) {
+        Validate.isTrue(resolution > 0 && resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION, "Invalid resolution: " + resolution);
+        Validate.isTrue(packed >>> 4 * resolution == 0, "Packed geocell is longer than the resolution");
+        return new GeocellList(packed, resolution);
+    }
+
+    /**
+     * Converts a stored geocells list to a compact one.
+     *
+     * @return a GeocellList equal to the list if it holds the prefixes of a geocell, lowest resolution first,
+     * otherwise the list itself, e.g. when it also holds other keys
+     */
+    public static List<String> compact(List<String> geocells) {
+        if(geocells == null || geocells.isEmpty() || geocells instanceof GeocellList) {
+            return geocells;
+        }
+        String cell = geocells.get(geocells.size() - 1);
+        if(cell == null || cell.length() != geocells.size() || !isGeocell(cell)) {
+            return geocells;
+        }
+        GeocellList compact = of(cell);
+        return compact.equals(geocells) ? compact : geocells;
+    }
+
+    /**
+     * Converts a geocells list to a list to store.
+     *
+     * @return a modifiable copy of the list, of a collection type known to persistence providers
+     */
+    public static List<String> expand(List<String> geocells) {
+        return geocells == null ? null : new ArrayList<String>(geocells);
+    }
+
+    private static boolean isGeocell(String cell) {
+        if(cell.length() > GeocellManager.MAX_GEOCELL_RESOLUTION) {
+            return false;
+        }
+        for(int i = 0; i < cell.length(); i++) {
+            char c = cell.charAt(i);
+            if((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the geocell of the highest resolution, packed by GeocellUtils.pack
+     */
+    public long getPacked() {
+        return packed;
+    }
+
+    /**
+     * @return the geocell of the highest resolution
+     */
+    public String getCell() {
+        return get(resolution - 1);
+    }
+
+    @Override
+    public int size() {
+        return resolution;
+    }
+
+    /**
+     * @return the geocell of resolution index + 1
+     */
+    @Override
+    public String get(int index) {
+        if(index < 0 || index >= resolution) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + resolution);
+        }
+        char[] cell = new char[index + 1];
+        for(int i = 0; i <= index; i++) {
+            cell[i] = ALPHABET[(int) (packed >>> 4 * (resolution - 1 - i)) & 0xf];
+        }
+        return new String(cell);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if(!(o instanceof String)) {
+            return -1;
+        }
+        String cell = (String) o;
+        if(cell.length() == 0 || cell.length() > resolution || !isGeocell(cell)) {
+            return -1;
+        }
+        return GeocellUtils.pack(cell) == packed >>> 4 * (resolution - cell.length()) ? cell.length() - 1 : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        // Geocells of a list are all different.
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+}
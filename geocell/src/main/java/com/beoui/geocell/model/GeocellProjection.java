@@ -0,0 +1,36 @@
+package com.beoui.geocell.model;
+
+/**
+ * Key and location of an entity, all the proximity search needs to rank it.
+ *
+ * Built by the projection queries of a GeocellProjectionEngine, e.g. with the JPQL constructor expression
+ * "select new com.beoui.geocell.model.GeocellProjection(e.id, e.latitude, e.longitude) from ...".
+ *
+ */
+public class GeocellProjection {
+
+    private final Object key;
+    private final Point location;
+
+    public GeocellProjection(Object key, double latitude, double longitude) {
+        this.key = key;
+        this.location = new Point(latitude, longitude);
+    }
+
+    /**
+     * @return the primary key of the entity, as stored
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    public Point getLocation() {
+        return location;
+    }
+
+    @Override
+    public String toString() {
+        return "GeocellProjection [key=" + key + ", location=" + location + "]";
+    }
+
+}
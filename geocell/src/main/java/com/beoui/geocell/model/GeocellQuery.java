@@ -35,6 +35,12 @@ public class GeocellQuery {
      * List of parameters. Ex: Arrays.asList("Smith")
      */
     private List<Object> parameters;
+
+    /**
+     * (Optional)
+     * Typed filter, translated by the query engine. Ex: GeocellFilter.eq("lastName", "Smith")
+     */
+    private GeocellFilter filter;
     
     // Use this constructor to build empty base queries.
     public GeocellQuery() {
@@ -62,6 +68,14 @@ public class GeocellQuery {
         this.parameters = parameters;
     }
 
+    /**
+     * Query on the entities matching the filter, without query string.
+     */
+    public GeocellQuery(GeocellFilter filter) {
+        this();
+        this.filter = filter;
+    }
+
     public String getBaseQuery() {
         return baseQuery;
     }
@@ -74,4 +88,8 @@ public class GeocellQuery {
         return parameters;
     }
 
+    public GeocellFilter getFilter() {
+        return filter;
+    }
+
 }
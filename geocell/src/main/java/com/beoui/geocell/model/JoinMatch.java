@@ -0,0 +1,25 @@
+package com.beoui.geocell.model;
+
+/**
+ * Pair of entities matched by a spatial join, along with the distance between them.
+ *
+ * @param <L> type of the left entity
+ * @param <R> type of the right entity
+ */
+public class JoinMatch<L, R> extends Tuple<L, R> {
+
+    private final double distance;
+
+    public JoinMatch(L left, R right, double distance) {
+        super(left, right);
+        this.distance = distance;
+    }
+
+    /**
+     * @return the distance between the two entities, in meters
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+}
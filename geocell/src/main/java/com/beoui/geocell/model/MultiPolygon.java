@@ -0,0 +1,78 @@
+package com.beoui.geocell.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Union of several polygons, for instance a delivery zone made of disjoint areas.
+ *
+ */
+public class MultiPolygon implements Region {
+
+    private final List<Polygon> polygons;
+    private final BoundingBox boundingBox;
+
+    public MultiPolygon(List<Polygon> polygons) {
+        Validate.notEmpty(polygons, "MultiPolygon must have at least one polygon");
+        this.polygons = Collections.unmodifiableList(new ArrayList<Polygon>(polygons));
+
+        double north = Double.NEGATIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        double south = Double.POSITIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        for(Polygon polygon : this.polygons) {
+            BoundingBox box = polygon.getBoundingBox();
+            north = Math.max(north, box.getNorth());
+            east = Math.max(east, box.getEast());
+            south = Math.min(south, box.getSouth());
+            west = Math.min(west, box.getWest());
+        }
+        boundingBox = new BoundingBox(north, east, south, west);
+    }
+
+    public List<Polygon> getPolygons() {
+        return polygons;
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        return boundingBox;
+    }
+
+    @Override
+    public boolean contains(Point point) {
+        for(Polygon polygon : polygons) {
+            if(polygon.contains(point)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Conservative: a box straddling two touching polygons is not considered inside.
+     */
+    @Override
+    public boolean containsBox(BoundingBox box) {
+        for(Polygon polygon : polygons) {
+            if(polygon.containsBox(box)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean intersectsBox(BoundingBox box) {
+        for(Polygon polygon : polygons) {
+            if(polygon.intersectsBox(box)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.beoui.geocell.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Simple polygon region, optionally with holes.
+ *
+ * Edges are straight lines in the latitude/longitude plane, which is how delivery zones and most
+ * map-drawn shapes are defined. Rings are implicitly closed (the last vertex is joined to the first one)
+ * and must not cross the antimeridian.
+ *
+ */
+public class Polygon implements Region {
+
+    private final List<Point> shell;
+    private final List<List<Point>> holes;
+
+    // Rings as flat arrays, shell first then holes.
+    private final double[][] ringLats;
+    private final double[][] ringLons;
+
+    private final BoundingBox boundingBox;
+
+    public Polygon(List<Point> shell) {
+        this(shell, Collections.<List<Point>>emptyList());
+    }
+
+    /**
+     * @param shell vertices of the outer ring, at least 3
+     * @param holes vertices of the inner rings, at least 3 each
+     */
+    public Polygon(List<Point> shell, List<List<Point>> holes) {
+        Validate.notNull(shell, "Shell must not be null");
+        Validate.isTrue(shell.size() >= 3, "Polygon must have at least 3 vertices but had ", shell.size());
+        Validate.notNull(holes, "Holes must not be null");
+        this.shell = Collections.unmodifiableList(new ArrayList<Point>(shell));
+        List<List<Point>> holesCopy = new ArrayList<List<Point>>();
+        for(List<Point> hole : holes) {
+            Validate.isTrue(hole.size() >= 3, "Hole must have at least 3 vertices but had ", hole.size());
+            holesCopy.add(Collections.unmodifiableList(new ArrayList<Point>(hole)));
+        }
+        this.holes = Collections.unmodifiableList(holesCopy);
+
+        ringLats = new double[holes.size() + 1][];
+        ringLons = new double[holes.size() + 1][];
+        setRing(0, this.shell);
+        for(int i = 0; i < this.holes.size(); i++) {
+            setRing(i + 1, this.holes.get(i));
+        }
+
+        double north = Double.NEGATIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        double south = Double.POSITIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        for(Point vertex : this.shell) {
+            north = Math.max(north, vertex.getLat());
+            east = Math.max(east, vertex.getLon());
+            south = Math.min(south, vertex.getLat());
+            west = Math.min(west, vertex.getLon());
+        }
+        boundingBox = new BoundingBox(north, east, south, west);
+    }
+
+    private void setRing(int index, List<Point> ring) {
+        ringLats[index] = new double[ring.size()];
+        ringLons[index] = new double[ring.size()];
+        for(int i = 0; i < ring.size(); i++) {
+            ringLats[index][i] = ring.get(i).getLat();
+            ringLons[index][i] = ring.get(i).getLon();
+        }
+    }
+
+    public List<Point> getShell() {
+        return shell;
+    }
+
+    public List<List<Point>> getHoles() {
+        return holes;
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        return boundingBox;
+    }
+
+    @Override
+    public boolean contains(Point point) {
+        return contains(point.getLat(), point.getLon());
+    }
+
+    private boolean contains(double lat, double lon) {
+        if(lat > boundingBox.getNorth() || lat < boundingBox.getSouth() || lon > boundingBox.getEast() || lon < boundingBox.getWest()) {
+            return false;
+        }
+        if(!ringContains(0, lat, lon)) {
+            return false;
+        }
+        for(int i = 1; i < ringLats.length; i++) {
+            if(ringContains(i, lat, lon)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Even-odd rule: counts the edges crossed by a ray going east from the point.
+     */
+    private boolean ringContains(int ring, double lat, double lon) {
+        double[] lats = ringLats[ring];
+        double[] lons = ringLons[ring];
+        boolean inside = false;
+        for(int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+            if((lats[i] > lat) != (lats[j] > lat)
+                    && lon < (lons[j] - lons[i]) * (lat - lats[i]) / (lats[j] - lats[i]) + lons[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * A box is inside the polygon if its corners are inside and no edge of the polygon touches it.
+     */
+    @Override
+    public boolean containsBox(BoundingBox box) {
+        if(!contains(box.getNorth(), box.getEast()) || !contains(box.getNorth(), box.getWest())
+                || !contains(box.getSouth(), box.getEast()) || !contains(box.getSouth(), box.getWest())) {
+            return false;
+        }
+        return !anyEdgeIntersects(box);
+    }
+
+    @Override
+    public boolean intersectsBox(BoundingBox box) {
+        if(box.getSouth() > boundingBox.getNorth() || box.getNorth() < boundingBox.getSouth()
+                || box.getWest() > boundingBox.getEast() || box.getEast() < boundingBox.getWest()) {
+            return false;
+        }
+        // Box corner inside the polygon, or polygon entirely inside the box.
+        if(contains(box.getSouth(), box.getWest())) {
+            return true;
+        }
+        if(box.getSouth() <= ringLats[0][0] && ringLats[0][0] <= box.getNorth()
+                && box.getWest() <= ringLons[0][0] && ringLons[0][0] <= box.getEast()) {
+            return true;
+        }
+        return anyEdgeIntersects(box);
+    }
+
+    private boolean anyEdgeIntersects(BoundingBox box) {
+        for(int ring = 0; ring < ringLats.length; ring++) {
+            double[] lats = ringLats[ring];
+            double[] lons = ringLons[ring];
+            for(int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+                if(segmentIntersects(box, lats[j], lons[j], lats[i], lons[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Liang-Barsky clipping of the segment against the closed box.
+     */
+    static boolean segmentIntersects(BoundingBox box, double lat1, double lon1, double lat2, double lon2) {
+        double dLon = lon2 - lon1;
+        double dLat = lat2 - lat1;
+        double[] p = {-dLon, dLon, -dLat, dLat};
+        double[] q = {lon1 - box.getWest(), box.getEast() - lon1, lat1 - box.getSouth(), box.getNorth() - lat1};
+        double t0 = 0;
+        double t1 = 1;
+        for(int i = 0; i < 4; i++) {
+            if(p[i] == 0) {
+                if(q[i] < 0) {
+                    return false;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if(p[i] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if(t0 > t1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+}
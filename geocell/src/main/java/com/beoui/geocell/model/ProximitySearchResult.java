@@ -0,0 +1,47 @@
+package com.beoui.geocell.model;
+
+import java.util.List;
+
+/**
+ * Results of a proximity search, ordered by distance, with how they were obtained.
+ *
+ * @param <T> type of the entities
+ */
+public class ProximitySearchResult<T> {
+
+    private final List<T> results;
+    private final boolean exact;
+    private final int rounds;
+    private final int cellsSearched;
+
+    public ProximitySearchResult(List<T> results, boolean exact, int rounds, int cellsSearched) {
+        this.results = results;
+        this.exact = exact;
+        this.rounds = rounds;
+        this.cellsSearched = cellsSearched;
+    }
+
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * @return true if the results are guaranteed to be the closest ones, false if the search stopped early
+     * because of an approximation policy or a deadline.
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return number of queries run
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    public int getCellsSearched() {
+        return cellsSearched;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.beoui.geocell.model;
+
+/**
+ * A closed area of the [-90,90] x [-180,180] latitude/longitude space that can be searched
+ * with GeocellManager.regionSearch.
+ *
+ * The geocell covering of a region is computed from its bounding box, then refined by asking the region
+ * how it relates to each candidate cell rectangle. Box tests are allowed to be conservative:
+ * containsBox may answer false for a box that is actually inside (the cell is then treated as a boundary cell),
+ * but intersectsBox must never answer false for a box that touches the region.
+ *
+ * @see Circle
+ * @see Polygon
+ * @see MultiPolygon
+ */
+public interface Region {
+
+    /**
+     * @return the bounding box of the region. East may be lower than west if the region crosses the antimeridian.
+     */
+    BoundingBox getBoundingBox();
+
+    /**
+     * @param point
+     * @return true if the point is inside the region (boundary included)
+     */
+    boolean contains(Point point);
+
+    /**
+     * @param box a box not crossing the antimeridian, typically a geocell rectangle
+     * @return true if every point of the box is inside the region
+     */
+    boolean containsBox(BoundingBox box);
+
+    /**
+     * @param box a box not crossing the antimeridian, typically a geocell rectangle
+     * @return true if the box and the region may have a point in common
+     */
+    boolean intersectsBox(BoundingBox box);
+
+}
@@ -0,0 +1,42 @@
+package com.beoui.geocell.model;
+
+/**
+ * Length of the time buckets of composite geocell + time bucket keys. Buckets are aligned on the epoch, in UTC.
+ *
+ * @see com.beoui.geocell.GeocellTimeBuckets
+ */
+public enum TimeGranularity {
+
+    MINUTE(60 * 1000L, 'm'),
+    HOUR(60 * 60 * 1000L, 'h'),
+    DAY(24 * 60 * 60 * 1000L, 'd'),
+    WEEK(7 * 24 * 60 * 60 * 1000L, 'w');
+
+    private final long millis;
+    private final char code;
+
+    private TimeGranularity(long millis, char code) {
+        this.millis = millis;
+        this.code = code;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * @return the character identifying the granularity in keys
+     */
+    public char getCode() {
+        return code;
+    }
+
+    /**
+     * @param time milliseconds since the epoch
+     * @return the number of the bucket containing the time
+     */
+    public long bucket(long time) {
+        return Math.floorDiv(time, millis);
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.beoui.geocell;
+
+import java.util.Random;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+
+/**
+ * Compares GeocellUtils.computeBox with the previous implementation, which walked the cell string
+ * and allocated a BoundingBox per character. Not a unit test: run its main method.
+ */
+public class ComputeBoxBenchmark {
+
+    private static final int CELLS = 10000;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        String[] cells = new String[CELLS];
+        for(int i = 0; i < CELLS; i++) {
+            Point point = new Point(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+            cells[i] = GeocellUtils.compute(point, 1 + random.nextInt(GeocellManager.MAX_GEOCELL_RESOLUTION));
+        }
+        double[] box = new double[4];
+        for(int warmup = 0; warmup < 3; warmup++) {
+            System.out.println("previous:              " + run(cells, 0, box) + " ns/cell");
+            System.out.println("computeBox:            " + run(cells, 1, box) + " ns/cell");
+            System.out.println("computeBox(primitive): " + run(cells, 2, box) + " ns/cell");
+        }
+    }
+
+    private static double run(String[] cells, int implementation, double[] box) {
+        double sink = 0;
+        long start = System.nanoTime();
+        for(int round = 0; round < ROUNDS; round++) {
+            for(String cell : cells) {
+                if(implementation == 0) {
+                    sink += previousComputeBox(cell).getNorth();
+                } else if(implementation == 1) {
+                    sink += GeocellUtils.computeBox(cell).getNorth();
+                } else {
+                    GeocellUtils.computeBox(cell, box);
+                    sink += box[0];
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if(sink == 42) {
+            System.out.println();
+        }
+        return (double) elapsed / ROUNDS / cells.length;
+    }
+
+    private static BoundingBox previousComputeBox(String cell_) {
+        BoundingBox bbox = new BoundingBox(90.0, 180.0, -90.0, -180.0);
+        StringBuilder cell = new StringBuilder(cell_);
+        while(cell.length() > 0) {
+            double subcellLonSpan = (bbox.getEast() - bbox.getWest()) / GeocellUtils.GEOCELL_GRID_SIZE;
+            double subcellLatSpan = (bbox.getNorth() - bbox.getSouth()) / GeocellUtils.GEOCELL_GRID_SIZE;
+
+            int l[] = GeocellUtils.subdivXY(cell.charAt(0));
+            int x = l[0];
+            int y = l[1];
+
+            bbox = new BoundingBox(bbox.getSouth() + subcellLatSpan * (y + 1),
+                    bbox.getWest()  + subcellLonSpan * (x + 1),
+                    bbox.getSouth() + subcellLatSpan * y,
+                    bbox.getWest()  + subcellLonSpan * x);
+
+            cell.deleteCharAt(0);
+        }
+        return bbox;
+    }
+
+}
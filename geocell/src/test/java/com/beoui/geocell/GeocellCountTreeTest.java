@@ -0,0 +1,43 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.Point;
+
+public class GeocellCountTreeTest {
+
+	@Test
+	public void testMovesKeepTreeBounded() {
+		GeocellCountTree tree = new GeocellCountTree();
+		Random random = new Random(17);
+		List<Point> locations = new ArrayList<Point>();
+		for(int i = 0; i < 20; i++) {
+			Point location = new Point(48 + random.nextDouble(), 2 + random.nextDouble());
+			tree.add(location);
+			locations.add(location);
+		}
+		for(int step = 0; step < 5000; step++) {
+			int i = random.nextInt(locations.size());
+			Point location = new Point(48 + random.nextDouble(), 2 + random.nextDouble());
+			tree.move(locations.get(i), location);
+			locations.set(i, location);
+			assertTrue(tree.size() <= locations.size() * GeocellManager.MAX_GEOCELL_RESOLUTION);
+		}
+		assertEquals(locations.size(), tree.count(GeocellUtils.compute(new Point(48.5, 2.5), 1)));
+
+		for(Point location : locations) {
+			tree.remove(location);
+		}
+		assertEquals(0, tree.size());
+		assertNull(tree.get(GeocellUtils.compute(new Point(48.5, 2.5), 1)));
+	}
+
+}
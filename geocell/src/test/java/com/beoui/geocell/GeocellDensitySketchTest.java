@@ -0,0 +1,79 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.Point;
+
+public class GeocellDensitySketchTest {
+
+	@Test
+	public void testEstimatesAreUpperBounds() {
+		GeocellDensitySketch sketch = new GeocellDensitySketch(1024, 4);
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		Random random = new Random(13);
+		for(int i = 0; i < 5000; i++) {
+			Point point = new Point(40 + random.nextDouble() * 10, random.nextDouble() * 10);
+			for(String cell : GeocellManager.generateGeoCell(point, sketch)) {
+				Integer count = counts.get(cell);
+				counts.put(cell, count == null ? 1 : count + 1);
+			}
+		}
+
+		assertEquals(5000, sketch.getTotal());
+		long error = 0;
+		for(Map.Entry<String, Integer> count : counts.entrySet()) {
+			long estimate = sketch.estimate(count.getKey());
+			assertTrue(estimate >= count.getValue());
+			if(sketch.isExact(count.getKey().length())) {
+				assertEquals((long) count.getValue(), estimate);
+			}
+			error += estimate - count.getValue();
+		}
+		// Average error well below e * total / width.
+		assertTrue(error / counts.size() < Math.E * 5000 / 1024);
+	}
+
+	@Test
+	public void testMergeAndSerialize() {
+		GeocellDensitySketch first = new GeocellDensitySketch(256, 2);
+		GeocellDensitySketch second = new GeocellDensitySketch(256, 2);
+		Point paris = new Point(48.85, 2.35);
+		first.add(paris);
+		second.add(paris);
+		second.add(new Point(50.85, 4.35));
+
+		first.merge(GeocellDensitySketch.fromBytes(second.toBytes()));
+
+		assertEquals(3, first.getTotal());
+		assertEquals(2, first.estimate(GeocellUtils.compute(paris, 13)));
+		assertEquals(3, first.estimate(GeocellUtils.compute(paris, 1)));
+	}
+
+	@Test
+	public void testApplyDeltaAndResolution() {
+		GeocellDensitySketch sketch = new GeocellDensitySketch();
+		Point paris = new Point(48.85, 2.35);
+		Point versailles = new Point(48.80, 2.13);
+		List<String> geocells = GeocellManager.generateGeoCell(paris, sketch);
+		sketch.add(GeocellManager.generateGeoCell(new Point(48.86, 2.34)));
+
+		assertEquals(2, sketch.estimate(GeocellUtils.compute(paris, 5)));
+		int resolution = sketch.resolutionFor(paris, 2);
+		assertEquals(2, sketch.estimate(geocells.get(resolution - 1)));
+		assertTrue(resolution == 13 || sketch.estimate(geocells.get(resolution)) < 2);
+
+		sketch.apply(GeocellManager.diff(paris, versailles));
+		assertEquals(0, sketch.estimate(GeocellUtils.compute(paris, 13)));
+		assertEquals(1, sketch.estimate(GeocellUtils.compute(versailles, 13)));
+		assertEquals(2, sketch.getTotal());
+	}
+
+}
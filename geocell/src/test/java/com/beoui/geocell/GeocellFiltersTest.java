@@ -0,0 +1,56 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.GeocellFilter;
+import com.beoui.utils.ObjectToSave;
+
+public class GeocellFiltersTest {
+
+	private ObjectToSave newObject(long id, double lat) {
+		ObjectToSave object = new ObjectToSave();
+		object.setId(id);
+		object.setLatitude(lat);
+		return object;
+	}
+
+	@Test
+	public void testNumbersAreComparedByValue() {
+		ObjectToSave object = newObject(7, 48.5);
+
+		assertTrue(GeocellFilters.compile(GeocellFilter.eq("id", 7), ObjectToSave.class).test(object));
+		assertTrue(GeocellFilters.compile(GeocellFilter.in("id", Arrays.asList(1, 7.0)), ObjectToSave.class).test(object));
+		assertTrue(GeocellFilters.compile(GeocellFilter.range("latitude", 48, null), ObjectToSave.class).test(object));
+		assertFalse(GeocellFilters.compile(GeocellFilter.lt("latitude", 48.5f), ObjectToSave.class).test(object));
+	}
+
+	@Test
+	public void testConjunction() {
+		Predicate<Object> predicate = GeocellFilters.compile(GeocellFilter.and(GeocellFilter.range("id", 5L, 10L),
+				GeocellFilter.gt("latitude", 0.0)), ObjectToSave.class);
+
+		assertTrue(predicate.test(newObject(5, 1)));
+		assertTrue(predicate.test(newObject(10, 1)));
+		assertFalse(predicate.test(newObject(11, 1)));
+		assertFalse(predicate.test(newObject(7, -1)));
+	}
+
+	@Test
+	public void testNullFieldNeverMatches() {
+		ObjectToSave object = newObject(1, 0);
+
+		assertFalse(GeocellFilters.compile(GeocellFilter.ne("geocells", "c"), ObjectToSave.class).test(object));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownField() {
+		GeocellFilters.compile(GeocellFilter.eq("name", "x"), ObjectToSave.class);
+	}
+
+}
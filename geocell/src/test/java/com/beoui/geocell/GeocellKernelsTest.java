@@ -0,0 +1,87 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+
+public class GeocellKernelsTest {
+
+	private static final int COUNT = 2000;
+
+	@Test
+	public void testContainsPointsMatchesContainsPoint() {
+		Random random = new Random(7);
+		for(String cell : new String[] {"8e6", "8e6f72", "f", "0", "fff"}) {
+			BoundingBox box = GeocellUtils.computeBox(cell);
+			double[] lats = new double[COUNT];
+			double[] lons = new double[COUNT];
+			for(int i = 0; i < COUNT; i++) {
+				// Half of the points around the cell, half anywhere.
+				lats[i] = i % 2 == 0 ? around(random, box.getSouth(), box.getNorth(), -90, 90) : random.nextDouble() * 180 - 90;
+				lons[i] = i % 2 == 0 ? around(random, box.getWest(), box.getEast(), -180, 180) : random.nextDouble() * 360 - 180;
+			}
+
+			boolean[] mask = GeocellKernels.containsPoints(cell, lats, lons);
+
+			int expectedCount = 0;
+			for(int i = 0; i < COUNT; i++) {
+				boolean expected = GeocellUtils.containsPoint(cell, new Point(lats[i], lons[i]));
+				assertEquals(cell + " " + lats[i] + "," + lons[i], expected, mask[i]);
+				expectedCount += expected ? 1 : 0;
+			}
+			assertEquals(expectedCount, GeocellKernels.containsPoints(cell, lats, lons, new boolean[COUNT]));
+		}
+	}
+
+	@Test
+	public void testContainsPointsOnPoleAndAntimeridian() {
+		double[] lats = {90, 90, 89.999};
+		double[] lons = {180, 0, 180};
+
+		boolean[] mask = GeocellKernels.containsPoints("f", lats, lons);
+
+		assertEquals(true, mask[0]);
+		assertEquals(false, mask[1]);
+		assertEquals(true, mask[2]);
+	}
+
+	@Test
+	public void testPointDistancesMatchesPointDistance() {
+		Random random = new Random(11);
+		for(String cell : new String[] {"8e6", "8e6f72", "f", "5"}) {
+			BoundingBox box = GeocellUtils.computeBox(cell);
+			double[] lats = new double[COUNT];
+			double[] lons = new double[COUNT];
+			for(int i = 0; i < COUNT; i++) {
+				lats[i] = around(random, box.getSouth(), box.getNorth(), -90, 90);
+				lons[i] = around(random, box.getWest(), box.getEast(), -180, 180);
+			}
+
+			double[] distances = GeocellKernels.pointDistances(cell, lats, lons);
+
+			for(int i = 0; i < COUNT; i++) {
+				assertEquals(GeocellUtils.pointDistance(cell, new Point(lats[i], lons[i])), distances[i], 1.0);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentLengths() {
+		GeocellKernels.pointDistances("8e6", new double[2], new double[3]);
+	}
+
+	/**
+	 * Random value in [min - span, max + span], within bounds.
+	 */
+	private static double around(Random random, double min, double max, double lowerBound, double upperBound) {
+		double span = max - min;
+		double value = min - span + random.nextDouble() * 3 * span;
+		return Math.max(lowerBound, Math.min(upperBound, value));
+	}
+
+}
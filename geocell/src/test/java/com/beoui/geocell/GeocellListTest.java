@@ -0,0 +1,94 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.GeocellList;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+import com.beoui.utils.ObjectToSave;
+
+public class GeocellListTest {
+
+	private Point paris = new Point(48.85, 2.35);
+
+	@Test
+	public void testSameAsGenerateGeoCell() {
+		List<String> expected = GeocellManager.generateGeoCell(paris);
+		GeocellList geocells = GeocellList.of(paris);
+		assertEquals(expected, geocells);
+		assertEquals(geocells, expected);
+		assertEquals(expected.hashCode(), geocells.hashCode());
+		assertEquals(expected.get(12), geocells.getCell());
+		assertEquals(GeocellUtils.pack(expected.get(12)), geocells.getPacked());
+		assertEquals(geocells, GeocellList.fromPacked(geocells.getPacked(), 13));
+	}
+
+	@Test
+	public void testContains() {
+		GeocellList geocells = GeocellList.of("8e6f2");
+		assertEquals(2, geocells.indexOf("8e6"));
+		assertTrue(geocells.contains("8e6f2"));
+		assertFalse(geocells.contains("8e6f3"));
+		assertFalse(geocells.contains("8e6f23"));
+		assertFalse(geocells.contains(""));
+		assertFalse(geocells.contains("8E"));
+		assertFalse(geocells.contains(42));
+	}
+
+	@Test
+	public void testConverters() throws Exception {
+		List<String> stored = GeocellList.expand(GeocellList.of(paris));
+		assertEquals(ArrayList.class, stored.getClass());
+		assertTrue(GeocellList.compact(stored) instanceof GeocellList);
+		assertEquals(stored, GeocellList.compact(stored));
+
+		List<String> other = Arrays.asList("8", "8e", "8e6f2:h42");
+		assertSame(other, GeocellList.compact(other));
+		List<String> unordered = Arrays.asList("8e", "8");
+		assertSame(unordered, GeocellList.compact(unordered));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(GeocellList.of(paris));
+		out.close();
+		Object read = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertEquals(GeocellList.of(paris), read);
+	}
+
+	@Test
+	public void testApplyDeltaReplacesList() {
+		Point newLocation = new Point(48.86, 2.36);
+		ObjectToSave entity = new ObjectToSave();
+		entity.setGeocells(GeocellList.of(paris));
+		GeocellQueryEngine queryEngine = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				return new ArrayList<T>();
+			}
+		};
+
+		queryEngine.applyDelta(entity, GeocellManager.diff(paris, newLocation));
+
+		assertTrue(entity.getGeocells() instanceof GeocellList);
+		assertEquals(GeocellManager.generateGeoCell(newLocation), entity.getGeocells());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly() {
+		GeocellList.of(paris).add("0");
+	}
+
+}
@@ -3,22 +3,29 @@ package com.beoui.geocell;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Random;
 
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
 import javax.persistence.EntityManager;
+import javax.persistence.Id;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -27,9 +34,18 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Circle;
 import com.beoui.geocell.model.CostFunction;
+import com.beoui.geocell.model.DefaultCostFunction;
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellCovering;
+import com.beoui.geocell.model.GeocellDelta;
+import com.beoui.geocell.model.GeocellFilter;
+import com.beoui.geocell.model.GeocellProjection;
 import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.LocationCapable;
 import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.Polygon;
 import com.beoui.utils.JPAEntity;
 import com.beoui.utils.ObjectToSave;
 
@@ -188,6 +204,98 @@ public class GeocellManagerTest {
 		verify(jpaQuery).setParameter(1, "testKeyString");
 	}
 
+	@Test
+	public void testProximityFetchWithJPAFilter() {
+		GeocellQuery baseQuery = new GeocellQuery(GeocellFilter.and(GeocellFilter.eq("id", "testKeyString"),
+				GeocellFilter.range("latitude", 1.0, 2.0), GeocellFilter.in("longitude", Arrays.asList(3.0, 4.0))));
+
+		when(entityManager.createQuery(anyString())).thenReturn(jpaQuery);
+		when(jpaQuery.getResultList()).thenReturn(new ArrayList<ObjectToSave>());
+
+		List<JPAEntity> results = GeocellManager.proximitySearch(center, 10, 10.0, JPAEntity.class, baseQuery, entityManager, 1);
+
+		assertNotNull(results);
+		verify(entityManager).createQuery("select e from JPAEntity e where (e.id = ?1) and (e.latitude between ?2 and ?3) and (e.longitude in (?4,?5))"
+				+ " and e.geoCellsData in (?6)");
+		verify(jpaQuery).setParameter(1, "testKeyString");
+		verify(jpaQuery).setParameter(3, 2.0);
+		verify(jpaQuery).setParameter(6, "c");
+	}
+
+	@Test
+	public void testProximityFetchWithJDOFilter() {
+		GeocellQuery baseQuery = new GeocellQuery(GeocellFilter.and(GeocellFilter.gt("id", 5L), GeocellFilter.in("latitude", Arrays.asList(1.0, 2.0))));
+		when(persistenceManager.newQuery(ObjectToSave.class, "(id > filterP0) && (filterP1.contains(latitude)) && geocells.contains(geocellsP)")).thenReturn(jdoQuery);
+		when(jdoQuery.executeWithArray(anyVararg())).thenReturn(new ArrayList<ObjectToSave>());
+
+		List<ObjectToSave> results = GeocellManager.proximitySearch(center, 1, 10.0, ObjectToSave.class, baseQuery, persistenceManager, 1);
+
+		assertNotNull(results);
+		verify(jdoQuery).declareParameters("java.lang.Long filterP0, java.util.Collection filterP1, String geocellsP");
+	}
+
+	@Test
+	public void testProximitySearchTwoPhaseWithJPA() {
+		GeocellQuery baseQuery = new GeocellQuery("SELECT e FROM JPAEntity e WHERE e.latitude > ?1", Arrays.<Object>asList(-1.0));
+		JPAEntity entity = new JPAEntity();
+		entity.setId("a");
+		List<GeocellProjection> projections = Arrays.asList(new GeocellProjection("a", 0.0, 0.0));
+
+		when(entityManager.createQuery(anyString())).thenReturn(jpaQuery);
+		when(jpaQuery.getResultList()).thenReturn(projections).thenReturn(Arrays.asList(entity));
+
+		List<JPAEntity> results = GeocellManager.proximitySearchTwoPhase(center, 1, 0, JPAEntity.class, baseQuery, entityManager, 1);
+
+		assertEquals(Arrays.asList(entity), results);
+		verify(entityManager).createQuery("select new com.beoui.geocell.model.GeocellProjection(e.id, e.latitude, e.longitude) from JPAEntity e"
+				+ " where e.latitude > ?1 and geoCellsData in ('c')");
+		verify(entityManager).createQuery("select e from JPAEntity e where e.id in (?1)");
+		verify(jpaQuery).setParameter(1, "a");
+	}
+
+	@Test
+	public void testFetchWithJDOSkipsDeletedEntities() {
+		ObjectToSave entity = new ObjectToSave();
+		entity.setId(2L);
+		JDOGeocellQueryEngine queryEngine = new JDOGeocellQueryEngine();
+		queryEngine.setPersistenceManager(persistenceManager);
+		when(persistenceManager.newQuery(ObjectToSave.class, "keysP.contains(id)")).thenReturn(jdoQuery);
+		when(jdoQuery.execute(any())).thenReturn(Arrays.asList(entity));
+
+		List<ObjectToSave> results = queryEngine.fetch(Arrays.<Object>asList(1L, 2L), ObjectToSave.class);
+
+		assertEquals(Arrays.asList(entity), results);
+		verify(jdoQuery).declareParameters("java.util.Collection keysP");
+	}
+
+	@Test
+	public void testFetchWithJPAMatchesRawKeys() {
+		KeyedEntity first = new KeyedEntity(1L);
+		KeyedEntity second = new KeyedEntity(2L);
+		JPAGeocellQueryEngine queryEngine = new JPAGeocellQueryEngine();
+		queryEngine.setEntityManager(entityManager);
+		when(entityManager.createQuery(anyString())).thenReturn(jpaQuery);
+		when(jpaQuery.getResultList()).thenReturn(Arrays.asList(second, first));
+
+		List<KeyedEntity> results = queryEngine.fetch(Arrays.<Object>asList(1L, 2L), KeyedEntity.class);
+
+		assertEquals(Arrays.asList(first, second), results);
+	}
+
+	@Test
+	public void testFetchWithJDOMatchesRawKeys() {
+		KeyedEntity first = new KeyedEntity(1L);
+		KeyedEntity second = new KeyedEntity(2L);
+		JDOGeocellQueryEngine queryEngine = new JDOGeocellQueryEngine();
+		queryEngine.setPersistenceManager(persistenceManager);
+		when(persistenceManager.newQuery(KeyedEntity.class, "keysP.contains(id)")).thenReturn(jdoQuery);
+		when(jdoQuery.execute(any())).thenReturn(Arrays.asList(second, first));
+
+		List<KeyedEntity> results = queryEngine.fetch(Arrays.<Object>asList(1L, 2L), KeyedEntity.class);
+
+		assertEquals(Arrays.asList(first, second), results);
+	}
+
 	@Test
     public void testProximityFetchWithJPAWithMultipleResult() {
         List<Object> parameters = new ArrayList<Object>();
@@ -236,17 +344,175 @@ public class GeocellManagerTest {
 		float west = 87.076263f;
 		float north = 76.043611f;
 		float south = -54.505934f;
-		Set<String> antimeridianSearch = new HashSet<String>(GeocellManager.bestBboxSearchCells(new BoundingBox(north,east,south,west), null));
-		
-		List<String> equivalentSearchPart1 = GeocellManager.bestBboxSearchCells(new BoundingBox(north,east,south,-180.0f), null);
-		List<String> equivalentSearchPart2 = GeocellManager.bestBboxSearchCells(new BoundingBox(north,180.0f,south,west), null);
-		Set<String> equivalentSearch = new HashSet<String>();
-		equivalentSearch.addAll(equivalentSearchPart1);
-		equivalentSearch.addAll(equivalentSearchPart2);
-		
-		assertEquals(equivalentSearch, antimeridianSearch);
+		List<String> antimeridianSearch = GeocellManager.bestBboxSearchCells(new BoundingBox(north,east,south,west), null);
+
+		// Both sides are planned together: one resolution, within the default cost budget.
+		assertTrue(antimeridianSearch.size() <= 16);
+		for(String cell : antimeridianSearch) {
+			assertEquals(antimeridianSearch.get(0).length(), cell.length());
+		}
+		for(float lon : new float[] {west, 120, 180, -180, -90, 0, east}) {
+			for(float lat : new float[] {south, 0, north}) {
+				assertTrue(isCovered(antimeridianSearch, new Point(lat, lon)));
+			}
+		}
 	}
-	
+
+	@Test
+	public void testBestBoxSearchOnNarrowAntimeridianBox() {
+		BoundingBox bbox = new BoundingBox(-16, -179, -19, 178);
+		List<String> cells = GeocellManager.bestBboxSearchCells(bbox, null);
+
+		assertTrue(cells.size() <= 16);
+		assertTrue(cells.get(0).length() > 1);
+		assertTrue(isCovered(cells, new Point(-17.5, 179.9)));
+		assertTrue(isCovered(cells, new Point(-17.5, -179.9)));
+		assertTrue(isCovered(cells, new Point(-16, 178)));
+		assertTrue(isCovered(cells, new Point(-19, -179)));
+		assertEquals(cells.size(), GeocellManager.bboxCellsCount(bbox, cells.get(0).length()));
+	}
+
+	@Test
+	public void testProximitySearchAcrossAntimeridian() {
+		InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+		index.put(newObject(1L, -17.5, -179.99));
+		index.put(newObject(2L, -17.5, 179.5));
+		index.put(newObject(3L, -17.5, -178));
+
+		List<ObjectToSave> results = GeocellManager.proximitySearch(new Point(-17.5, 179.99), 2, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION);
+
+		assertEquals(2, results.size());
+		assertEquals(1L, results.get(0).getId());
+		assertEquals(2L, results.get(1).getId());
+	}
+
+	@Test
+	public void testProximitySearchNearPole() {
+		InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+		index.put(newObject(1L, 89.99, 10));
+		index.put(newObject(2L, 89.9, -170));
+		index.put(newObject(3L, 80, 10));
+
+		List<ObjectToSave> results = GeocellManager.proximitySearch(new Point(89.999, 10), 2, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION);
+
+		assertEquals(2, results.size());
+		assertEquals(1L, results.get(0).getId());
+		assertEquals(2L, results.get(1).getId());
+	}
+
+	@Test
+	public void testProximitySearchAcrossPoleStaysAtFineResolution() {
+		final InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+		index.put(newObject(1L, 89.99, 10));
+		index.put(newObject(2L, 89.99, -170));
+		index.put(newObject(3L, 0, 10));
+		final List<String> queriedCells = new ArrayList<String>();
+		GeocellQueryEngine recordingEngine = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				queriedCells.addAll(curGeocellsUnique);
+				return index.query(baseQuery, curGeocellsUnique, entityClass);
+			}
+		};
+
+		List<ObjectToSave> results = GeocellManager.proximitySearch(new Point(89.999, 10), 2, 0, ObjectToSave.class, null, recordingEngine, GeocellManager.MAX_GEOCELL_RESOLUTION);
+
+		assertEquals(2, results.size());
+		assertEquals(1L, results.get(0).getId());
+		assertEquals(2L, results.get(1).getId());
+		for(String cell : queriedCells) {
+			assertTrue(cell, cell.length() >= 3);
+		}
+	}
+
+	private static boolean isCovered(List<String> cells, Point point) {
+		String pointCell = GeocellUtils.compute(point, GeocellManager.MAX_GEOCELL_RESOLUTION);
+		for(String cell : cells) {
+			if(pointCell.startsWith(cell)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static ObjectToSave newObject(long id, double lat, double lon) {
+		ObjectToSave object = new ObjectToSave();
+		object.setId(id);
+		object.setLatitude(lat);
+		object.setLongitude(lon);
+		return object;
+	}
+
+	@Test
+	public void testBestBboxSearchCellsBatch() {
+		Random random = new Random(13);
+		List<BoundingBox> bboxes = new ArrayList<BoundingBox>();
+		for(int i = 0; i < 500; i++) {
+			double south = -80 + random.nextDouble() * 150;
+			double west = -180 + random.nextDouble() * 359;
+			double size = Math.pow(10, -4 + random.nextDouble() * 5);
+			double east = west + size > 180 ? west + size - 360 : west + size;
+			bboxes.add(new BoundingBox(Math.min(89, south + size), east, south, west));
+		}
+		bboxes.add(new BoundingBox(-16, -179, -19, 178));
+		for(int resolution = 0; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+			BoundingBox bbox = bboxes.get(resolution);
+			int[] sw = GeocellTopology.toXY(GeocellUtils.compute(bbox.getSouthWest(), GeocellManager.MAX_GEOCELL_RESOLUTION));
+			int[] ne = GeocellTopology.toXY(GeocellUtils.compute(bbox.getNorthEast(), GeocellManager.MAX_GEOCELL_RESOLUTION));
+			assertEquals(GeocellManager.bboxCellsCount(bbox, resolution), GeocellTopology.bboxCellsCount(sw, ne, bbox.getEast() < bbox.getWest(), resolution));
+		}
+
+		CostFunction fewCells = new CostFunction() {
+			@Override
+			public double defaultCostFunction(int numCells, int resolution) {
+				return numCells > 20 ? Double.MAX_VALUE : Math.pow(resolution, 2) / numCells;
+			}
+		};
+		for(CostFunction costFunction : new CostFunction[] {new DefaultCostFunction(), fewCells}) {
+			List<List<String>> batch = GeocellManager.bestBboxSearchCellsBatch(bboxes, costFunction);
+			assertEquals(bboxes.size(), batch.size());
+			for(int i = 0; i < bboxes.size(); i++) {
+				assertEquals(bestBboxSearchCellsOfEveryResolution(bboxes.get(i), costFunction), batch.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Previous planning algorithm, building and sorting the cells of every evaluated resolution.
+	 */
+	private static List<String> bestBboxSearchCellsOfEveryResolution(BoundingBox bbox, CostFunction costFunction) {
+		String cellNE = GeocellUtils.compute(bbox.getNorthEast(), GeocellManager.MAX_GEOCELL_RESOLUTION);
+		String cellSW = GeocellUtils.compute(bbox.getSouthWest(), GeocellManager.MAX_GEOCELL_RESOLUTION);
+		double minCost = Double.MAX_VALUE;
+		List<String> minCostCellSet = new ArrayList<String>();
+		int minResolution = 0;
+		if(bbox.getEast() < bbox.getWest()) {
+			minResolution = 1;
+		} else {
+			while(minResolution < cellNE.length() && cellNE.substring(0, minResolution + 1).startsWith(cellSW.substring(0, minResolution + 1))) {
+				minResolution++;
+			}
+		}
+		for(int resolution = minResolution; resolution <= GeocellManager.MAX_GEOCELL_RESOLUTION; resolution++) {
+			if(GeocellManager.bboxCellsCount(bbox, resolution) > 300) {
+				continue;
+			}
+			List<String> cellSet = GeocellManager.bboxCells(bbox, resolution);
+			Collections.sort(cellSet);
+			double cost = costFunction.defaultCostFunction(cellSet.size(), resolution);
+			if(cost <= minCost) {
+				minCost = cost;
+				minCostCellSet = cellSet;
+			} else {
+				if(minCostCellSet.size() == 0) {
+					minCostCellSet = cellSet;
+				}
+				break;
+			}
+		}
+		return minCostCellSet;
+	}
+
 	@Test
 	public void testBestBoxWithCustomCostFunction() {
 		final int numCellsMax = 30;
@@ -284,4 +550,178 @@ public class GeocellManagerTest {
 		when(jpaQuery.getResultList()).thenReturn(new ArrayList<ObjectToSave>());
 		GeocellManager.proximitySearch(center, 10, 10.0, JPAEntity.class, baseQuery, entityManager, 1);
 	}
+
+	@Test
+	public void testRegionCoveringOfCircle() {
+		Circle circle = new Circle(new Point(48.8566, 2.3522), 5000);
+		GeocellCovering covering = GeocellManager.regionCovering(circle, null, 30);
+
+		assertFalse(covering.getInteriorCells().isEmpty());
+		assertFalse(covering.getBoundaryCells().isEmpty());
+		assertTrue(covering.getCells().size() <= 30);
+		for(String cell : covering.getInteriorCells()) {
+			assertTrue(circle.containsBox(GeocellUtils.computeBox(cell)));
+		}
+		assertTrue(covering.isInterior(circle.getCenter()));
+	}
+
+	@Test
+	public void testRegionSearchFiltersBoundaryCandidatesOnly() {
+		List<Point> shell = new ArrayList<Point>();
+		shell.add(new Point(10, 10));
+		shell.add(new Point(10, 20));
+		shell.add(new Point(20, 20));
+		shell.add(new Point(20, 10));
+		Polygon polygon = new Polygon(shell);
+
+		ObjectToSave inside = new ObjectToSave();
+		inside.setId(1L);
+		inside.setLatitude(15);
+		inside.setLongitude(15);
+		ObjectToSave outside = new ObjectToSave();
+		outside.setId(2L);
+		outside.setLatitude(9.99);
+		outside.setLongitude(15);
+		List<ObjectToSave> queryResults = new ArrayList<ObjectToSave>();
+		queryResults.add(inside);
+		queryResults.add(outside);
+
+		GeocellQueryEngine queryEngine = mock(GeocellQueryEngine.class);
+		when(queryEngine.query(any(GeocellQuery.class), anyListOf(String.class), eq(ObjectToSave.class))).thenReturn(queryResults);
+
+		List<ObjectToSave> results = GeocellManager.regionSearch(polygon, ObjectToSave.class, new GeocellQuery(), queryEngine);
+
+		assertEquals(1, results.size());
+		assertEquals(inside, results.get(0));
+	}
+
+	@Test
+	public void testWithinRadiusRunsOneQueryAndSortsByDistance() {
+		Point paris = new Point(48.8566, 2.3522);
+		List<String> cells = GeocellManager.radiusSearchCells(paris, 500);
+		assertFalse(cells.isEmpty());
+		assertTrue(cells.size() <= 9);
+		assertEquals(7, cells.get(0).length());
+
+		ObjectToSave far = new ObjectToSave();
+		far.setId(1L);
+		far.setLatitude(48.8566);
+		far.setLongitude(2.3572);
+		ObjectToSave near = new ObjectToSave();
+		near.setId(2L);
+		near.setLatitude(48.8567);
+		near.setLongitude(2.3522);
+		ObjectToSave outside = new ObjectToSave();
+		outside.setId(3L);
+		outside.setLatitude(48.8566);
+		outside.setLongitude(2.3622);
+		List<ObjectToSave> queryResults = new ArrayList<ObjectToSave>();
+		queryResults.add(far);
+		queryResults.add(outside);
+		queryResults.add(near);
+
+		GeocellQueryEngine queryEngine = mock(GeocellQueryEngine.class);
+		when(queryEngine.query(any(GeocellQuery.class), anyListOf(String.class), eq(ObjectToSave.class))).thenReturn(queryResults);
+
+		List<ObjectToSave> results = GeocellManager.withinRadius(paris, 500, ObjectToSave.class, new GeocellQuery(), queryEngine);
+
+		verify(queryEngine, times(1)).query(any(GeocellQuery.class), eq(cells), eq(ObjectToSave.class));
+		assertEquals(2, results.size());
+		assertEquals(near, results.get(0));
+		assertEquals(far, results.get(1));
+	}
+
+	@Test
+	public void testDiffOnlyChangesHighResolutionCells() {
+		Point oldLocation = new Point(48.85660, 2.35220);
+		Point newLocation = new Point(48.85662, 2.35225);
+		GeocellDelta delta = GeocellManager.diff(oldLocation, newLocation);
+
+		assertFalse(delta.isEmpty());
+		assertTrue(delta.getAddedCells().size() < GeocellManager.MAX_GEOCELL_RESOLUTION);
+		assertEquals(delta.getRemovedCells().size(), delta.getAddedCells().size());
+
+		List<String> geocells = GeocellManager.generateGeoCell(oldLocation);
+		delta.applyTo(geocells);
+		assertEquals(new HashSet<String>(GeocellManager.generateGeoCell(newLocation)), new HashSet<String>(geocells));
+
+		assertTrue(GeocellManager.diff(oldLocation, oldLocation).isEmpty());
+	}
+
+	@Test
+	public void testApplyDeltaWithJPAMergesDetachedEntity() {
+		Point oldLocation = new Point(48.85660, 2.35220);
+		Point newLocation = new Point(48.86660, 2.35220);
+		JPAEntity entity = new JPAEntity();
+		entity.setGeoCellsData(GeocellManager.generateGeoCell(oldLocation));
+		JPAGeocellQueryEngine queryEngine = new JPAGeocellQueryEngine();
+		queryEngine.setEntityManager(entityManager);
+		when(entityManager.contains(entity)).thenReturn(false);
+		JPAEntity merged = new JPAEntity();
+		when(entityManager.merge(entity)).thenReturn(merged);
+
+		assertSame(merged, queryEngine.applyDelta(entity, GeocellManager.diff(oldLocation, newLocation)));
+
+		assertEquals(new HashSet<String>(GeocellManager.generateGeoCell(newLocation)), new HashSet<String>(entity.getGeoCellsData()));
+		verify(entityManager).merge(entity);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetGeocellsWithoutGeocellsField() {
+		GeocellUtils.getGeocells(new Point(1, 2));
+	}
+
+	@Test
+	public void testAggregateWithJPAGroupsByGeocell() {
+		List<Object> parameters = new ArrayList<Object>();
+		parameters.add("testKeyString");
+		GeocellQuery baseQuery = new GeocellQuery("SELECT e FROM JPAEntity e WHERE e.keyString = ?1", parameters);
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(new Object[] {"c", 3L, 10.0, 20.0});
+
+		when(entityManager.createQuery(anyString())).thenReturn(jpaQuery);
+		when(jpaQuery.getResultList()).thenReturn(rows);
+		JPAGeocellQueryEngine queryEngine = new JPAGeocellQueryEngine();
+		queryEngine.setEntityManager(entityManager);
+
+		List<GeocellAggregate> aggregates = GeocellManager.aggregate(new BoundingBox(40, 80, 10, 10), 1, JPAEntity.class, baseQuery, queryEngine);
+
+		verify(entityManager).createQuery("select g, count(e), avg(e.latitude), avg(e.longitude) from JPAEntity e join e.geoCellsData g"
+				+ " where g in ('c') and (e.keyString = ?1) group by g");
+		verify(jpaQuery).setParameter(1, "testKeyString");
+		assertEquals(1, aggregates.size());
+		assertEquals("c", aggregates.get(0).getCell());
+		assertEquals(3L, aggregates.get(0).getCount());
+		assertEquals(10.0, aggregates.get(0).getCentroid().getLat(), 0.0);
+	}
+
+	/**
+	 * Entity whose key string is not the string of its key, like an App Engine encoded key.
+	 */
+	@SuppressWarnings("deprecation")
+	private static class KeyedEntity implements LocationCapable {
+
+		@Id
+		private Long id;
+
+		KeyedEntity(Long id) {
+			this.id = id;
+		}
+
+		@Override
+		public Point getLocation() {
+			return new Point(0, 0);
+		}
+
+		@Override
+		public String getKeyString() {
+			return "key-" + id;
+		}
+
+		@Override
+		public List<String> getGeocells() {
+			return new ArrayList<String>();
+		}
+	}
+
 }
@@ -0,0 +1,102 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.Point;
+
+public class GeocellPartitionerTest {
+
+	private Map<String, Long> histogram;
+
+	@Before
+	public void setUp() {
+		// A hot spot around Paris and a uniform background, counted at resolution 6.
+		Random random = new Random(11);
+		histogram = new HashMap<String, Long>();
+		for(int i = 0; i < 20000; i++) {
+			Point point = i % 2 == 0
+					? new Point(48.5 + random.nextDouble(), 2 + random.nextDouble())
+					: new Point(random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180);
+			String cell = GeocellUtils.compute(point, 6);
+			Long count = histogram.get(cell);
+			histogram.put(cell, count == null ? 1 : count + 1);
+		}
+	}
+
+	@Test
+	public void testHotRegionIsSplitAndLoadIsBalanced() {
+		GeocellPartitioner partitioner = new GeocellPartitioner(4, histogram);
+
+		String paris = GeocellUtils.compute(new Point(49, 2.5), 13);
+		String parisRegion = null;
+		for(String region : partitioner.getAssignments().keySet()) {
+			if(paris.startsWith(region)) {
+				parisRegion = region;
+			}
+		}
+		assertTrue(parisRegion.length() > 2);
+		assertBalanced(partitioner.getLoads(), 1.5);
+	}
+
+	@Test
+	public void testPartitionsForRoutesCells() {
+		GeocellPartitioner partitioner = new GeocellPartitioner(4, histogram);
+		Point point = new Point(48.85, 2.35);
+
+		SortedMap<Integer, List<String>> routes = partitioner.partitionsFor(Arrays.asList(GeocellUtils.compute(point, 9)));
+		assertEquals(1, routes.size());
+		assertEquals(partitioner.partitionFor(point), (int) routes.firstKey());
+
+		// Larger than the regions: sent to every partition.
+		assertEquals(4, partitioner.partitionsFor(Arrays.asList("")).size());
+
+		List<String> cells = GeocellManager.bestBboxSearchCells(new BoundingBox(50, 4, 47, 0), null);
+		int routed = 0;
+		for(List<String> partitionCells : partitioner.partitionsFor(cells).values()) {
+			routed += partitionCells.size();
+		}
+		assertTrue(routed >= cells.size());
+	}
+
+	@Test
+	public void testRebalanceMovesFewRegions() {
+		GeocellPartitioner partitioner = new GeocellPartitioner(4, histogram);
+
+		GeocellPartitioner grown = partitioner.rebalance(5);
+		for(Map.Entry<String, Integer> assignment : grown.getAssignments().entrySet()) {
+			int before = partitioner.getAssignments().get(assignment.getKey());
+			assertTrue(assignment.getValue() == before || assignment.getValue() == 4);
+		}
+		assertBalanced(grown.getLoads(), 2);
+
+		GeocellPartitioner shrunk = grown.rebalance(4);
+		for(Map.Entry<String, Integer> assignment : shrunk.getAssignments().entrySet()) {
+			int before = grown.getAssignments().get(assignment.getKey());
+			assertTrue(assignment.getValue() == before || before == 4);
+		}
+		assertEquals(4, shrunk.getLoads().length);
+	}
+
+	private static void assertBalanced(double[] loads, double maxRatio) {
+		double min = Double.MAX_VALUE;
+		double max = 0;
+		for(double load : loads) {
+			min = Math.min(min, load);
+			max = Math.max(max, load);
+		}
+		assertTrue("loads " + Arrays.toString(loads), max <= maxRatio * min);
+	}
+
+}
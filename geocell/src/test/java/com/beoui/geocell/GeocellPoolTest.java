@@ -0,0 +1,44 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class GeocellPoolTest {
+
+	@Test
+	public void testIntern() {
+		String cell = GeocellPool.intern(new String("8e6f"));
+		assertSame(cell, GeocellPool.intern(new String("8e6f")));
+		assertSame(cell, GeocellPool.cell(GeocellUtils.pack("8e6f"), 4));
+		assertSame(cell, GeocellPool.cell("8e6f".toCharArray()));
+		for(String other : new String[] {"0", "f", "ffff", "00000", "8e6f2a1b"}) {
+			assertSame(GeocellPool.intern(new String(other)), GeocellPool.cell(GeocellUtils.pack(other), other.length()));
+			assertEquals(other, GeocellPool.cell(GeocellUtils.pack(other), other.length()));
+		}
+	}
+
+	@Test
+	public void testNotPooled() {
+		String upper = new String("8E");
+		assertSame(upper, GeocellPool.intern(upper));
+		String high = new String("8e6f2a1b3");
+		assertSame(high, GeocellPool.intern(high));
+		assertEquals("8e6f2a1b3", GeocellPool.cell(GeocellUtils.pack(high), 9));
+	}
+
+	@Test
+	public void testAdjacentAndChildren() {
+		String east = GeocellUtils.adjacent("8e6f2", new int[] {1, 0});
+		assertSame(east, GeocellUtils.adjacent("8e6f2", new int[] {1, 0}));
+		List<String> children = GeocellUtils.children("8e6");
+		assertEquals("8e60", children.get(0));
+		assertEquals("8e6f", children.get(15));
+		assertSame(children.get(15), GeocellUtils.children("8e6").get(15));
+		assertEquals("8e6f2a1b0", GeocellUtils.children("8e6f2a1b").get(0));
+	}
+
+}
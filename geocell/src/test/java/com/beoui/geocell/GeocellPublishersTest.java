@@ -0,0 +1,187 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+import com.beoui.utils.ObjectToSave;
+
+public class GeocellPublishersTest {
+
+	private ExecutorService executorService;
+	private InMemoryGeocellIndex<ObjectToSave> index;
+	private List<ObjectToSave> objects;
+	private Point center = new Point(48.85, 2.35);
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newCachedThreadPool();
+		index = new InMemoryGeocellIndex<ObjectToSave>();
+		objects = new ArrayList<ObjectToSave>();
+		Random random = new Random(5);
+		for(int i = 0; i < 300; i++) {
+			ObjectToSave object = new ObjectToSave();
+			object.setId(i);
+			object.setLatitude(48.5 + random.nextDouble());
+			object.setLongitude(2 + random.nextDouble());
+			index.put(object);
+			objects.add(object);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	/**
+	 * Requests one item at a time, cancelling after maxItems.
+	 */
+	private static final class TestSubscriber<T> implements GeocellFlow.Subscriber<T> {
+
+		private final int maxItems;
+		private final List<T> items = new ArrayList<T>();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private GeocellFlow.Subscription subscription;
+		private Throwable error;
+		private boolean completed;
+
+		private TestSubscriber(int maxItems) {
+			this.maxItems = maxItems;
+		}
+
+		@Override
+		public void onSubscribe(GeocellFlow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(T item) {
+			items.add(item);
+			if(items.size() == maxItems) {
+				subscription.cancel();
+				done.countDown();
+			} else {
+				subscription.request(1);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+			done.countDown();
+		}
+
+		private void await() throws InterruptedException {
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+
+	}
+
+	@Test
+	public void testProximitySearch() throws InterruptedException {
+		List<ObjectToSave> expected = GeocellManager.proximitySearch(center, 40, 0, ObjectToSave.class, null, index, 13);
+		TestSubscriber<ObjectToSave> subscriber = new TestSubscriber<ObjectToSave>(Integer.MAX_VALUE);
+		GeocellPublishers.proximitySearch(center, 40, 0, ObjectToSave.class, null, index, 13, executorService).subscribe(subscriber);
+		subscriber.await();
+		assertNull(subscriber.error);
+		assertTrue(subscriber.completed);
+		assertEquals(expected, subscriber.items);
+	}
+
+	@Test
+	public void testCancelStopsRounds() throws InterruptedException {
+		final AtomicInteger queries = new AtomicInteger();
+		GeocellQueryEngine countingEngine = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				queries.incrementAndGet();
+				return index.query(baseQuery, curGeocellsUnique, entityClass);
+			}
+		};
+		GeocellManager.proximitySearch(center, 300, 0, ObjectToSave.class, null, countingEngine, 13);
+		int allRounds = queries.getAndSet(0);
+
+		TestSubscriber<ObjectToSave> subscriber = new TestSubscriber<ObjectToSave>(1);
+		GeocellPublishers.proximitySearch(center, 300, 0, ObjectToSave.class, null, countingEngine, 13, executorService).subscribe(subscriber);
+		subscriber.await();
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(1, subscriber.items.size());
+		assertFalse(subscriber.completed);
+		assertTrue(queries.get() < allRounds);
+	}
+
+	@Test
+	public void testBoundingBoxSearch() throws InterruptedException {
+		BoundingBox bbox = new BoundingBox(49, 2.6, 48.7, 2.2);
+		Set<ObjectToSave> expected = new HashSet<ObjectToSave>();
+		for(ObjectToSave object : objects) {
+			if(object.getLatitude() >= 48.7 && object.getLatitude() <= 49 && object.getLongitude() >= 2.2 && object.getLongitude() <= 2.6) {
+				expected.add(object);
+			}
+		}
+		TestSubscriber<ObjectToSave> subscriber = new TestSubscriber<ObjectToSave>(Integer.MAX_VALUE);
+		GeocellPublishers.boundingBoxSearch(bbox, ObjectToSave.class, null, GeocellPublishers.fromEngine(index, executorService)).subscribe(subscriber);
+		subscriber.await();
+		assertTrue(subscriber.completed);
+		assertEquals(expected.size(), subscriber.items.size());
+		assertEquals(expected, new HashSet<ObjectToSave>(subscriber.items));
+	}
+
+	@Test
+	public void testInvalidRequest() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final Throwable[] error = {null};
+		GeocellPublishers.proximitySearch(center, 10, 0, ObjectToSave.class, null, index, 13, executorService).subscribe(new GeocellFlow.Subscriber<ObjectToSave>() {
+			@Override
+			public void onSubscribe(GeocellFlow.Subscription subscription) {
+				subscription.request(0);
+			}
+
+			@Override
+			public void onNext(ObjectToSave item) {
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				error[0] = throwable;
+				done.countDown();
+			}
+
+			@Override
+			public void onComplete() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(error[0] instanceof IllegalArgumentException);
+	}
+
+}
@@ -0,0 +1,238 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellProjection;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+import com.beoui.utils.ObjectToSave;
+
+public class GeocellQueryExecutorTest {
+
+	private ExecutorService executorService;
+	// Released at tear down: queries waiting on it are stuck until then.
+	private CountDownLatch stuck = new CountDownLatch(1);
+	private InMemoryGeocellIndex<ObjectToSave> index;
+	private Point paris = new Point(48.85, 2.35);
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newCachedThreadPool();
+		index = new InMemoryGeocellIndex<ObjectToSave>();
+		for(int i = 0; i < 20; i++) {
+			ObjectToSave object = new ObjectToSave();
+			object.setId(i);
+			object.setLatitude(48.85 + i * 0.01);
+			object.setLongitude(2.35);
+			index.put(object);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		stuck.countDown();
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void testQueryAllBoundsConcurrency() {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		// The first queries wait for each other, so that the limit is reached.
+		final CountDownLatch started = new CountDownLatch(2);
+		GeocellQueryEngine slowEngine = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				int now = running.incrementAndGet();
+				maxRunning.accumulateAndGet(now, Math::max);
+				started.countDown();
+				await(started);
+				running.decrementAndGet();
+				return index.query(baseQuery, curGeocellsUnique, entityClass);
+			}
+		};
+		List<List<String>> cellSets = new ArrayList<List<String>>();
+		for(int i = 0; i < 8; i++) {
+			cellSets.add(Arrays.asList(GeocellUtils.compute(paris, 4)));
+		}
+
+		List<List<ObjectToSave>> results = new GeocellQueryExecutor(executorService, 2)
+				.queryAll(slowEngine, null, cellSets, ObjectToSave.class, 10, TimeUnit.SECONDS);
+
+		assertEquals(8, results.size());
+		assertEquals(20, results.get(7).size());
+		assertEquals(2, maxRunning.get());
+	}
+
+	@Test(expected = GeocellDeadlineExceededException.class)
+	public void testQueryDeadline() {
+		GeocellQueryEngine stuckEngine = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				await(stuck);
+				return new ArrayList<T>();
+			}
+		};
+		new GeocellQueryExecutor(executorService, 1).query(stuckEngine, null, Arrays.asList("8"), ObjectToSave.class, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	@Test
+	public void testProximitySearchReturnsBestResultsSoFarAtDeadline() {
+		final AtomicInteger rounds = new AtomicInteger();
+		// First round answers at once, next ones are stuck.
+		GeocellQueryEngine slowingEngine = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				if(rounds.incrementAndGet() > 1) {
+					await(stuck);
+				}
+				return index.query(baseQuery, curGeocellsUnique, entityClass);
+			}
+		};
+		Point center = new Point(48.8501, 2.3501);
+
+		long start = System.nanoTime();
+		List<ObjectToSave> results = new GeocellQueryExecutor(executorService, 4).proximitySearch(center, 5, 0, ObjectToSave.class, null,
+				slowingEngine, 6, 200, TimeUnit.MILLISECONDS);
+
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(2, rounds.get());
+		assertTrue(results.size() > 0 && results.size() <= 5);
+		assertEquals(0L, results.get(0).getId());
+	}
+
+	@Test
+	public void testProximitySearchStopsStartingRoundsAfterTimeout() {
+		final AtomicInteger rounds = new AtomicInteger();
+		// Each query ends after the timeout has expired.
+		GeocellQueryEngine slowEngine = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				rounds.incrementAndGet();
+				long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+				while(System.nanoTime() - end < 0) {
+					LockSupport.parkNanos(end - System.nanoTime());
+				}
+				return new ArrayList<T>();
+			}
+		};
+
+		List<ObjectToSave> results = GeocellManager.proximitySearch(paris, 5, 0, ObjectToSave.class, null, slowEngine, 13, 50, TimeUnit.MILLISECONDS);
+
+		assertTrue(results.isEmpty());
+		assertEquals(1, rounds.get());
+	}
+
+	@Test
+	public void testWithDeadlineForwardsEngineCapabilities() {
+		GeocellQueryExecutor queryExecutor = new GeocellQueryExecutor(executorService, 1);
+		GeocellQueryExecutor.DeadlineEngine engine = queryExecutor.withDeadline(new ShardedProjectionEngine(), System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+
+		assertEquals(2, engine.shardCount(Arrays.asList("8", "9")));
+		List<GeocellProjection> projections = engine.queryProjections(null, Arrays.asList("8"), ObjectToSave.class);
+		assertEquals(1, projections.size());
+		assertEquals("8", projections.get(0).getKey());
+
+		GeocellQueryExecutor.DeadlineEngine indexEngine = queryExecutor.withDeadline(index, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+		assertEquals(1, indexEngine.shardCount(Arrays.asList("8", "9")));
+		List<GeocellAggregate> aggregates = indexEngine.aggregate(null, Arrays.asList(GeocellUtils.compute(paris, 4)), ObjectToSave.class);
+		assertEquals(1, aggregates.size());
+		assertEquals(20, aggregates.get(0).getCount());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testWithDeadlineRejectsMissingCapability() {
+		new GeocellQueryExecutor(executorService, 1).withDeadline(index, System.nanoTime() + TimeUnit.SECONDS.toNanos(10))
+				.queryProjections(null, Arrays.asList("8"), ObjectToSave.class);
+	}
+
+	@Test
+	public void testProximitySearchTwoPhaseFetchesBestResultsSoFarAtDeadline() {
+		final AtomicInteger rounds = new AtomicInteger();
+		// First round answers at once, next ones are stuck.
+		ShardedProjectionEngine slowingEngine = new ShardedProjectionEngine() {
+			@Override
+			public <T> List<GeocellProjection> queryProjections(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass) {
+				if(rounds.incrementAndGet() > 1) {
+					await(stuck);
+				}
+				List<GeocellProjection> projections = new ArrayList<GeocellProjection>();
+				for(ObjectToSave object : index.query(baseQuery, cells, ObjectToSave.class)) {
+					projections.add(new GeocellProjection(object.getId(), object.getLatitude(), object.getLongitude()));
+				}
+				return projections;
+			}
+
+			@Override
+			public <T> List<T> fetch(List<Object> keys, Class<T> entityClass) {
+				List<T> entities = new ArrayList<T>();
+				for(Object key : keys) {
+					ObjectToSave object = new ObjectToSave();
+					object.setId((Long) key);
+					entities.add(entityClass.cast(object));
+				}
+				return entities;
+			}
+		};
+		GeocellQueryExecutor.DeadlineEngine engine = new GeocellQueryExecutor(executorService, 4).withDeadline(slowingEngine,
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200));
+
+		List<ObjectToSave> results = GeocellManager.proximitySearchTwoPhase(new Point(48.8501, 2.3501), 5, 0, ObjectToSave.class, null, engine, 6);
+
+		assertEquals(2, rounds.get());
+		assertTrue(results.size() > 0 && results.size() <= 5);
+		assertEquals(0L, results.get(0).getId());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class ShardedProjectionEngine implements ShardAwareQueryEngine, GeocellProjectionEngine {
+
+		@Override
+		public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+			return new ArrayList<T>();
+		}
+
+		@Override
+		public int shardCount(List<String> cells) {
+			return cells.size();
+		}
+
+		@Override
+		public <T> List<GeocellProjection> queryProjections(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass) {
+			List<GeocellProjection> projections = new ArrayList<GeocellProjection>();
+			for(String cell : cells) {
+				projections.add(new GeocellProjection(cell, 0, 0));
+			}
+			return projections;
+		}
+
+		@Override
+		public <T> List<T> fetch(List<Object> keys, Class<T> entityClass) {
+			return new ArrayList<T>();
+		}
+	}
+
+}
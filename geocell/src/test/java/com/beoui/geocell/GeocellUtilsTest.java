@@ -5,9 +5,14 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
+import com.beoui.geocell.model.BoundingBox;
 import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.Tuple;
 import com.beoui.utils.JPAEntity;
 
 /**
@@ -124,4 +129,46 @@ public class GeocellUtilsTest {
 		
 		assertTrue(GeocellUtils.interpolationCount("8e6f727a6b0dd", "8e1d5c3ce9aff") > 0);
 	}
+
+	@Test
+	public void testInterpolationCountAcrossAntimeridian() {
+		String cellNE = GeocellUtils.compute(new Point(-16, -179), 5);
+		String cellSW = GeocellUtils.compute(new Point(-19, 178), 5);
+
+		assertEquals(GeocellUtils.interpolate(cellNE, cellSW).size(), GeocellUtils.interpolationCount(cellNE, cellSW));
+	}
+
+	@Test
+	public void testDistanceSortedEdgesAcrossAntimeridian() {
+		Point point = new Point(-17.5, 179.99);
+		String cell = GeocellUtils.compute(point, 4);
+		List<String> cells = Arrays.asList(cell, GeocellUtils.adjacent(cell, new int[] {1, 0}));
+
+		List<Tuple<int[], Double>> edges = GeocellUtils.distanceSortedEdges(cells, point);
+
+		// The region is two cells wide: no edge lies at the antimeridian, right next to the point.
+		for(Tuple<int[], Double> edge : edges) {
+			assertTrue(edge.getSecond() > 1000);
+		}
+	}
+
+	@Test
+	public void testComputeBoxFromSpans() {
+		BoundingBox box = GeocellUtils.computeBox("8e6");
+		assertEquals(180.0 / 64, box.getNorth() - box.getSouth(), 1e-12);
+		assertEquals(360.0 / 64, box.getEast() - box.getWest(), 1e-12);
+		assertTrue(GeocellUtils.containsPoint("8e6", new Point((box.getNorth() + box.getSouth()) / 2, (box.getEast() + box.getWest()) / 2)));
+
+		double[] primitive = new double[4];
+		GeocellUtils.computeBox("8e6", primitive);
+		assertEquals(box.getNorth(), primitive[0], 0);
+		assertEquals(box.getEast(), primitive[1], 0);
+		assertEquals(box.getSouth(), primitive[2], 0);
+		assertEquals(box.getWest(), primitive[3], 0);
+
+		BoundingBox world = GeocellUtils.computeBox("");
+		assertEquals(90.0, world.getNorth(), 0);
+		assertEquals(-180.0, world.getWest(), 0);
+		assertEquals(180.0 / 67108864, GeocellUtils.cellLatSpan(13), 0);
+	}
 }
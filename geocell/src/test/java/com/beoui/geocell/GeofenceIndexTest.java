@@ -0,0 +1,84 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.Circle;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.Polygon;
+import com.beoui.geocell.model.Region;
+
+public class GeofenceIndexTest {
+
+	@Test
+	public void testSameAsContains() {
+		GeofenceIndex<Integer> index = new GeofenceIndex<Integer>();
+		List<Region> regions = new ArrayList<Region>();
+		Random random = new Random(11);
+		for(int i = 0; i < 50; i++) {
+			Point center = new Point(48 + random.nextDouble() * 2, 2 + random.nextDouble() * 2);
+			Region region;
+			if(i % 2 == 0) {
+				region = new Circle(center, 1000 + random.nextDouble() * 20000);
+			} else {
+				double size = 0.01 + random.nextDouble() * 0.2;
+				region = new Polygon(Arrays.asList(center, new Point(center.getLat() + size, center.getLon()),
+						new Point(center.getLat() + size, center.getLon() + size)));
+			}
+			regions.add(region);
+			index.put(i, region);
+		}
+		assertEquals(50, index.size());
+
+		List<Point> points = new ArrayList<Point>();
+		for(int i = 0; i < 2000; i++) {
+			points.add(new Point(48 + random.nextDouble() * 2.2, 2 + random.nextDouble() * 2.2));
+		}
+		List<List<Integer>> matches = index.lookup(points);
+		int found = 0;
+		for(int i = 0; i < points.size(); i++) {
+			List<Integer> expected = new ArrayList<Integer>();
+			for(int id = 0; id < regions.size(); id++) {
+				if(regions.get(id).contains(points.get(i))) {
+					expected.add(id);
+				}
+			}
+			List<Integer> actual = new ArrayList<Integer>(matches.get(i));
+			Collections.sort(actual);
+			assertEquals(expected, actual);
+			assertEquals(matches.get(i), index.lookup(points.get(i)));
+			found += actual.size();
+		}
+		assertTrue(found > 0);
+	}
+
+	@Test
+	public void testReplaceAndRemove() {
+		GeofenceIndex<String> index = new GeofenceIndex<String>();
+		Point paris = new Point(48.85, 2.35);
+		Point brussels = new Point(50.85, 4.35);
+		index.put("fence", new Circle(paris, 5000));
+		assertEquals(Arrays.asList("fence"), index.lookup(paris));
+
+		index.put("fence", new Circle(brussels, 5000));
+		assertTrue(index.lookup(paris).isEmpty());
+		assertEquals(Arrays.asList("fence"), index.lookup(brussels));
+		assertEquals(1, index.size());
+
+		assertTrue(index.remove("fence"));
+		assertFalse(index.remove("fence"));
+		assertTrue(index.lookup(brussels).isEmpty());
+		assertNull(index.get("fence"));
+	}
+
+}
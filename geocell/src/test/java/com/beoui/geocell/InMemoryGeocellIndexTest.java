@@ -0,0 +1,207 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.GeocellAggregate;
+import com.beoui.geocell.model.GeocellFilter;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+import com.beoui.utils.ObjectToSave;
+
+public class InMemoryGeocellIndexTest {
+
+	private InMemoryGeocellIndex<ObjectToSave> index;
+
+	@Before
+	public void setUp() {
+		index = new InMemoryGeocellIndex<ObjectToSave>(6);
+	}
+
+	private ObjectToSave newObject(long id, double lat, double lon) {
+		ObjectToSave object = new ObjectToSave();
+		object.setId(id);
+		object.setLatitude(lat);
+		object.setLongitude(lon);
+		return object;
+	}
+
+	@Test
+	public void testQueryAtLowerAndHigherResolution() {
+		ObjectToSave paris = newObject(1, 48.8566, 2.3522);
+		ObjectToSave london = newObject(2, 51.5072, -0.1276);
+		index.put(paris);
+		index.put(london);
+
+		String parisCell = GeocellUtils.compute(new Point(48.8566, 2.3522), 10);
+		assertEquals(Arrays.asList(paris), index.query(new GeocellQuery(), Arrays.asList(parisCell), ObjectToSave.class));
+		assertEquals(Arrays.asList(paris), index.query(new GeocellQuery(), Arrays.asList(parisCell.substring(0, 6)), ObjectToSave.class));
+		String londonCell = GeocellUtils.compute(new Point(51.5072, -0.1276), 2);
+		assertEquals(2, index.query(new GeocellQuery(), Arrays.asList(parisCell.substring(0, 2), londonCell), ObjectToSave.class).size());
+	}
+
+	@Test
+	public void testMoveAndRemove() {
+		ObjectToSave courier = newObject(1, 48.8566, 2.3522);
+		index.put(courier);
+		String oldCell = GeocellUtils.compute(new Point(48.8566, 2.3522), 6);
+
+		courier.setLatitude(51.5072);
+		courier.setLongitude(-0.1276);
+		index.put(courier);
+		String newCell = GeocellUtils.compute(new Point(51.5072, -0.1276), 6);
+
+		assertEquals(1, index.size());
+		assertTrue(index.query(new GeocellQuery(), Arrays.asList(oldCell), ObjectToSave.class).isEmpty());
+		assertEquals(1, index.query(new GeocellQuery(), Arrays.asList(newCell), ObjectToSave.class).size());
+
+		assertTrue(index.remove(courier));
+		assertFalse(index.remove(courier));
+		assertTrue(index.query(new GeocellQuery(), Arrays.asList(newCell), ObjectToSave.class).isEmpty());
+	}
+
+	@Test
+	public void testProximitySearchWithFilter() {
+		for(int i = 0; i < 100; i++) {
+			index.put(newObject(i, 48 + i * 0.01, 2 + i * 0.01));
+		}
+		GeocellQuery query = new GeocellQuery(GeocellFilter.and(GeocellFilter.ge("id", 40), GeocellFilter.ne("id", 50L)));
+
+		List<ObjectToSave> nearest = GeocellManager.proximitySearch(new Point(48.5, 2.5), 3, 0, ObjectToSave.class, query, index, 13);
+
+		assertEquals(3, nearest.size());
+		Set<Long> ids = new HashSet<Long>();
+		for(ObjectToSave object : nearest) {
+			ids.add(object.getId());
+		}
+		// 50 is excluded, 49 and 51 are the closest on both sides.
+		assertFalse(ids.contains(50L));
+		assertTrue(ids.contains(49L));
+		assertTrue(ids.contains(51L));
+	}
+
+	@Test
+	public void testProximityAndBoundingBoxSearch() {
+		for(int i = 0; i < 100; i++) {
+			index.put(newObject(i, 48 + i * 0.01, 2 + i * 0.01));
+		}
+
+		List<ObjectToSave> nearest = GeocellManager.proximitySearch(new Point(48.5, 2.5), 3, 0, ObjectToSave.class, new GeocellQuery(), index, 13);
+		assertEquals(3, nearest.size());
+		assertEquals(50L, nearest.get(0).getId());
+
+		List<ObjectToSave> inBox = index.boundingBoxSearch(new BoundingBox(48.105, 2.105, 48.0, 2.0));
+		assertEquals(11, inBox.size());
+	}
+
+	@Test
+	public void testConcurrentMovesKeepOneEntryPerEntity() throws InterruptedException {
+		final int count = 200;
+		for(int i = 0; i < count; i++) {
+			index.put(newObject(i, 10, 10));
+		}
+		final AtomicBoolean duplicate = new AtomicBoolean();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				while(!done.get()) {
+					List<ObjectToSave> all = index.query(new GeocellQuery(), Arrays.asList("6", "c"), ObjectToSave.class);
+					Set<Long> ids = new HashSet<Long>();
+					for(ObjectToSave object : all) {
+						if(!ids.add(object.getId())) {
+							duplicate.set(true);
+						}
+					}
+				}
+			}
+		});
+		reader.start();
+		List<Thread> writers = new ArrayList<Thread>();
+		for(int w = 0; w < 4; w++) {
+			final int offset = w;
+			Thread writer = new Thread(new Runnable() {
+				public void run() {
+					for(int round = 0; round < 50; round++) {
+						for(int i = offset; i < count; i += 4) {
+							double lat = round % 2 == 0 ? -10 : 10;
+							index.put(newObject(i, lat, 10 + round * 0.001));
+						}
+					}
+				}
+			});
+			writers.add(writer);
+			writer.start();
+		}
+		for(Thread writer : writers) {
+			writer.join();
+		}
+		done.set(true);
+		reader.join();
+
+		assertFalse(duplicate.get());
+		assertEquals(count, index.size());
+		assertEquals(count, index.query(new GeocellQuery(), Arrays.asList("6", "c"), ObjectToSave.class).size());
+		// All entities ended in the same cell: the emptied buckets are gone, none lost an entity.
+		assertEquals(1, index.bucketCount());
+	}
+
+	@Test
+	public void testMovesKeepBucketsBounded() {
+		ObjectToSave courier = newObject(1, 48.0, 2.0);
+		index.put(courier);
+		index.put(newObject(2, 10, 10));
+		for(int i = 1; i <= 1000; i++) {
+			courier.setLatitude(48.0 + i * 0.01);
+			index.put(courier);
+		}
+		assertEquals(2, index.bucketCount());
+
+		index.remove(courier);
+		assertEquals(1, index.bucketCount());
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testAggregateFollowsMoves() {
+		index.put(newObject(1, 48.85, 2.35));
+		index.put(newObject(2, 48.87, 2.33));
+		ObjectToSave courier = newObject(3, 51.5, -0.12);
+		index.put(courier);
+
+		BoundingBox europe = new BoundingBox(60, 10, 40, -10);
+		List<GeocellAggregate> aggregates = index.aggregate(europe, 3);
+		assertEquals(2, aggregates.size());
+		long total = 0;
+		for(GeocellAggregate aggregate : aggregates) {
+			total += aggregate.getCount();
+			if(aggregate.getCount() == 2) {
+				assertEquals(48.86, aggregate.getCentroid().getLat(), 1e-9);
+				assertEquals(2.34, aggregate.getCentroid().getLon(), 1e-9);
+			}
+		}
+		assertEquals(3, total);
+
+		courier.setLatitude(48.86);
+		courier.setLongitude(2.34);
+		index.put(courier);
+		aggregates = index.aggregate(europe, 3);
+		assertEquals(1, aggregates.size());
+		assertEquals(3, aggregates.get(0).getCount());
+
+		index.remove(courier);
+		assertEquals(2, index.aggregate(europe, 3).get(0).getCount());
+		assertTrue(index.aggregate(new BoundingBox(-10, 10, -20, 0), 3).isEmpty());
+	}
+}
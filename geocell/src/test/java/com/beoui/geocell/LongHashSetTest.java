@@ -0,0 +1,45 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+	@Test
+	public void testSameAsHashSet() {
+		LongHashSet set = new LongHashSet();
+		Set<Long> expected = new HashSet<Long>();
+		Random random = new Random(3);
+		for(int i = 0; i < 10000; i++) {
+			// Few distinct values, to add duplicates, including 0.
+			long value = random.nextInt(3000) - 100;
+			assertEquals(expected.add(value), set.add(value));
+			assertEquals(expected.size(), set.size());
+		}
+		for(long value = -200; value < 3000; value++) {
+			assertEquals(expected.contains(value), set.contains(value));
+		}
+	}
+
+	@Test
+	public void testClear() {
+		LongHashSet set = new LongHashSet();
+		for(long value = 0; value < 10000; value++) {
+			set.add(GeocellUtils.pack("8e6f") << 20 | value);
+		}
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(0));
+		assertFalse(set.contains(GeocellUtils.pack("8e6f") << 20 | 42));
+		assertTrue(set.add(42));
+		assertTrue(set.contains(42));
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.GeocellProjection;
+import com.beoui.geocell.model.Point;
+import com.beoui.utils.ObjectToSave;
+
+public class OffHeapGeocellIndexTest {
+
+	@Test
+	public void testQueryAndCount() {
+		OffHeapGeocellIndex index = new OffHeapGeocellIndex.Builder(3)
+				.add(1, 48.8566, 2.3522)
+				.add(2, 51.5072, -0.1276)
+				.add(3, 48.8606, 2.3376)
+				.build();
+		String paris = GeocellUtils.compute(new Point(48.8566, 2.3522), 5);
+
+		assertEquals(3, index.size());
+		assertEquals(2, index.count(paris));
+		assertEquals(3, index.count(""));
+		List<GeocellProjection> found = index.query(null, Arrays.asList(paris), GeocellProjection.class);
+		assertEquals(2, found.size());
+		for(GeocellProjection projection : found) {
+			assertEquals(paris, GeocellUtils.compute(projection.getLocation(), 5));
+		}
+	}
+
+	@Test
+	public void testProximitySearchMatchesInMemoryIndex() {
+		Random random = new Random(5);
+		OffHeapGeocellIndex.Builder builder = new OffHeapGeocellIndex.Builder(500);
+		InMemoryGeocellIndex<ObjectToSave> expected = new InMemoryGeocellIndex<ObjectToSave>();
+		for(int i = 0; i < 500; i++) {
+			ObjectToSave object = new ObjectToSave();
+			object.setId(i);
+			object.setLatitude(40 + random.nextDouble() * 10);
+			object.setLongitude(random.nextDouble() * 10);
+			expected.put(object);
+			builder.add(i, object.getLatitude(), object.getLongitude());
+		}
+		OffHeapGeocellIndex index = builder.build();
+		Point center = new Point(45, 5);
+
+		List<GeocellProjection> results = GeocellManager.proximitySearch(center, 20, 0, GeocellProjection.class, null, index, 13);
+
+		List<Object> ids = new ArrayList<Object>();
+		for(GeocellProjection projection : results) {
+			ids.add(projection.getKey());
+		}
+		List<Object> expectedIds = new ArrayList<Object>();
+		for(ObjectToSave object : GeocellManager.proximitySearch(center, 20, 0, ObjectToSave.class, null, expected, 13)) {
+			expectedIds.add(object.getId());
+		}
+		assertEquals(expectedIds, ids);
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.ApproximationPolicy;
+import com.beoui.geocell.model.GeocellProjection;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.ProximitySearchResult;
+import com.beoui.utils.ObjectToSave;
+
+public class ProximitySearchContextTest {
+
+	private InMemoryGeocellIndex<ObjectToSave> randomIndex() {
+		Random random = new Random(3);
+		InMemoryGeocellIndex<ObjectToSave> index = new InMemoryGeocellIndex<ObjectToSave>();
+		for(int i = 0; i < 300; i++) {
+			ObjectToSave object = new ObjectToSave();
+			object.setId(i);
+			object.setLatitude(48.5 + random.nextDouble());
+			object.setLongitude(2.0 + random.nextDouble());
+			index.put(object);
+		}
+		return index;
+	}
+
+	@Test
+	public void testReusedContextGivesSameResults() {
+		InMemoryGeocellIndex<ObjectToSave> index = randomIndex();
+		ProximitySearchContext context = new ProximitySearchContext();
+		Point paris = new Point(48.85, 2.35);
+		Point other = new Point(49.2, 2.9);
+
+		List<ObjectToSave> first = context.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION);
+		List<ObjectToSave> second = context.proximitySearch(other, 5, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION);
+		List<ObjectToSave> again = context.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION);
+
+		assertEquals(10, first.size());
+		assertEquals(5, second.size());
+		assertEquals(first, again);
+		assertEquals(second, new ProximitySearchContext().proximitySearch(other, 5, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION));
+	}
+
+	@Test
+	public void testForCurrentThreadIsReentrant() {
+		final InMemoryGeocellIndex<ObjectToSave> index = randomIndex();
+		final Point paris = new Point(48.85, 2.35);
+		// An engine running a nested proximity search on the same thread.
+		GeocellQueryEngine nested = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				GeocellManager.proximitySearch(paris, 1, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION);
+				return index.query(baseQuery, curGeocellsUnique, entityClass);
+			}
+		};
+
+		List<ObjectToSave> results = GeocellManager.proximitySearch(paris, 10, 0, ObjectToSave.class, null, nested, GeocellManager.MAX_GEOCELL_RESOLUTION);
+
+		assertEquals(new ProximitySearchContext().proximitySearch(paris, 10, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION), results);
+		assertSame(ProximitySearchContext.forCurrentThread(), ProximitySearchContext.forCurrentThread());
+	}
+
+	@Test
+	public void testExactPolicy() {
+		InMemoryGeocellIndex<ObjectToSave> index = randomIndex();
+		Point paris = new Point(48.85, 2.35);
+
+		ProximitySearchResult<ObjectToSave> result = GeocellManager.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index,
+				GeocellManager.MAX_GEOCELL_RESOLUTION, ApproximationPolicy.EXACT);
+
+		assertTrue(result.isExact());
+		assertEquals(GeocellManager.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION), result.getResults());
+	}
+
+	@Test
+	public void testApproximationPolicyLimitsRounds() {
+		InMemoryGeocellIndex<ObjectToSave> index = randomIndex();
+		Point paris = new Point(48.85, 2.35);
+		ProximitySearchResult<ObjectToSave> exact = GeocellManager.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index,
+				GeocellManager.MAX_GEOCELL_RESOLUTION, ApproximationPolicy.EXACT);
+
+		ProximitySearchResult<ObjectToSave> limited = GeocellManager.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index,
+				GeocellManager.MAX_GEOCELL_RESOLUTION, new ApproximationPolicy(exact.getRounds() - 1, 0, 0));
+
+		assertFalse(limited.isExact());
+		assertEquals(exact.getRounds() - 1, limited.getRounds());
+		assertTrue(limited.getCellsSearched() < exact.getCellsSearched());
+	}
+
+	@Test
+	public void testApproximationPolicyEpsilon() {
+		InMemoryGeocellIndex<ObjectToSave> index = randomIndex();
+		Point paris = new Point(48.85, 2.35);
+		ProximitySearchResult<ObjectToSave> exact = GeocellManager.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index,
+				GeocellManager.MAX_GEOCELL_RESOLUTION, ApproximationPolicy.EXACT);
+
+		ProximitySearchResult<ObjectToSave> approximate = GeocellManager.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index,
+				GeocellManager.MAX_GEOCELL_RESOLUTION, new ApproximationPolicy(0, 0, 0.5));
+
+		assertTrue(approximate.getRounds() <= exact.getRounds());
+		assertEquals(10, approximate.getResults().size());
+		// The farthest result is at most (1 + epsilon) farther than the exact one.
+		assertTrue(farthest(paris, approximate) <= 1.5 * farthest(paris, exact));
+	}
+
+	@Test
+	public void testTwoPhaseFetchesOnlyTheClosestEntities() {
+		final InMemoryGeocellIndex<ObjectToSave> index = randomIndex();
+		final List<Object> fetchedKeys = new ArrayList<Object>();
+		// Projections of the indexed entities, keyed by id.
+		GeocellProjectionEngine projectionEngine = new GeocellProjectionEngine() {
+			@Override
+			public <T> List<GeocellProjection> queryProjections(GeocellQuery baseQuery, List<String> cells, Class<T> entityClass) {
+				List<GeocellProjection> projections = new ArrayList<GeocellProjection>();
+				for(ObjectToSave object : index.query(baseQuery, cells, ObjectToSave.class)) {
+					projections.add(new GeocellProjection(object.getId(), object.getLatitude(), object.getLongitude()));
+				}
+				return projections;
+			}
+
+			@Override
+			public <T> List<T> fetch(List<Object> keys, Class<T> entityClass) {
+				fetchedKeys.addAll(keys);
+				List<T> entities = new ArrayList<T>();
+				for(Object key : keys) {
+					entities.add(entityClass.cast(index.get(key.toString())));
+				}
+				return entities;
+			}
+		};
+		Point paris = new Point(48.85, 2.35);
+
+		List<ObjectToSave> results = GeocellManager.proximitySearchTwoPhase(paris, 10, 0, ObjectToSave.class, null, projectionEngine,
+				GeocellManager.MAX_GEOCELL_RESOLUTION);
+
+		assertEquals(GeocellManager.proximitySearch(paris, 10, 0, ObjectToSave.class, null, index, GeocellManager.MAX_GEOCELL_RESOLUTION), results);
+		assertEquals(10, fetchedKeys.size());
+	}
+
+	private static double farthest(Point center, ProximitySearchResult<ObjectToSave> result) {
+		List<ObjectToSave> results = result.getResults();
+		return GeocellUtils.distance(center, GeocellUtils.getLocation(results.get(results.size() - 1)));
+	}
+}
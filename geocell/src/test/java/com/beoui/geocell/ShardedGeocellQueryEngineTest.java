@@ -0,0 +1,121 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.beoui.geocell.model.BoundingBox;
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+import com.beoui.utils.ObjectToSave;
+
+public class ShardedGeocellQueryEngineTest {
+
+	private ExecutorService executorService;
+	private InMemoryGeocellIndex<ObjectToSave> all;
+	private ShardedGeocellQueryEngine sharded;
+	private Point paris = new Point(48.85, 2.35);
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newCachedThreadPool();
+		all = new InMemoryGeocellIndex<ObjectToSave>();
+		sharded = new ShardedGeocellQueryEngine(executorService);
+		// One shard per resolution 4 cell around Paris, and a default shard.
+		String parisCell = GeocellUtils.compute(paris, 4);
+		List<InMemoryGeocellIndex<ObjectToSave>> shards = new ArrayList<InMemoryGeocellIndex<ObjectToSave>>();
+		for(String cell : GeocellUtils.allAdjacents(parisCell)) {
+			InMemoryGeocellIndex<ObjectToSave> shard = new InMemoryGeocellIndex<ObjectToSave>();
+			sharded.putShard(cell, shard);
+			shards.add(shard);
+		}
+		InMemoryGeocellIndex<ObjectToSave> defaultShard = new InMemoryGeocellIndex<ObjectToSave>();
+		sharded.putShard("", defaultShard);
+
+		Random random = new Random(7);
+		for(int i = 0; i < 500; i++) {
+			ObjectToSave object = new ObjectToSave();
+			object.setId(i);
+			object.setLatitude(47 + random.nextDouble() * 4);
+			object.setLongitude(random.nextDouble() * 5);
+			all.put(object);
+			String cell = GeocellUtils.compute(GeocellUtils.getLocation(object), 4);
+			InMemoryGeocellIndex<ObjectToSave> owner = defaultShard;
+			for(InMemoryGeocellIndex<ObjectToSave> shard : shards) {
+				if(sharded.getShards().get(cell) == shard) {
+					owner = shard;
+				}
+			}
+			owner.put(object);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	@Test
+	public void testRouting() {
+		String parisCell = GeocellUtils.compute(paris, 4);
+
+		assertEquals(1, sharded.route(Arrays.asList(parisCell + "0", parisCell + "f")).size());
+		// The parent cell is in every shard under it, and in the default shard.
+		assertEquals(sharded.getShards().size(), sharded.shardCount(Arrays.asList(parisCell.substring(0, 2))));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCellWithoutShard() {
+		sharded.removeShard("");
+		sharded.query(new GeocellQuery(), Arrays.asList("0"), ObjectToSave.class);
+	}
+
+	@Test
+	public void testSearchesMatchSingleDatastore() {
+		assertEquals(GeocellManager.proximitySearch(paris, 20, 0, ObjectToSave.class, null, all, 13),
+				GeocellManager.proximitySearch(paris, 20, 0, ObjectToSave.class, null, sharded, 13));
+
+		List<String> cells = GeocellManager.bestBboxSearchCells(new BoundingBox(49.5, 3, 48, 1), null);
+		assertEquals(all.query(null, cells, ObjectToSave.class).size(), sharded.query(null, cells, ObjectToSave.class).size());
+	}
+
+	@Test
+	public void testProximitySearchPrefersSingleShard() {
+		String start = GeocellUtils.compute(paris, 3);
+		final String east = GeocellUtils.adjacent(start, new int[] {1, 0});
+		BoundingBox box = GeocellUtils.computeBox(start);
+		// Closer to the east edge than to any other.
+		Point center = new Point((box.getNorth() + box.getSouth()) / 2, box.getEast() - 0.001);
+		final List<List<String>> queried = new ArrayList<List<String>>();
+		ShardAwareQueryEngine engine = new ShardAwareQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				queried.add(new ArrayList<String>(curGeocellsUnique));
+				return all.query(baseQuery, curGeocellsUnique, entityClass);
+			}
+
+			@Override
+			public int shardCount(List<String> cells) {
+				return cells.contains(east) ? 2 : 1;
+			}
+		};
+
+		List<ObjectToSave> results = GeocellManager.proximitySearch(center, 5, 0, ObjectToSave.class, null, engine, 3);
+
+		assertEquals(GeocellManager.proximitySearch(center, 5, 0, ObjectToSave.class, null, all, 3), results);
+		for(List<String> cells : queried) {
+			assertFalse(cells.contains(east));
+		}
+	}
+
+}
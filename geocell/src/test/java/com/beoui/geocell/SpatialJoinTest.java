@@ -0,0 +1,89 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.JoinMatch;
+import com.beoui.utils.ObjectToSave;
+
+public class SpatialJoinTest {
+
+	private static final double MAX_DISTANCE = 5000;
+
+	private List<ObjectToSave> randomObjects(Random random, int count, long firstId) {
+		List<ObjectToSave> objects = new ArrayList<ObjectToSave>();
+		for(int i = 0; i < count; i++) {
+			ObjectToSave object = new ObjectToSave();
+			object.setId(firstId + i);
+			object.setLatitude(48.5 + random.nextDouble());
+			object.setLongitude(2.0 + random.nextDouble());
+			objects.add(object);
+		}
+		return objects;
+	}
+
+	@Test
+	public void testNearestWithinMatchesBruteForce() {
+		Random random = new Random(42);
+		List<ObjectToSave> orders = randomObjects(random, 500, 0);
+		List<ObjectToSave> depots = randomObjects(random, 50, 1000);
+
+		Map<Long, JoinMatch<ObjectToSave, ObjectToSave>> matches = new HashMap<Long, JoinMatch<ObjectToSave, ObjectToSave>>();
+		for(JoinMatch<ObjectToSave, ObjectToSave> match : SpatialJoin.nearestWithin(orders, depots, MAX_DISTANCE).collect(Collectors.<JoinMatch<ObjectToSave, ObjectToSave>>toList())) {
+			matches.put(match.getFirst().getId(), match);
+		}
+
+		for(ObjectToSave order : orders) {
+			ObjectToSave nearest = null;
+			double nearestDistance = Double.MAX_VALUE;
+			for(ObjectToSave depot : depots) {
+				double distance = GeocellUtils.distance(GeocellUtils.getLocation(order), GeocellUtils.getLocation(depot));
+				if(distance <= MAX_DISTANCE && distance < nearestDistance) {
+					nearest = depot;
+					nearestDistance = distance;
+				}
+			}
+			JoinMatch<ObjectToSave, ObjectToSave> match = matches.get(order.getId());
+			if(nearest == null) {
+				assertEquals(null, match);
+			} else {
+				assertNotNull(match);
+				assertEquals(nearestDistance, match.getDistance(), 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void testAllWithinMatchesBruteForce() {
+		Random random = new Random(7);
+		List<ObjectToSave> left = randomObjects(random, 200, 0);
+		List<ObjectToSave> right = randomObjects(random, 200, 1000);
+
+		int expected = 0;
+		for(ObjectToSave l : left) {
+			for(ObjectToSave r : right) {
+				if(GeocellUtils.distance(GeocellUtils.getLocation(l), GeocellUtils.getLocation(r)) <= MAX_DISTANCE) {
+					expected++;
+				}
+			}
+		}
+
+		assertEquals(expected, SpatialJoin.allWithin(left, right, MAX_DISTANCE).count());
+	}
+
+	@Test
+	public void testJoinResolution() {
+		assertEquals(10, SpatialJoin.joinResolution(5, 0));
+		assertEquals(2, SpatialJoin.joinResolution(1000000, 0));
+		assertEquals(0, SpatialJoin.joinResolution(1000, 90));
+	}
+}
@@ -0,0 +1,97 @@
+package com.beoui.geocell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.beoui.geocell.model.GeocellQuery;
+import com.beoui.geocell.model.Point;
+import com.beoui.geocell.model.TimeGranularity;
+import com.beoui.utils.ObjectToSave;
+
+public class TimeBucketedQueryEngineTest {
+
+	private static final long HOUR = TimeGranularity.HOUR.getMillis();
+	private static final long NOW = 1000 * 24 * HOUR + 30 * 60 * 1000;
+
+	@Test
+	public void testGranularityFor() {
+		List<TimeGranularity> all = Arrays.asList(TimeGranularity.values());
+		assertEquals(TimeGranularity.MINUTE, GeocellTimeBuckets.granularityFor(NOW - 10 * 60 * 1000, NOW, 8, 300, all));
+		assertEquals(TimeGranularity.HOUR, GeocellTimeBuckets.granularityFor(NOW - HOUR, NOW, 8, 300, all));
+		assertEquals(TimeGranularity.DAY, GeocellTimeBuckets.granularityFor(NOW - 30 * 24 * HOUR, NOW, 8, 300, all));
+		assertEquals(TimeGranularity.WEEK, GeocellTimeBuckets.granularityFor(NOW - 10000 * 24 * HOUR, NOW, 8, 300, all));
+		assertEquals(TimeGranularity.DAY, GeocellTimeBuckets.granularityFor(NOW - HOUR, NOW, 8, 300, Arrays.asList(TimeGranularity.DAY, TimeGranularity.WEEK)));
+	}
+
+	@Test
+	public void testExpand() {
+		List<String> keys = GeocellTimeBuckets.expand(Arrays.asList("a1", "a2"), NOW - HOUR, NOW, TimeGranularity.HOUR);
+		long bucket = TimeGranularity.HOUR.bucket(NOW);
+		assertEquals(Arrays.asList("a1:h" + (bucket - 1), "a1:h" + bucket, "a2:h" + (bucket - 1), "a2:h" + bucket), keys);
+		assertEquals(-1, TimeGranularity.DAY.bucket(-1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInMemoryEngineRejected() {
+		new TimeBucketedQueryEngine(new InMemoryGeocellIndex<ObjectToSave>(), NOW - HOUR, NOW);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInMemoryEngineRejectsKeys() {
+		List<String> keys = GeocellTimeBuckets.expand(Arrays.asList("8e6f2"), NOW - HOUR, NOW, TimeGranularity.HOUR);
+		new InMemoryGeocellIndex<ObjectToSave>().query(null, keys, ObjectToSave.class);
+	}
+
+	@Test
+	public void testProximitySearchInWindow() {
+		Point center = new Point(48.85, 2.35);
+		final List<ObjectToSave> objects = new ArrayList<ObjectToSave>();
+		Set<Long> recent = new HashSet<Long>();
+		for(int i = 0; i < 40; i++) {
+			ObjectToSave object = new ObjectToSave();
+			object.setId(i);
+			object.setLatitude(center.getLat() + i * 0.001);
+			object.setLongitude(center.getLon());
+			// Every other object is two days old.
+			long time = i % 2 == 0 ? NOW - i * 60 * 1000 : NOW - 48 * HOUR;
+			List<String> geocells = new ArrayList<String>(GeocellManager.generateGeoCell(GeocellUtils.getLocation(object)));
+			geocells.addAll(GeocellTimeBuckets.generateKeys(GeocellUtils.getLocation(object), time));
+			object.setGeocells(geocells);
+			objects.add(object);
+			if(time >= NOW - HOUR) {
+				recent.add(object.getId());
+			}
+		}
+		GeocellQueryEngine engine = new GeocellQueryEngine() {
+			@Override
+			public <T> List<T> query(GeocellQuery baseQuery, List<String> curGeocellsUnique, Class<T> entityClass) {
+				List<T> result = new ArrayList<T>();
+				for(ObjectToSave object : objects) {
+					if(!Collections.disjoint(object.getGeocells(), curGeocellsUnique)) {
+						result.add(entityClass.cast(object));
+					}
+				}
+				return result;
+			}
+		};
+
+		List<ObjectToSave> results = GeocellManager.proximitySearch(center, 100, 0, ObjectToSave.class, null,
+				new TimeBucketedQueryEngine(engine, NOW - HOUR, NOW), 13);
+		assertFalse(results.isEmpty());
+		for(ObjectToSave object : results) {
+			assertTrue(recent.contains(object.getId()));
+		}
+		assertEquals(recent.size(), results.size());
+	}
+
+}